@@ -12,6 +12,14 @@ import java.util.stream.Stream;
  * The actions that can happen. Most command will cause an action which will
  * then cause zero or more reactions (which can then theoretically cause yet
  * more reactions.)
+ *
+ * An action can happen two ways: described, which makes it happen and says
+ * what happened, or just applied, which only makes it happen, for when nobody
+ * will read the text, e.g. replaying a journal or a Simulation. Either way
+ * leaves the world in the same state. Actions override apply to make the same
+ * changes as description without the text, mostly by calling the Thing
+ * methods, like move and applyOpen, that description's methods call before
+ * saying what happened.
  */
 public interface Action {
   /**
@@ -20,6 +28,15 @@ public interface Action {
    */
   public String description();
 
+  /**
+   * Make the action happen without describing it, for when nobody is going to
+   * read the description. By default that means getting the description and
+   * throwing it away, since for some actions that is what makes them happen.
+   */
+  public default void apply() {
+    description();
+  }
+
   /**
    * Get the reactions to this Action from the given thing. This method should
    * just dispatch to the appropriate on<Action> method in the Thing interface
@@ -37,6 +54,10 @@ public interface Action {
       return attack.description() + " " + attack.result(target);
     }
 
+    public void apply() {
+      weapon.attack().apply(target);
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onAttack(this);
     }
@@ -47,6 +68,10 @@ public interface Action {
       return thing.close();
     }
 
+    public void apply() {
+      thing.applyClose();
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onClose(this);
     }
@@ -57,6 +82,10 @@ public interface Action {
       return player.drop(thing);
     }
 
+    public void apply() {
+      player.room().drop(thing);
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onDrop(this);
     }
@@ -66,6 +95,11 @@ public interface Action {
     public String description() {
       return food.eat();
     }
+
+    public void apply() {
+      food.applyEat();
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onEat(this);
     }
@@ -76,6 +110,10 @@ public interface Action {
       return player.go(door);
     }
 
+    public void apply() {
+      player.enter(door);
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onEnter(this);
     }
@@ -85,6 +123,9 @@ public interface Action {
     public String description() {
       return player.room().description();
     }
+
+    public void apply() {}
+
     public Stream<Action> reactions(Thing t) {
       return t.onLook(this);
     }
@@ -95,6 +136,10 @@ public interface Action {
       return thing.moveTo(location, place);
     }
 
+    public void apply() {
+      thing.move(location, place);
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onMove(this);
     }
@@ -105,6 +150,10 @@ public interface Action {
       return thing.open();
     }
 
+    public void apply() {
+      thing.applyOpen();
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onOpen(this);
     }
@@ -112,9 +161,14 @@ public interface Action {
 
   public static record Put(Thing thing, Thing location, String place) implements Action {
     public String description() {
-      location.placeThing(thing, place);
+      apply();
       return "You put the " + thing.name() + " " + place + " the " + location.name() + ".";
     }
+
+    public void apply() {
+      location.placeThing(thing, place);
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onPut(this);
     }
@@ -125,11 +179,32 @@ public interface Action {
       return "'" + what + "' says the " + speaker.name() + ".";
     }
 
+    public void apply() {}
+
     public Stream<Action> reactions(Thing t) {
       return t.onSay(this);
     }
   }
 
+  // A thing closing by itself, e.g. some turns after it was opened, which
+  // makes a sound heard wherever the player is. Nothing happens if it has
+  // already been closed.
+  public static record Shut(Thing thing, String sound) implements Action {
+    public String description() {
+      if (!thing.isOpen()) return "";
+      apply();
+      return sound;
+    }
+
+    public void apply() {
+      thing.applyClose();
+    }
+
+    public Stream<Action> reactions(Thing t) {
+      return Stream.empty();
+    }
+  }
+
   public static record Take(Player p, List<Thing> things) implements Action {
     public String description() {
       var taken = new ArrayList<String>();
@@ -152,6 +227,12 @@ public interface Action {
       return String.join(" ", desc);
     }
 
+    public void apply() {
+      for (var t : things) {
+        if (t.canBeTaken()) p.placeThing(t, "in your stuff");
+      }
+    }
+
     public Stream<Action> reactions(Thing t) {
       return t.onTake(this);
     }
@@ -167,16 +248,37 @@ public interface Action {
       return "";
     }
 
+    public void apply() {}
+
     public Stream<Action> reactions(Thing t) {
       return t.onTalk(this);
     }
   }
 
+  // A turn passing for things everywhere. See Actors.
+  public static record Tick(Player player, Room room, long turn) implements Action {
+    public String description() {
+      return null; // Like Turn, a pseudo action.
+    }
+
+    public void apply() {}
+
+    public Stream<Action> reactions(Thing t) {
+      return t.onTick(this);
+    }
+
+    public boolean seen() {
+      return room == player.room();
+    }
+  }
+
   public static record Turn(Player player) implements Action {
     public String description() {
       return null; // This is a pseudo action so no description.
     }
 
+    public void apply() {}
+
     public Stream<Action> reactions(Thing t) {
       return t.onTurn(this);
     }
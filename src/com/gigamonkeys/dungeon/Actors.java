@@ -0,0 +1,154 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs the world-wide part of a turn. Things whose class overrides onTick are
+ * marked ACTIVE in the World when they're made and every turn each of them,
+ * whatever room it's in, is asked what it wants to do. Everything else in the
+ * world costs nothing.
+ *
+ * A tick has two phases. First the World's pages are split up across the
+ * common fork-join pool and the actors on each page decide, in parallel, what
+ * actions to take; deciding only reads the world. Then, back on the calling
+ * thread, the actions are taken one at a time in order of the ids of the
+ * things that took them, so things acting on other rooms, e.g. by wandering
+ * into them, see each other's effects in the same order every time however the
+ * pages were split up. Actions in the player's room are handed back to be
+ * described along with the rest of the turn; elsewhere they just happen,
+ * without reactions, since nobody is there to see them.
+ *
+ * In a world loaded a region at a time only the loaded regions tick. A world
+ * shared between players (see Realm) has no turn for everything to act on,
+ * so nothing ticks.
+ */
+public class Actors {
+
+  // An action an actor decided on and whether it's in the player's room.
+  private static record Act(Action action, boolean seen) {}
+
+  /**
+   * Tick every actor in the player's world, taking all the actions not in the
+   * player's room and returning the ones that are.
+   */
+  public static List<Action> tick(Player player) {
+    var world = player.world();
+    if (world.actors() == 0 || world.realm() != null) return List.of();
+
+    var pages = (world.size() + World.PAGE_SIZE - 1) / World.PAGE_SIZE;
+    var range = IntStream.range(0, pages);
+    var decided = (pages > 1 ? range.parallel() : range).mapToObj(p -> World.using(world, () -> decide(player, p)))
+      .toList();
+
+    var seen = new ArrayList<Action>();
+    for (var acts : decided) {
+      for (var act : acts) {
+        if (act.seen()) {
+          seen.add(act.action());
+        } else {
+          act.action().apply();
+        }
+      }
+    }
+    return seen;
+  }
+
+  // What the actors on one page want to do.
+  private static List<Act> decide(Player player, int page) {
+    var world = player.world();
+    var base = page * World.PAGE_SIZE;
+    if (!world.loaded(base)) return List.of();
+
+    var end = Math.min(base + World.PAGE_SIZE, world.size());
+    var turn = world.scheduler().now();
+    List<Act> acts = null;
+    for (var id = base; id < end; id++) {
+      if (!world.is(id, World.ACTIVE)) continue;
+      var room = room(player, id);
+      if (room == null) continue;
+
+      var tick = new Action.Tick(player, room, turn);
+      var it = ((Thing) world.view(id)).onTick(tick).iterator();
+      while (it.hasNext()) {
+        if (acts == null) acts = new ArrayList<>();
+        acts.add(new Act(it.next(), tick.seen()));
+      }
+    }
+    return acts == null ? List.of() : acts;
+  }
+
+  // The room id is in, counting things the player has as being in the
+  // player's room, or null if it isn't anywhere, e.g. because it was eaten.
+  private static Room room(Player player, int id) {
+    var world = player.world();
+    for (var p = world.parent(id); p != World.NONE; p = world.parent(p)) {
+      var view = world.view(p);
+      if (view instanceof Room r) return r;
+      if (view == player) return player.room();
+    }
+    return null;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Demo
+
+  // Wanders through a random door every turn.
+  private static class Rat extends Thing.Monster {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    Rat() {
+      super("rat", 1);
+    }
+
+    @Override
+    public Stream<Action> onTick(Action.Tick a) {
+      var start = (int) Math.floorMod(MazeGenerator.mix(id(), a.turn()), (long) DIRECTIONS.length);
+      for (var i = 0; i < DIRECTIONS.length; i++) {
+        var door = a.room().door(DIRECTIONS[(start + i) % DIRECTIONS.length]);
+        if (door.isPresent()) return Stream.of(new Action.Move(this, door.get().from(a.room()), "in"));
+      }
+      return Stream.empty();
+    }
+  }
+
+  /**
+   * Generate a maze with a rat in every room and time some ticks. Usage:
+   * Actors [width] [height] [ticks] [seed]. Prints a hash of where the rats
+   * end up, which should be the same however many threads the pool has.
+   */
+  public static void main(String[] args) {
+    World.using(new World(), () -> run(args));
+  }
+
+  private static void run(String[] args) {
+    var width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    var height = args.length > 1 ? Integer.parseInt(args[1]) : width;
+    var ticks = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    var seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+    var rooms = new MazeGenerator(new MazeGenerator.Params(width, height, seed)).generate();
+    var rats = new Rat[rooms.length];
+    for (var i = 0; i < rooms.length; i++) {
+      rats[i] = new Rat();
+      rooms[i].placeThing(rats[i], "in");
+    }
+    var player = new Player(rooms[0], 20);
+    System.out.println(String.format("%,d rooms, %,d rats", rooms.length, player.world().actors()));
+
+    for (var i = 0; i < ticks; i++) {
+      var start = System.nanoTime();
+      player.world().scheduler().tick();
+      var seen = tick(player);
+      seen.forEach(Action::apply);
+      System.out.println(String.format("tick %d: %,.1f ms", i + 1, (System.nanoTime() - start) / 1e6));
+    }
+
+    var hash = 0L;
+    for (var rat : rats) hash = hash * 31 + rat.location().map(Location::id).orElse(-1);
+    System.out.println(String.format("rats at %016x", hash));
+  }
+}
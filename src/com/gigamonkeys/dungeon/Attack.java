@@ -7,8 +7,17 @@ public interface Attack {
    * Something that can be the target of an attack. Currently the Player and Things.
    */
   public static interface Target {
+    /**
+     * Apply the attack and describe the result.
+     */
     public String applyAttack(Attack attack);
 
+    /**
+     * Apply the attack without describing it, leaving the target just as
+     * applyAttack would.
+     */
+    public void hit(Attack attack);
+
     public String who();
   }
 
@@ -31,6 +40,14 @@ public interface Attack {
    */
   public String result(Target thing);
 
+  /**
+   * Make the attack happen to the target without describing it, for when
+   * nobody will read the result. See Action.apply.
+   */
+  public default void apply(Target target) {
+    target.hit(this);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Some convenience implementations of Attack
 
@@ -51,9 +68,12 @@ public interface Attack {
     public int damage() {
       return 0;
     }
+
     public String result(Target thing) {
       return "doing zero damage";
     }
+
+    public void apply(Target target) {}
   }
 
   /**
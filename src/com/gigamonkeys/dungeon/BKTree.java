@@ -0,0 +1,160 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.Arrays;
+
+/**
+ * Burkhard-Keller tree of words for finding the closest known word to a
+ * misspelled one without comparing against every word. Distance between words
+ * is the number of characters that have to be deleted or inserted to turn one
+ * into the other, i.e. the sum of their lengths minus twice the length of
+ * their longest common subsequence, which is a metric so the triangle
+ * inequality lets searches skip most of the tree.
+ *
+ * Words can be added and removed at any time. Like Trie, a word added more
+ * than once stays until it has been removed as many times. Removed words
+ * stay in the tree as dead nodes (they are still needed to route searches)
+ * and come back to life if the word is added again.
+ */
+public class BKTree {
+
+  private static final int[] NO_DISTANCES = new int[0];
+  private static final Node[] NO_KIDS = new Node[0];
+
+  private static class Node {
+
+    final String word;
+    int refs = 1;
+    int[] distances = NO_DISTANCES;
+    Node[] kids = NO_KIDS;
+
+    Node(String word) {
+      this.word = word;
+    }
+
+    Node child(int distance) {
+      for (var i = 0; i < distances.length; i++) {
+        if (distances[i] == distance) return kids[i];
+      }
+      return null;
+    }
+
+    void addChild(int distance, Node node) {
+      var n = distances.length;
+      distances = Arrays.copyOf(distances, n + 1);
+      kids = Arrays.copyOf(kids, n + 1);
+      distances[n] = distance;
+      kids[n] = node;
+    }
+  }
+
+  private Node root;
+  private int size;
+
+  // Scratch rows for computing distances.
+  private int[] previous = new int[16];
+  private int[] current = new int[16];
+
+  public void add(String word) {
+    if (root == null) {
+      root = new Node(word);
+      size++;
+      return;
+    }
+    var node = root;
+    while (true) {
+      var d = measure(word, node.word);
+      if (d == 0) {
+        if (node.refs++ == 0) size++;
+        return;
+      }
+      var next = node.child(d);
+      if (next == null) {
+        node.addChild(d, new Node(word));
+        size++;
+        return;
+      }
+      node = next;
+    }
+  }
+
+  public void remove(String word) {
+    var node = root;
+    while (node != null) {
+      var d = measure(word, node.word);
+      if (d == 0) {
+        if (node.refs > 0 && --node.refs == 0) size--;
+        return;
+      }
+      node = node.child(d);
+    }
+  }
+
+  /**
+   * Number of live words.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The live word closest to word and no more than max away, or null if there
+   * isn't one. Ties go to the alphabetically first word.
+   */
+  public String closest(String word, int max) {
+    return root == null ? null : closest(root, word, max, null, max + 1);
+  }
+
+  private String closest(Node node, String word, int max, String best, int bestDistance) {
+    var d = measure(word, node.word);
+    if (node.refs > 0 && d <= max && (best == null || d < bestDistance || (d == bestDistance && node.word.compareTo(best) < 0))) {
+      best = node.word;
+      bestDistance = d;
+      max = Math.min(max, d);
+    }
+    for (var i = 0; i < node.kids.length; i++) {
+      if (Math.abs(node.distances[i] - d) <= max) {
+        var found = closest(node.kids[i], word, max, best, bestDistance);
+        if (found != best) {
+          best = found;
+          bestDistance = measure(word, best);
+          max = Math.min(max, bestDistance);
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Insert/delete edit distance: len(a) + len(b) - 2 * LCS(a, b).
+   */
+  public static int distance(String a, String b) {
+    return new BKTree().measure(a, b);
+  }
+
+  // Same as distance but reusing this tree's scratch rows.
+  private int measure(String a, String b) {
+    if (previous.length <= b.length()) {
+      previous = new int[b.length() + 1];
+      current = new int[b.length() + 1];
+    }
+    Arrays.fill(previous, 0, b.length() + 1, 0);
+    for (var i = 1; i <= a.length(); i++) {
+      current[0] = 0;
+      var ca = a.charAt(i - 1);
+      for (var j = 1; j <= b.length(); j++) {
+        current[j] = ca == b.charAt(j - 1) ? previous[j - 1] + 1 : Math.max(previous[j], current[j - 1]);
+      }
+      var tmp = previous;
+      previous = current;
+      current = tmp;
+    }
+    return a.length() + b.length() - 2 * previous[b.length()];
+  }
+
+  /**
+   * How far off a word can be and still get a suggestion.
+   */
+  public static int tolerance(String word) {
+    return Math.max(2, word.length() / 3);
+  }
+}
@@ -0,0 +1,239 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Microbenchmarks for the command/turn hot path, in the style of JMH: each
+ * benchmark is run for a number of timed warmup iterations and then measured
+ * iterations, with results fed to a sink so the JIT can't throw the work
+ * away. Every benchmark is run against synthetic worlds of each combination
+ * of the world-size parameters.
+ *
+ * Usage: Bench [filter=regex] [rooms=n,...] [things=n,...] [depth=n,...]
+ *              [warmup=n] [iterations=n] [millis=n]
+ */
+public class Bench {
+
+  /**
+   * Shape of a synthetic world: how many rooms, how many top-level things in
+   * each room, and how deeply things are nested inside those things.
+   */
+  public static record Params(int rooms, int things, int depth) {
+    public String toString() {
+      return "rooms=" + rooms + " things=" + things + " depth=" + depth;
+    }
+  }
+
+  /**
+   * A world built from Params plus the bits of it the benchmarks poke at.
+   */
+  public static class Fixture {
+
+    final Params params;
+    final Room[] rooms;
+    final Player player;
+    final Dungeon dungeon;
+    final String deepest;
+    final List<String> text;
+
+    Fixture(Params params) {
+      this.params = params;
+      this.rooms = world(params);
+      this.player = new Player(rooms[0], Integer.MAX_VALUE);
+      this.dungeon = new Dungeon(player, OutputStream.nullOutputStream());
+      this.deepest = nestedName(params.things() - 1, params.depth());
+      this.text = Arrays.asList(rooms[0].description().split("(?<=\\.) "));
+    }
+  }
+
+  /**
+   * One benchmark. The setup function is called once per fixture and returns
+   * the operation to be timed.
+   */
+  public static record Benchmark(String name, Function<Fixture, Supplier<Object>> setup) {}
+
+  static final List<Benchmark> benchmarks = List.of(
+    new Benchmark("Dungeon.doCommand(look)", f -> command(f, "look")),
+    new Benchmark("Dungeon.doCommand(take/drop)", Bench::takeDrop),
+    new Benchmark("Dungeon.doCommand(unknown)", f -> command(f, "frobnicate")),
+    new Benchmark("Command.Turn.run(look)", Bench::turn),
+    new Benchmark("Room.description", f -> f.rooms[0]::description),
+    new Benchmark("Location.thing(deepest)", f -> () -> f.rooms[0].thing(f.deepest)),
+    new Benchmark("Location.thing(missing)", f -> () -> f.rooms[0].thing("nothing")),
+    new Benchmark("Text.Wrapped.toString", f -> () -> new Text.Wrapped().add(f.text.stream()).toString()),
+    new Benchmark("Dungeon.tokenize", f -> () -> Dungeon.tokenize("take " + f.deepest + " and the chest0!"))
+  );
+
+  // Results of every operation land here so they can't be optimized away.
+  private static Object sink;
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Benchmarks
+
+  private static Supplier<Object> command(Fixture f, String line) {
+    var tokens = Dungeon.tokenize(line);
+    return () -> f.dungeon.doCommand(tokens, f.player);
+  }
+
+  private static Supplier<Object> takeDrop(Fixture f) {
+    // Uses the first chain of things so the lookups of f.deepest aren't affected.
+    var name = nestedName(0, f.params.depth());
+    var take = Dungeon.tokenize("take " + name);
+    var drop = Dungeon.tokenize("drop " + name);
+    var flip = new boolean[1];
+    return () -> f.dungeon.doCommand((flip[0] = !flip[0]) ? take : drop, f.player);
+  }
+
+  private static Supplier<Object> turn(Fixture f) {
+    var turn = new Command.Turn("look", "Look.", f.player::look);
+    var args = new String[] { "look" };
+    return () -> turn.run(args, f.player);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Synthetic worlds
+
+  private static final String[] places = { "on the floor", "against the wall", "in the corner", "by the door" };
+  private static final String[] inside = { "on", "in", "under" };
+
+  static String nestedName(int thing, int level) {
+    return level == 0 ? "chest" + thing : "box" + thing + "x" + level;
+  }
+
+  /**
+   * Build a grid of rooms each with the given number of top-level things, each
+   * of which holds a chain of things nested depth deep. Every room also gets a
+   * mirror that reacts to being looked at so turns have reactions to process.
+   */
+  static Room[] world(Params p) {
+    var width = (int) Math.ceil(Math.sqrt(p.rooms()));
+    var rooms = new Room[p.rooms()];
+
+    for (var i = 0; i < rooms.length; i++) {
+      var room = rooms[i] = new Room("room number " + i + " of a very large dungeon");
+      if (i % width > 0) rooms[i - 1].connect("narrow passage", room, EAST);
+      if (i >= width) rooms[i - width].connect("steep staircase", room, SOUTH);
+
+      for (var t = 0; t < p.things(); t++) {
+        Thing top = t % 5 == 4
+          ? new Thing.Monster(nestedName(t, 0), "sleepy ogre", "dead ogre", 10, false)
+          : new Thing.Furniture(nestedName(t, 0), "battered wooden chest");
+        room.placeThing(top, places[t % places.length]);
+        Thing parent = top;
+        for (var d = 1; d <= p.depth(); d++) {
+          var child = d % 2 == 0
+            ? new Thing.Food(nestedName(t, d), "stale biscuit", "Crunchy.")
+            : new Thing.Weapon(nestedName(t, d), "small knife", new Attack.Simple("Stab!", 1));
+          parent.placeThing(child, inside[d % inside.length]);
+          parent = child;
+        }
+      }
+
+      room.placeThing(
+        new Thing.Furniture("mirror", "tall mirror") {
+          public Stream<Action> onLook(Action.Look a) {
+            return Stream.of(new Action.Say(this, "Looking good."));
+          }
+        },
+        "on the wall"
+      );
+    }
+    return rooms;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Harness
+
+  private static record Options(
+    Pattern filter,
+    List<Integer> rooms,
+    List<Integer> things,
+    List<Integer> depth,
+    int warmup,
+    int iterations,
+    int millis
+  ) {
+    static Options parse(String[] args) {
+      var m = new TreeMap<String, String>();
+      for (var a : args) {
+        var kv = a.split("=", 2);
+        if (kv.length != 2) throw new IllegalArgumentException("Expected key=value: " + a);
+        m.put(kv[0], kv[1]);
+      }
+      return new Options(
+        Pattern.compile(m.getOrDefault("filter", ".*")),
+        ints(m, "rooms", "10,1000"),
+        ints(m, "things", "5,50"),
+        ints(m, "depth", "1,4"),
+        Integer.parseInt(m.getOrDefault("warmup", "3")),
+        Integer.parseInt(m.getOrDefault("iterations", "5")),
+        Integer.parseInt(m.getOrDefault("millis", "200"))
+      );
+    }
+
+    private static List<Integer> ints(Map<String, String> m, String key, String dflt) {
+      return Arrays.stream(m.getOrDefault(key, dflt).split(",")).map(Integer::parseInt).toList();
+    }
+  }
+
+  /**
+   * Run the operation repeatedly for about the given number of milliseconds
+   * and return the average nanoseconds per operation.
+   */
+  private static double iteration(Supplier<Object> op, int millis) {
+    var deadline = System.nanoTime() + millis * 1_000_000L;
+    long ops = 0;
+    var start = System.nanoTime();
+    long now;
+    do {
+      for (var i = 0; i < 64; i++) {
+        sink = op.get();
+      }
+      ops += 64;
+    } while ((now = System.nanoTime()) < deadline);
+    return (double) (now - start) / ops;
+  }
+
+  private static String measure(Supplier<Object> op, Options opts) {
+    for (var i = 0; i < opts.warmup(); i++) iteration(op, opts.millis());
+
+    var results = new double[opts.iterations()];
+    for (var i = 0; i < results.length; i++) results[i] = iteration(op, opts.millis());
+
+    var mean = Arrays.stream(results).average().orElse(0);
+    var variance = Arrays.stream(results).map(r -> (r - mean) * (r - mean)).sum() / Math.max(1, results.length - 1);
+    return String.format("%,14.1f +- %,10.1f ns/op", mean, Math.sqrt(variance));
+  }
+
+  public static void main(String[] args) {
+    World.using(new World(), () -> run(args));
+  }
+
+  private static void run(String[] args) {
+    var opts = Options.parse(args);
+    var selected = benchmarks.stream().filter(b -> opts.filter().matcher(b.name()).find()).toList();
+
+    var params = new ArrayList<Params>();
+    for (var r : opts.rooms()) for (var t : opts.things()) for (var d : opts.depth()) params.add(new Params(r, t, d));
+
+    for (var p : params) {
+      var fixture = new Fixture(p);
+      System.out.println("# " + p);
+      for (var b : selected) {
+        System.out.println(String.format("%-32s %s", b.name(), measure(b.setup().apply(fixture), opts)));
+      }
+      System.out.println();
+    }
+  }
+}
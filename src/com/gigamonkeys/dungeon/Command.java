@@ -2,6 +2,8 @@ package com.gigamonkeys.dungeon;
 
 import com.gigamonkeys.dungeon.CommandParser.BadCommandException;
 import com.gigamonkeys.dungeon.CommandParser.Parser;
+import java.util.List;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -19,77 +21,187 @@ public interface Command {
   public String help();
 
   /**
-   * Run the command.
+   * Run the command, writing its output to out.
    */
-  public String run(String[] args, Player p);
+  public void run(String[] args, Player p, Text.Wrapper out);
+
+  /**
+   * Run the command without producing any output, for when nobody would read
+   * it, e.g. replaying a journal. Leaves the world just as run would.
+   */
+  public void apply(String[] args, Player p);
+
+  /**
+   * Run the command and return its output as a string.
+   */
+  public default String run(String[] args, Player p) {
+    var sb = new StringBuilder();
+    run(args, p, new Text.Wrapper(sb));
+    return sb.toString();
+  }
 
   /**
    * The main Command implementation, for commands that produce an Action which
    * can produce reactions and counts as a turn. The combined outputs from the
-   * initial action and all the reactions plus a synthetic Turn action, and
-   * finally any state changes reported by the Player are jammed together and
-   * wrapped as a paragraph.
+   * initial action and all the reactions plus a synthetic Turn action, any
+   * scheduled actions that came due this turn, what Actors in the room did,
+   * and finally any state changes reported by the Player are jammed together and
+   * wrapped as a paragraph as they are produced. The reactions share one
+   * budget per turn; see Reactions. Each turn and each unparseable command is
+   * counted in Metrics. Applied rather than run, the same actions happen in
+   * the same order but are applied instead of described.
    */
   public static record Turn(String verb, String help, Parser parser) implements Command {
     /**
      * Run the command.
      */
-    public String run(String[] args, Player p) {
+    public void run(String[] args, Player p, Text.Wrapper text) {
+      play(args, p, text);
+    }
+
+    public void apply(String[] args, Player p) {
+      play(args, p, null);
+    }
+
+    // Play the turn, describing it to text unless text is null.
+    void play(String[] args, Player p, Text.Wrapper text) {
+      var start = System.nanoTime();
+      Action action;
       try {
-        var action = parser.parse(args);
+        action = parser.parse(args);
+      } catch (BadCommandException bce) {
+        Metrics.GLOBAL.bad(verb);
+        if (text != null) text.raw(bce.getMessage());
+        return;
+      }
 
+      var reactions = new Reactions();
+      if (text == null) {
+        action.apply();
+        reactions.run(action, p);
+        reactions.run(new Action.Turn(p), p);
+        reactions.run(p.world().scheduler().tick(), p);
+        reactions.run(Actors.tick(p), p);
+      } else {
         // Get this before running any actions since they could change it.
         var startingState = p.state();
 
-        var text = new Text.Wrapped();
         text.add(action.description());
-        addReactions(text, action, p);
-        addReactions(text, new Action.Turn(p), p);
+        reactions.run(text, action, p);
+        reactions.run(text, new Action.Turn(p), p);
+        reactions.run(text, p.world().scheduler().tick(), p);
+        reactions.run(text, Actors.tick(p), p);
         text.add(p.stateChanges(startingState));
-        return text.toString();
-      } catch (BadCommandException bce) {
-        return bce.getMessage();
+        reactions.report().ifPresent(r -> text.add("[" + r + "]"));
       }
+      Metrics.GLOBAL.turn(verb, System.nanoTime() - start, reactions);
     }
+  }
 
-    /**
-     * Get the description of executing this action and of all the resulting
-     * reactions, recursively.
-     */
-    private void addReactions(Text.Wrapped text, Action action, Player player) {
-      // Adds the reactions in batches because getting the description of each
-      // action may potentially change the state of the world in ways that lead to
-      // ConcurrentModificationExceptions from the stream if we try to do
-      // everything in one big lazy stream.
-      //
-      // N.B. this method does nothing to detect or prevent infinite loops or
-      // sorcerer's apprentice situations so be careful about what reactions you
-      // generate in the various Things.
-
-      // Get the imediate reactions from all the things in the room.
-      var reactions = player.room().allThings().flatMap(action::reactions).toList();
-
-      // Add the descriptions of those reactions first.
-      text.add(reactions.stream().map(Action::description));
-
-      // Now get all the reactions to those actions, recursively.
-      for (var a : reactions) {
-        addReactions(text, a, player);
+  /**
+   * A command for getting around. Given one direction it's an ordinary Turn
+   * made with the step parser. Given anything else, e.g. TO KITCHEN or BACK TO
+   * THE KITCHEN, it takes the player along the shortest route to the nearest
+   * room that fits the description, a turn per room as if they had typed a go
+   * for each, but only describes where they end up. They stop early in any
+   * room with something in it that might react to them arriving or to a turn
+   * passing, or on a turn when something scheduled happens or something in the
+   * room acts, so they don't walk straight past a monster.
+   */
+  public static record Travel(String verb, String help, Parser step) implements Command {
+    public void run(String[] args, Player p, Text.Wrapper text) {
+      play(args, p, text);
+    }
+
+    public void apply(String[] args, Player p) {
+      play(args, p, null);
+    }
+
+    // Travel, describing where the player ends up to text unless it's null.
+    private void play(String[] args, Player p, Text.Wrapper text) {
+      var start = System.nanoTime();
+      if (args.length < 2 || (args.length == 2 && Direction.fromString(args[1]).isPresent())) {
+        new Turn(verb, help, step).play(args, p, text);
+        return;
+      }
+
+      List<Direction> route;
+      try {
+        var found = p.route(args);
+        if (found.isEmpty()) {
+          // Probably a misspelled direction, so let the step parser explain.
+          new Turn(verb, help, step).play(args, p, text);
+          return;
+        }
+        route = found.get();
+      } catch (BadCommandException bce) {
+        Metrics.GLOBAL.bad(verb);
+        if (text != null) text.raw(bce.getMessage());
+        return;
+      }
+
+      var startingState = text != null ? p.state() : null;
+      var steps = 0;
+      for (var d : route) {
+        var go = new Action.Go(p, p.room().door(d).get());
+        go.apply();
+        steps++;
+        var due = p.world().scheduler().tick();
+        var acting = Actors.tick(p);
+
+        var room = p.room();
+        var quiet =
+          room.listeners(Action.Go.class).isEmpty() &&
+          room.listeners(Action.Turn.class).isEmpty() &&
+          due.isEmpty() &&
+          acting.isEmpty();
+        if (!quiet || steps == route.size()) {
+          var reactions = new Reactions();
+          if (text == null) {
+            reactions.run(go, p);
+            reactions.run(new Action.Turn(p), p);
+            reactions.run(due, p);
+            reactions.run(acting, p);
+          } else {
+            var gone = route.subList(0, steps).stream().map(g -> g.name().toLowerCase()).toList();
+            var stopped = steps < route.size();
+            text.add("You go " + Text.commify(gone) + (stopped ? " and stop." : "."));
+            text.add(room.description());
+            reactions.run(text, go, p);
+            reactions.run(text, new Action.Turn(p), p);
+            reactions.run(text, due, p);
+            reactions.run(text, acting, p);
+            text.add(p.stateChanges(startingState));
+            reactions.report().ifPresent(r -> text.add("[" + r + "]"));
+          }
+          Metrics.GLOBAL.turn(verb, System.nanoTime() - start, reactions);
+          return;
+        }
       }
     }
   }
 
   /**
    * A command that just produces output and does not count as a turn. The
-   * Supplier of the output is responsible for formatting the output exactly as
-   * it should appear.
+   * function producing the output, which is passed the arguments, is
+   * responsible for formatting the output exactly as it should appear. Some,
+   * like undo, also change the game, so applying one still calls the function,
+   * throwing away its output.
    */
-  public static record NoTurn(String verb, String help, Supplier<String> fn) implements Command {
+  public static record NoTurn(String verb, String help, Function<String[], String> fn) implements Command {
+    public NoTurn(String verb, String help, Supplier<String> fn) {
+      this(verb, help, args -> fn.get());
+    }
+
     /**
      * Run the command.
      */
-    public String run(String[] args, Player p) {
-      return fn.get();
+    public void run(String[] args, Player p, Text.Wrapper out) {
+      out.raw(fn.apply(args));
+    }
+
+    public void apply(String[] args, Player p) {
+      fn.apply(args);
     }
   }
 }
@@ -0,0 +1,116 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Regression runner for a directory of scripted transcripts. Each script
+ * foo.txt is played, as `Dungeon foo.txt` would, against a fresh Maze in its
+ * own World and the output compared line by line with foo.golden. Scripts
+ * run in parallel on a fork-join pool, all in one JVM, and each failure is
+ * reported with the first line where the output diverges from the golden.
+ *
+ * Usage: Corpus [directory] (defaults to corpus)
+ */
+public class Corpus {
+
+  /**
+   * What happened with one script. Line is the 1-based number of the first
+   * line that differs and is 0 if the output matched.
+   */
+  public static record Result(Path script, int line, String expected, String actual) {
+    boolean passed() {
+      return line == 0;
+    }
+
+    public String toString() {
+      if (passed()) return script.getFileName() + ": ok";
+      return script + ":" + line + ":\n  expected: " + expected + "\n  actual:   " + actual;
+    }
+  }
+
+  private static final String END = "<end of output>";
+
+  private final ForkJoinPool pool;
+
+  public Corpus(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  public Corpus() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Run every script in directory, returning the results in the order of the
+   * script names.
+   */
+  public List<Result> run(Path directory) throws IOException {
+    List<Path> scripts;
+    try (var files = Files.list(directory)) {
+      scripts = files.filter(p -> p.getFileName().toString().endsWith(".txt")).sorted().toList();
+    }
+    try {
+      return pool.submit(() -> scripts.parallelStream().map(this::check).toList()).join();
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+
+  /**
+   * Run one script and compare its output to its golden.
+   */
+  public Result check(Path script) {
+    try {
+      var name = script.getFileName().toString();
+      var golden = script.resolveSibling(name.substring(0, name.length() - ".txt".length()) + ".golden");
+      var actual = play(Files.readAllBytes(script)).lines().toList();
+      if (!Files.exists(golden)) return new Result(script, 1, "<no " + golden.getFileName() + ">", line(actual, 0));
+      var expected = Files.readString(golden).lines().toList();
+      return divergence(expected, actual)
+        .map(i -> new Result(script, i + 1, line(expected, i), line(actual, i)))
+        .orElse(new Result(script, 0, null, null));
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+  }
+
+  /**
+   * Play the game with the given input, returning everything it printed.
+   */
+  static String play(byte[] input) throws IOException {
+    var out = new ByteArrayOutputStream();
+    var player = World.using(new World(), () -> new Player(new Maze().build(), 20));
+    new Dungeon(player, out).loop(new ByteArrayInputStream(input), true);
+    return out.toString();
+  }
+
+  private static Optional<Integer> divergence(List<String> expected, List<String> actual) {
+    var n = Math.max(expected.size(), actual.size());
+    return Stream.iterate(0, i -> i < n, i -> i + 1).filter(i -> !line(expected, i).equals(line(actual, i))).findFirst();
+  }
+
+  private static String line(List<String> lines, int i) {
+    return i < lines.size() ? lines.get(i) : END;
+  }
+
+  public static void main(String[] args) throws IOException {
+    var directory = Path.of(args.length > 0 ? args[0] : "corpus");
+    var start = System.nanoTime();
+    var results = new Corpus().run(directory);
+    var seconds = (System.nanoTime() - start) / 1e9;
+
+    var failed = results.stream().filter(r -> !r.passed()).toList();
+    failed.forEach(System.out::println);
+    System.out.printf("%d scripts, %d failed, in %.2f seconds.%n", results.size(), failed.size(), seconds);
+    if (!failed.isEmpty()) System.exit(1);
+  }
+}
@@ -1,11 +1,10 @@
 package com.gigamonkeys.dungeon;
 
-import java.util.Map;
 import java.util.Optional;
 
 /**
- * The directions the player can move. Also supports one-letter
- * abbreviations.
+ * The directions the player can move. Also supports abbreviations, from one
+ * letter up to the whole name.
  */
 public enum Direction {
   NORTH,
@@ -13,20 +12,17 @@ public enum Direction {
   SOUTH,
   WEST;
 
-  private static Map<String, String> abbrevs = Map.of("N", "NORTH", "E", "EAST", "S", "SOUTH", "W", "WEST");
+  private static final Trie<Direction> names = new Trie<>();
+
+  static {
+    for (var d : values()) names.add(d.name(), d);
+  }
 
   public Direction opposite() {
     return Direction.class.getEnumConstants()[(ordinal() + 2) % 4];
   }
 
   public static Optional<Direction> fromString(String name) {
-    try {
-      if (abbrevs.containsKey(name.toUpperCase())) {
-        name = abbrevs.get(name.toUpperCase());
-      }
-      return Optional.of(Direction.valueOf(name.toUpperCase()));
-    } catch (IllegalArgumentException iae) {
-      return Optional.empty();
-    }
+    return Optional.ofNullable(names.unique(name));
   }
 }
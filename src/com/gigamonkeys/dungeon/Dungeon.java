@@ -1,5 +1,7 @@
 package com.gigamonkeys.dungeon;
 
+import static com.gigamonkeys.dungeon.Text.*;
+
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -7,10 +9,19 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -19,54 +30,324 @@ import java.util.stream.IntStream;
  */
 public class Dungeon {
 
-  private static final Pattern wordPattern = Pattern.compile("\\W*(\\w+)\\W*");
+  /**
+   * Longest line of input run as a command. Anything longer is turned away
+   * before it gets anywhere near the journal.
+   */
+  public static final int MAX_LINE = 1024;
+
+  // Longest output whose buffer is kept from one command to the next.
+  private static final int MAX_PENDING = 4096;
+
+  // Bytes of output encoded at a time.
+  private static final int ENCODED = 1024;
+
+  // Commands that would do something different if run again from a journal:
+  // save and restore use files that may have changed since and undo needs the
+  // turns before it, which a game rebuilt from a snapshot doesn't have.
+  private static final Set<String> UNJOURNALED = Set.of("save", "restore", "undo");
 
   private final Player player;
-  private final BufferedReader in;
-  private final PrintStream out;
+  private final OutputStream out;
+  private final Charset charset;
+  private final StringBuilder pending = new StringBuilder();
+
+  // For encoding pending output into bytes, made the first time there is
+  // some and then reused.
+  private CharsetEncoder encoder;
+  private ByteBuffer encoded;
+
+  private final Text.Wrapper text;
   private final Map<String, Command> commands = new HashMap<>();
+  private final Verbs verbs;
 
   private boolean gameOver = false;
+  private Consumer<String[]> journal = tokens -> {};
+  private Runnable unjournaled = () -> {};
 
-  Dungeon(Player player, InputStream in, OutputStream out) {
+  // Where games are saved, or null if they can't be, e.g. in a game hosted
+  // for players who have no business making files on the host.
+  private Path saves = null;
+
+  Dungeon(Player player, OutputStream out) {
     this.player = player;
-    this.in = new BufferedReader(new InputStreamReader(in));
-    this.out = new PrintStream(out);
+    this.out = out;
+    this.charset = out instanceof PrintStream ps ? ps.charset() : Charset.defaultCharset();
+    this.text = new Text.Wrapper(pending);
     registerCommands(player);
+    this.verbs = Verbs.of(commands.keySet());
   }
 
-  private void loop(boolean printCommands) throws IOException {
-    say(player.room().description());
+  /**
+   * The verbs, by prefix and by spelling. Every game understands the same
+   * verbs, so these are made once for each set of verbs and shared instead of
+   * costing every game several K of nodes for as long as it lasts. Tries are
+   * only read once made but a BKTree searches with scratch space of its own, so
+   * searches of a shared one have to take turns.
+   */
+  private static record Verbs(Trie<String> prefixes, BKTree spellings) {
+    private static final Map<Set<String>, Verbs> shared = new ConcurrentHashMap<>();
+
+    static Verbs of(Set<String> verbs) {
+      return shared.computeIfAbsent(
+        Set.copyOf(verbs),
+        vs -> {
+          var prefixes = new Trie<String>();
+          var spellings = new BKTree();
+          vs.stream().sorted().forEach(v -> {
+            prefixes.add(v, v);
+            spellings.add(v);
+          });
+          return new Verbs(prefixes, spellings);
+        }
+      );
+    }
+
+    String closest(String word) {
+      synchronized (spellings) {
+        return spellings.closest(word, BKTree.tolerance(word));
+      }
+    }
+  }
+
+  void loop(InputStream input, boolean printCommands) throws IOException {
+    var in = new BufferedReader(new InputStreamReader(input));
+
+    start();
 
     while (!gameOver) {
-      out.print("> ");
       var line = in.readLine();
       if (line == null) break;
-      if (printCommands) out.println(line);
-      var tokens = tokenize(line.toLowerCase());
-      if (tokens.length > 0) {
-        say(doCommand(tokens, player));
-        if (!player.alive()) {
-          say("Ooops. You're dead. Game over.");
-          gameOver = true;
-        }
+      if (printCommands) pending.append(line).append(System.lineSeparator());
+      command(line);
+    }
+  }
+
+  /**
+   * Describe the starting room and prompt for the first command.
+   */
+  void start() {
+    say(player.room().description());
+    pending.append("> ");
+    flush();
+  }
+
+  /**
+   * Run one line of input, printing the results and then, unless the game is
+   * now over, the prompt for the next line.
+   */
+  void command(String line) {
+    var tokens = line.length() > MAX_LINE ? null : tokenize(line.toLowerCase());
+    if (tokens == null) {
+      say("That's too long. Commands can be at most " + MAX_LINE + " characters.");
+    } else if (tokens.length > 0) {
+      var journaled = journaled(tokens);
+      if (journaled) journal.accept(tokens);
+      say(t -> doCommand(tokens, player, t));
+      if (!journaled) unjournaled.run();
+      if (!player.alive()) {
+        say("Ooops. You're dead. Game over.");
+        gameOver = true;
+      }
+    }
+    if (!gameOver) pending.append("> ");
+    flush();
+  }
+
+  boolean gameOver() {
+    return gameOver;
+  }
+
+  /**
+   * Have fn called with the tokens of each command before it is run, e.g. to
+   * write them to a Journal so the game can be rebuilt by running them again,
+   * and unjournaled called after each command that isn't, like undo, so the
+   * game can be saved as it now is instead.
+   */
+  void journal(Consumer<String[]> fn, Runnable unjournaled) {
+    this.journal = fn;
+    this.unjournaled = unjournaled;
+  }
+
+  /**
+   * Let the player save and restore games in directory.
+   */
+  void saves(Path directory) {
+    this.saves = directory;
+  }
+
+  private boolean journaled(String[] tokens) {
+    var verb = verbs.prefixes().unique(tokens[0]);
+    return verb == null || !UNJOURNALED.contains(verb);
+  }
+
+  /**
+   * Run a command read back from a journal, as command would but without
+   * printing anything or journaling it again. The command is applied rather
+   * than run (see Command.apply) so none of the output that would be thrown
+   * away is made in the first place. Commands that aren't journaled are
+   * ignored.
+   */
+  void replay(String[] tokens) {
+    var command = commands.get(verbs.prefixes().unique(tokens[0]));
+    if (command != null && journaled(tokens)) {
+      if (!(command instanceof Command.NoTurn)) player.checkpoint();
+      tokens[0] = command.verb();
+      command.apply(tokens, player);
+    }
+    if (!player.alive()) gameOver = true;
+  }
+
+  /**
+   * Split a line into words made of letters, digits, and underscores,
+   * ignoring everything else.
+   */
+  static String[] tokenize(String line) {
+    var count = 0;
+    var inWord = false;
+    for (var i = 0; i < line.length(); i++) {
+      var w = isWordChar(line.charAt(i));
+      if (w && !inWord) count++;
+      inWord = w;
+    }
+
+    var tokens = new String[count];
+    var t = 0;
+    var start = -1;
+    for (var i = 0; i <= line.length(); i++) {
+      var w = i < line.length() && isWordChar(line.charAt(i));
+      if (w && start == -1) {
+        start = i;
+      } else if (!w && start != -1) {
+        tokens[t++] = line.substring(start, i);
+        start = -1;
       }
     }
+    return tokens;
   }
 
-  private String[] tokenize(String line) {
-    return wordPattern.matcher(line).results().map(r -> r.group(1)).toList().toArray(new String[0]);
+  private static boolean isWordChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
   }
 
   private void say(String s) {
-    out.println("\n" + s + "\n");
+    say(t -> t.raw(s));
+  }
+
+  /**
+   * Print a paragraph of output, set off by blank lines.
+   */
+  private void say(Consumer<Text.Wrapper> fn) {
+    pending.append('\n');
+    fn.accept(text.reset());
+    pending.append('\n').append(System.lineSeparator());
+  }
+
+  /**
+   * Write out everything printed since the last flush. Output is collected
+   * in a StringBuilder rather than a PrintStream since a PrintStream holds on
+   * to about 16K of buffers for as long as the game lasts, which is most of
+   * what an idle game would otherwise cost. It is encoded straight from the
+   * StringBuilder into a small buffer that is written out each time it
+   * fills. Like a PrintStream, carries on regardless if the output can't be
+   * written.
+   */
+  private void flush() {
+    if (pending.isEmpty()) return;
+    try {
+      encode();
+      out.flush();
+    } catch (IOException ioe) {
+      // Nobody to tell.
+    }
+    pending.setLength(0);
+    if (pending.capacity() > MAX_PENDING) pending.trimToSize();
+  }
+
+  private void encode() throws IOException {
+    if (encoder == null) {
+      encoder =
+        charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      encoded = ByteBuffer.allocate(ENCODED);
+    }
+    var chars = CharBuffer.wrap(pending);
+    encoder.reset();
+    CoderResult result;
+    do {
+      result = encoder.encode(chars, encoded, true);
+      writeEncoded();
+    } while (result.isOverflow());
+    do {
+      result = encoder.flush(encoded);
+      writeEncoded();
+    } while (result.isOverflow());
+  }
+
+  private void writeEncoded() throws IOException {
+    if (encoded.position() > 0) {
+      out.write(encoded.array(), 0, encoded.position());
+      encoded.clear();
+    }
+  }
+
+  /**
+   * End the game with a last word, e.g. because it couldn't be recovered.
+   */
+  void end(String message) {
+    say(message);
+    gameOver = true;
+    close();
+  }
+
+  /**
+   * Flush and close the output, e.g. because the game is over and whoever is
+   * on the other end should know there's no more to come.
+   */
+  void close() {
+    flush();
+    try {
+      out.close();
+    } catch (IOException ioe) {
+      // Nothing more to lose.
+    }
   }
 
   public String doCommand(String[] tokens, Player player) {
-    return Optional
-      .ofNullable(commands.get(tokens[0]))
-      .map(c -> c.run(tokens, player))
-      .orElse("Don't know how to " + tokens[0] + ".");
+    var sb = new StringBuilder();
+    doCommand(tokens, player, new Text.Wrapper(sb));
+    return sb.toString();
+  }
+
+  /**
+   * Run the command named, possibly by a unique abbreviation, by the first
+   * token. The token is replaced with the full verb before the command sees
+   * it. Commands that take a turn can be undone. How long it took and how much
+   * it wrote are counted in Metrics.
+   */
+  public void doCommand(String[] tokens, Player player, Text.Wrapper out) {
+    var start = System.nanoTime();
+    var written = out.written();
+    var command = commands.get(verbs.prefixes().unique(tokens[0]));
+    try {
+      doCommand(command, tokens, player, out);
+    } finally {
+      var verb = command != null ? command.verb() : Metrics.UNKNOWN;
+      Metrics.GLOBAL.command(verb, System.nanoTime() - start, out.written() - written);
+    }
+  }
+
+  private void doCommand(Command command, String[] tokens, Player player, Text.Wrapper out) {
+    if (command != null) {
+      if (!(command instanceof Command.NoTurn)) player.checkpoint();
+      tokens[0] = command.verb();
+      command.run(tokens, player, out);
+    } else if (verbs.prefixes().count(tokens[0]) > 1) {
+      var candidates = verbs.prefixes().completions(tokens[0]).stream().sorted().toList();
+      out.raw("Which do you mean: " + either(candidates) + "?");
+    } else {
+      var guess = verbs.closest(tokens[0]);
+      out.raw("Don't know how to " + tokens[0] + "." + (guess != null ? " Did you mean " + guess + "?" : ""));
+    }
   }
 
   private void registerCommand(Command command) {
@@ -79,15 +360,19 @@ public class Dungeon {
     registerCommand(new Command.Turn("close", "Close something.", player::close));
     registerCommand(new Command.Turn("drop", "Drop an item you are carrying.", player::drop));
     registerCommand(new Command.Turn("eat", "Eat an item you are holding or in the room.", player::eat));
-    registerCommand(new Command.Turn("go", "Go in a direction (NORTH, SOUTH, EAST, or WEST).", player::go));
+    registerCommand(new Command.Travel("go", "Go in a direction (NORTH, SOUTH, EAST, or WEST).", player::go));
     registerCommand(new Command.Turn("look", "Look at the room your are in again.", player::look));
     registerCommand(new Command.Turn("open", "Open something.", player::open));
     registerCommand(new Command.Turn("put", "Put an object somewhere.", player::put));
     registerCommand(new Command.Turn("say", "Attack a monster with a weapon.", player::talk));
     registerCommand(new Command.Turn("take", "Take an item from the room.", player::take));
+    registerCommand(new Command.Travel("travel", "Travel to the nearest room of some kind, e.g. TO KITCHEN.", player::go));
     registerCommand(new Command.NoTurn("help", "Get help on commands.", this::help));
     registerCommand(new Command.NoTurn("inventory", "List the items you are holding.", player::inventory));
     registerCommand(new Command.NoTurn("quit", "Quit the game", this::quit));
+    registerCommand(new Command.NoTurn("save", "Save the game, optionally giving it a name.", this::save));
+    registerCommand(new Command.NoTurn("restore", "Restore a saved game, by name if it has one.", this::restore));
+    registerCommand(new Command.NoTurn("undo", "Take back the last turn.", this::undo));
   }
 
   private String quit() {
@@ -95,6 +380,39 @@ public class Dungeon {
     return "Okay, bye!";
   }
 
+  private String save(String[] args) {
+    if (saves == null) return "Games can't be saved here.";
+    var file = saveFile(args);
+    try {
+      Snapshot.save(player, file);
+      return "Saved the game to " + file + ".";
+    } catch (IOException ioe) {
+      return "Couldn't save the game: " + ioe.getMessage();
+    }
+  }
+
+  private String restore(String[] args) {
+    if (saves == null) return "Games can't be restored here.";
+    var file = saveFile(args);
+    try {
+      Snapshot.restore(player, file);
+      return "Restored the game from " + file + ".\n\n" + new Text.Wrapped().add(player.room().description());
+    } catch (NoSuchFileException nsfe) {
+      return "There's no saved game in " + file + ".";
+    } catch (IOException ioe) {
+      return "Couldn't restore the game: " + ioe.getMessage();
+    }
+  }
+
+  private String undo() {
+    if (!player.undo()) return "There's nothing to undo.";
+    return "Undone.\n\n" + new Text.Wrapped().add(player.room().description());
+  }
+
+  private Path saveFile(String[] args) {
+    return saves.resolve((args.length > 1 ? args[1] : "dungeon") + ".sav");
+  }
+
   private String help() {
     var w = commands.values().stream().mapToInt(c -> c.verb().length()).max().getAsInt();
 
@@ -115,12 +433,19 @@ public class Dungeon {
   }
 
   public static void main(String[] args) {
-    try {
-      var in = args.length > 0 ? new FileInputStream(args[0]) : System.in;
-      var player = new Player(new Maze().build(), 20);
-      new Dungeon(player, in, System.out).loop(args.length > 0);
-    } catch (IOException ioe) {
-      System.out.println("Yikes. Problem reading command: " + ioe);
-    }
+    World.using(
+      new World(),
+      () -> {
+        try {
+          var in = args.length > 0 ? new FileInputStream(args[0]) : System.in;
+          var player = new Player(new Maze().build(), 20);
+          var dungeon = new Dungeon(player, System.out);
+          dungeon.saves(Path.of(""));
+          dungeon.loop(in, args.length > 0);
+        } catch (IOException ioe) {
+          System.out.println("Yikes. Problem reading command: " + ioe);
+        }
+      }
+    );
   }
 }
@@ -0,0 +1,18 @@
+package com.gigamonkeys.dungeon;
+
+/**
+ * A game being played by someone at the other end of a connection: lines of
+ * input are sent in and the output goes to whatever stream the game was
+ * started with, which is closed when the game ends. See Server.
+ */
+public interface Game extends AutoCloseable {
+  /**
+   * Queue a line of input for the game.
+   */
+  public void send(String line);
+
+  /**
+   * End the game, e.g. because the connection went away.
+   */
+  public void close();
+}
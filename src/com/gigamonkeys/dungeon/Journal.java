@@ -0,0 +1,314 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal shared by all the sessions on a host. Each
+ * session logs the tokens of every command before running it and waits until
+ * the record is on disk. Records from all sessions go into one buffer which a
+ * single committer thread writes and forces to disk in batches, so however
+ * many sessions are playing there is at most one fsync in flight and each one
+ * makes everything appended while the previous one was running durable.
+ *
+ * Besides commands the journal records when a session has been checkpointed
+ * to a snapshot, so recovery only has to replay the commands after that, and
+ * when it ended, so it isn't recovered at all.
+ *
+ * Format, all little-endian: a sequence of records, each a length and CRC32
+ * of the payload followed by the payload: type, session id, and then the
+ * tokens (count then length-prefixed UTF-8) of a command or the number of a
+ * checkpoint. A torn or corrupt record, as left by a crash in the middle of a
+ * write, ends the journal.
+ */
+public class Journal implements AutoCloseable {
+
+  public static final byte COMMAND = 1;
+  public static final byte CHECKPOINT = 2;
+  public static final byte CLOSE = 3;
+
+  private static final int HEADER = 8;
+  private static final int MAX_RECORD = 1 << 20;
+  private static final String[] NO_TOKENS = new String[0];
+
+  /**
+   * One record read back from a journal. Number is only meaningful for
+   * checkpoints and tokens for commands.
+   */
+  public static record Entry(byte type, long session, long number, String[] tokens) {}
+
+  private final FileChannel channel;
+  private final long lingerNanos;
+  private final Thread committer;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition pending = lock.newCondition();
+  private final Condition durable = lock.newCondition();
+
+  // Records appended but not yet handed to the committer, and a buffer to
+  // swap in when it takes them.
+  private ByteBuffer buffer = buffer(64 << 10);
+  private ByteBuffer spare = buffer(64 << 10);
+
+  // Positions in the journal, in bytes, of the end of everything appended
+  // and of everything known to be on disk.
+  private long appended;
+  private long synced;
+
+  private IOException failure;
+  private boolean closed;
+  private long records;
+  private long syncs;
+
+  /**
+   * Start a new, empty journal at path, replacing any file already there. The
+   * committer waits up to linger after the first record of a batch arrives for
+   * more to join it.
+   */
+  public Journal(Path path, Duration linger) throws IOException {
+    this.channel =
+      FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    this.lingerNanos = linger.toNanos();
+    this.committer = Thread.ofPlatform().name("dungeon-journal").daemon().start(this::commit);
+  }
+
+  /**
+   * Log a command and wait until it is durable.
+   */
+  public void command(long session, String[] tokens) {
+    await(append(COMMAND, session, 0, tokens));
+  }
+
+  /**
+   * Log that session has been saved in its numbered snapshot and wait until
+   * that is durable.
+   */
+  public void checkpoint(long session, long number) {
+    await(append(CHECKPOINT, session, number, NO_TOKENS));
+  }
+
+  /**
+   * Log that session is over and wait until that is durable, after which its
+   * snapshots can be deleted.
+   */
+  public void ended(long session) {
+    await(append(CLOSE, session, 0, NO_TOKENS));
+  }
+
+  /**
+   * Number of records appended and of fsyncs done to make them durable.
+   */
+  public long records() {
+    lock.lock();
+    try {
+      return records;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long syncs() {
+    lock.lock();
+    try {
+      return syncs;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add a record to the buffer, returning the position in the journal it has
+   * to be synced past to be durable.
+   */
+  private long append(byte type, long session, long number, String[] tokens) {
+    var bytes = new byte[tokens.length][];
+    var size = 1 + 8 + (type == COMMAND ? 4 : 0) + (type == CHECKPOINT ? 8 : 0);
+    for (var i = 0; i < tokens.length; i++) {
+      bytes[i] = tokens[i].getBytes(StandardCharsets.UTF_8);
+      size += 4 + bytes[i].length;
+    }
+    if (size > MAX_RECORD) throw new IllegalArgumentException("Command too long to journal.");
+
+    lock.lock();
+    try {
+      if (closed) throw new IllegalStateException("Journal is closed.");
+      if (failure != null) throw new UncheckedIOException("Couldn't write journal.", failure);
+      if (buffer.remaining() < HEADER + size) {
+        var bigger = buffer(Math.max(buffer.capacity() * 2, buffer.position() + HEADER + size));
+        buffer = bigger.put(buffer.flip());
+      }
+      var start = buffer.position();
+      buffer.position(start + HEADER);
+      buffer.put(type).putLong(session);
+      if (type == COMMAND) {
+        buffer.putInt(bytes.length);
+        for (var b : bytes) buffer.putInt(b.length).put(b);
+      } else if (type == CHECKPOINT) {
+        buffer.putLong(number);
+      }
+      var crc = new CRC32();
+      crc.update(buffer.slice(start + HEADER, size));
+      buffer.putInt(start, size).putInt(start + 4, (int) crc.getValue());
+
+      appended += HEADER + size;
+      records++;
+      pending.signal();
+      return appended;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void await(long position) {
+    lock.lock();
+    try {
+      while (synced < position && failure == null) durable.awaitUninterruptibly();
+      if (synced < position) throw new UncheckedIOException("Couldn't write journal.", failure);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The committer's loop: wait for records, give others a moment to join
+   * them, and then write and force the whole batch.
+   */
+  private void commit() {
+    while (true) {
+      lock.lock();
+      try {
+        while (buffer.position() == 0 && !closed) pending.awaitUninterruptibly();
+        if (buffer.position() == 0) return;
+      } finally {
+        lock.unlock();
+      }
+
+      if (lingerNanos > 0) LockSupport.parkNanos(lingerNanos);
+
+      ByteBuffer batch;
+      long end;
+      lock.lock();
+      try {
+        batch = buffer;
+        buffer = spare;
+        end = appended;
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        batch.flip();
+        while (batch.hasRemaining()) channel.write(batch);
+        channel.force(false);
+      } catch (IOException ioe) {
+        lock.lock();
+        try {
+          failure = ioe;
+          durable.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+
+      lock.lock();
+      try {
+        synced = end;
+        syncs++;
+        spare = batch.clear();
+        durable.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Make everything appended so far durable and stop the committer.
+   */
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      pending.signal();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      committer.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channel.close();
+    }
+    if (failure != null) throw failure;
+  }
+
+  private static ByteBuffer buffer(int capacity) {
+    return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Reading
+
+  /**
+   * Pass every intact record in the journal at path, if there is one, to fn
+   * in the order they were written.
+   */
+  public static void read(Path path, Consumer<Entry> fn) throws IOException {
+    try (var in = new BufferedInputStream(Files.newInputStream(path))) {
+      var header = buffer(HEADER);
+      while (fill(in, header.clear().array(), HEADER)) {
+        var size = header.getInt(0);
+        if (size < 9 || size > MAX_RECORD) return;
+        var payload = new byte[size];
+        if (!fill(in, payload, size)) return;
+        var crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != header.getInt(4)) return;
+        fn.accept(entry(ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN)));
+      }
+    } catch (NoSuchFileException nsfe) {
+      // No journal, nothing to replay.
+    }
+  }
+
+  private static Entry entry(ByteBuffer b) {
+    var type = b.get();
+    var session = b.getLong();
+    var number = 0L;
+    var tokens = NO_TOKENS;
+    if (type == COMMAND) {
+      tokens = new String[b.getInt()];
+      for (var i = 0; i < tokens.length; i++) {
+        var bytes = new byte[b.getInt()];
+        b.get(bytes);
+        tokens[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+    } else if (type == CHECKPOINT) {
+      number = b.getLong();
+    }
+    return new Entry(type, session, number, tokens);
+  }
+
+  // Read exactly length bytes unless the stream ends first.
+  private static boolean fill(InputStream in, byte[] bytes, int length) throws IOException {
+    return in.readNBytes(bytes, 0, length) == length;
+  }
+}
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -28,10 +29,13 @@ public interface Location {
   }
 
   /**
-   * Provide the map in which we manage the things. All other methods in this
+   * The world this location lives in and its id there. Everything about which
+   * things are in the location is kept in the world; all other methods in this
    * interface have a default implementation.
    */
-  public Map<String, PlacedThing> locationMap();
+  public World world();
+
+  public int id();
 
   /**
    * The valid places for this location. Default implementation is okay but can
@@ -49,6 +53,22 @@ public interface Location {
     return true;
   }
 
+  /**
+   * The index of all the things anywhere in this location, if this location
+   * keeps one. Things don't since whatever Room or Player they are in has
+   * them in its index.
+   */
+  public default Optional<NameIndex> index() {
+    return Optional.empty();
+  }
+
+  /**
+   * The location this location is in, if any.
+   */
+  public default Optional<Location> container() {
+    return Optional.empty();
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Default implementations that almost certainly do not need to be overridden.
 
@@ -64,40 +84,74 @@ public interface Location {
    */
   public default void placeThing(Thing thing, String where) {
     thing.location().ifPresent(l -> l.removeThing(thing));
-    locationMap().put(thing.name(), new PlacedThing(thing, where));
-    thing.setLocation(this);
+    world().place(thing.id(), id(), where);
+    indexes(i -> i.add(thing));
+    changed();
   }
 
   /**
    * Remove thing from this location.
    */
   public default void removeThing(Thing thing) {
-    locationMap().remove(thing.name());
-    thing.clearLocation();
+    if (world().parent(thing.id()) == id()) {
+      world().unplace(thing.id());
+      indexes(i -> i.remove(thing));
+      changed();
+    }
   }
 
   /**
-   * Get the named thing from this location.
+   * Note that something about this location or something in it has changed
+   * in a way that may change how it is described. Things whose descriptions
+   * depend on their own state, e.g. whether they are open, need to call this
+   * when that state changes. The default just passes the news up to the
+   * containing location.
+   */
+  public default void changed() {
+    container().ifPresent(Location::changed);
+  }
+
+  /**
+   * Apply fn to the index of this location and of every location containing
+   * it.
+   */
+  public default void indexes(Consumer<NameIndex> fn) {
+    for (Optional<Location> l = Optional.of(this); l.isPresent(); l = l.get().container()) {
+      l.get().index().ifPresent(fn);
+    }
+  }
+
+  /**
+   * Get the named thing from this location, preferring things directly in it
+   * to ones inside other things.
    */
   public default Optional<Thing> thing(String name) {
-    if (locationMap().containsKey(name)) {
-      return Optional.of(locationMap().get(name).thing());
-    } else {
-      for (var pt : placedThings()) {
-        var maybe = pt.thing().thing(name);
-        if (maybe.isPresent()) {
-          return maybe;
-        }
+    if (index().isPresent()) {
+      return index().get().thing(name);
+    }
+    var w = world();
+    for (var c = w.firstChild(id()); c != World.NONE; c = w.nextSibling(c)) {
+      if (w.name(c).equals(name)) return Optional.of((Thing) w.view(c));
+    }
+    for (var c = w.firstChild(id()); c != World.NONE; c = w.nextSibling(c)) {
+      var maybe = w.view(c).thing(name);
+      if (maybe.isPresent()) {
+        return maybe;
       }
-      return Optional.empty();
     }
+    return Optional.empty();
   }
 
   /**
-   * Things directly in this location.
+   * Things directly in this location, in the order they were placed.
    */
   public default Collection<Thing> things() {
-    return placedThings().stream().map(PlacedThing::thing).toList();
+    var w = world();
+    var things = new ArrayList<Thing>();
+    for (var c = w.firstChild(id()); c != World.NONE; c = w.nextSibling(c)) {
+      things.add((Thing) w.view(c));
+    }
+    return things;
   }
 
   /**
@@ -111,14 +165,19 @@ public interface Location {
    * Placed things directly in this location.
    */
   public default Collection<PlacedThing> placedThings() {
-    return locationMap().values();
+    var w = world();
+    var placed = new ArrayList<PlacedThing>();
+    for (var c = w.firstChild(id()); c != World.NONE; c = w.nextSibling(c)) {
+      placed.add(new PlacedThing((Thing) w.view(c), w.place(c)));
+    }
+    return placed;
   }
 
   /**
    * All placed things accessible from this location.
    */
   public default Stream<PlacedThing> allPlacedThings() {
-    return locationMap().values().stream().flatMap(pt -> Stream.concat(Stream.of(pt), pt.thing().allPlacedThings()));
+    return placedThings().stream().flatMap(pt -> Stream.concat(Stream.of(pt), pt.thing().allPlacedThings()));
   }
 
   public default Map<String, List<Thing>> groupByPlace() {
@@ -34,11 +34,9 @@ public class Maze {
     var tray = new Thing.Furniture("tray", "TV tray");
     
     var painting = new Thing.Furniture("painting", "painting of a famous artist in their bedroom") {
-      boolean open = false;
-
       @Override
       public String description() {
-        if(!open) {
+        if(!isOpen()) {
           return super.description() + ", a shut door visable at the back of the room";
         } else {
           return super.description() + ", an open door visable at the back of the room";
@@ -46,43 +44,55 @@ public class Maze {
       }
 
       public String open() {
-        if(!open) {
-          open = true;
-          hall.connect("small hole in the painting", throneRoom, NORTH);
+        if(!isOpen()) {
+          applyOpen();
           return "The door in the painting opens, behind which you can see a throne. It almost looks real.";
         } else {
           return "You tear the doorframe off its hinges. Good job. What have you accomplished?";
         }
       }
+
+      public void applyOpen() {
+        if(!isOpen()) {
+          setOpen(true);
+          hall.connect("small hole in the painting", throneRoom, NORTH);
+        }
+      }
     };
 
     var gnitniap = new Thing.Furniture("painting", "painting of a living room with an open door at the back leading to what looks to be a bedroom");
 
     var trapdoor = new Thing.Furniture("trapdoor", "slightly moldy trapdoor") {
-      boolean open = false;
-
       @Override
       public String description() {
-        return (open ? "an open " : "a closed ") + super.description();
+        return (isOpen() ? "an open " : "a closed ") + super.description();
       }
 
       public String open() {
-        if (!open) {
-          open = true;
+        if (!isOpen()) {
+          applyOpen();
           return "The trapdoor creaks open, revealing a staircase down.";
         } else {
           return "The " + name() + " is already open.";
         }
       }
 
+      public void applyOpen() {
+        if (!isOpen()) setOpen(true);
+      }
+
       public String close() {
-        if (open) {
-          open = false;
+        if (isOpen()) {
+          applyClose();
           return "The trapdoor closes with a heavy thud.";
         } else {
           return "The " + name() + " is already closed.";
         }
       }
+
+      public void applyClose() {
+        if (isOpen()) setOpen(false);
+      }
     };
 
     var throne = new Thing.Furniture("throne", "massive throne with ornate carvings intricately drawn into its golden crest") {
@@ -106,8 +116,6 @@ public class Maze {
     };
 
     var treasureChest = new Thing.Furniture("chest", "wooden treasure chest") {
-      boolean open = false;
-
       @Override
       public boolean isMonster() {
         var b = super.isMonster();
@@ -120,31 +128,39 @@ public class Maze {
       }
 
       private String descriptor() {
-        return open ? (things().isEmpty() ? "empty" : "open") : "closed";
+        return isOpen() ? (things().isEmpty() ? "empty" : "open") : "closed";
       }
 
       @Override
       public String describeThings() {
-        return open ? super.describeThings() : "";
+        return isOpen() ? super.describeThings() : "";
       }
 
       public String open() {
-        if (!open) {
-          open = true;
+        if (!isOpen()) {
+          applyOpen();
           return "The chest lid opens with a creak. " + describeThings();
         } else {
           return "The " + name() + " is already open.";
         }
       }
 
+      public void applyOpen() {
+        if (!isOpen()) setOpen(true);
+      }
+
       public String close() {
-        if (open) {
-          open = false;
+        if (isOpen()) {
+          applyClose();
           return "The chest snaps shut.";
         } else {
           return "The " + name() + " is already closed.";
         }
       }
+
+      public void applyClose() {
+        if (isOpen()) setOpen(false);
+      }
     };
 
     var jeweledDagger = new Thing.Weapon("dagger", "jeweled dagger", new Attack.Simple("Stabby, stab, stab.", 1));
@@ -195,20 +211,25 @@ public class Maze {
 
       @Override
       public String eat() {
-        return alive()
+        var result = alive()
           ? "Are you out of your mind?! This is a live and jiggling " + name() + "."
           : hitPoints() < -100
             ? "The " +
             name() +
             " is blasted all over the room. There is nothing to eat unless you have a squeege and a straw."
-            : super.destroy(
-              "Ugh. This is worse than the worst jello casserole you have ever tasted. But it does slightly sate your hunger."
-            );
+            : "Ugh. This is worse than the worst jello casserole you have ever tasted. But it does slightly sate your hunger.";
+        applyEat();
+        return result;
+      }
+
+      @Override
+      public void applyEat() {
+        if (!alive() && hitPoints() >= -100) super.destroy("");
       }
 
       @Override
       public String destroy(String s) {
-        location().ifPresent(l -> moveTo(l, "around the room"));
+        location().ifPresent(l -> move(l, "around the room"));
         return "";
       }
 
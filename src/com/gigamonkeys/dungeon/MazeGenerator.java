@@ -0,0 +1,473 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Procedurally generated mazes, for worlds much too big to write by hand. The
+ * rooms are laid out on a width by height grid using the usual Directions and
+ * the same seed always produces the same world.
+ *
+ * The grid is cut into square blocks which are carved in parallel, each one
+ * into a little maze of its own with a random depth-first search driven by a
+ * random number generator seeded from the seed and the block's number. Then
+ * the blocks are joined into one maze by a random spanning tree over the
+ * blocks with one door across each edge of the tree. So every room can be
+ * reached from every other one. Optionally some extra doors are added inside
+ * each block so there's more than one way to get around.
+ *
+ * Each block creates its entities with a range of ids reserved for it so the
+ * ids are the same every time, which lets a Snapshot saved from one generated
+ * world be restored into another generated with the same Params. Blocks can
+ * also be made one at a time with carve(), which is how Regions loads worlds
+ * too big to keep in memory.
+ *
+ * Usage: MazeGenerator [width] [height] [seed]
+ */
+public class MazeGenerator {
+
+  /**
+   * Shape of the maze: the grid size, the seed, the chance of adding an extra
+   * door between neighboring rooms that aren't already connected, the most
+   * things in any room, and the size of the blocks carved in parallel.
+   */
+  public static record Params(int width, int height, long seed, double loops, int things, int block) {
+    public Params(int width, int height, long seed) {
+      this(width, height, seed, 0.05, 3, 64);
+    }
+
+    public int rooms() {
+      return width * height;
+    }
+  }
+
+  private static final String[] adjectives = {
+    "damp", "dusty", "cramped", "vaulted", "gloomy", "drafty", "crumbling", "musty", "echoing", "smoky",
+  };
+
+  private static final String[] kinds = {
+    "cellar", "chamber", "corridor", "guardroom", "crypt", "library", "armory", "chapel", "gallery", "cell",
+  };
+
+  private static final String[] doors = {
+    "wooden door", "narrow passage", "iron gate", "crumbling archway", "dank tunnel", "low doorway",
+  };
+
+  private static final String[] places = { "on the floor", "against the wall", "in the corner", "by the door" };
+
+  private static final String[] furniture = { "table", "chest", "barrel", "bench", "statue" };
+  private static final String[] weapons = { "sword", "axe", "dagger", "mace", "spear" };
+  private static final String[] foods = { "bread", "apple", "cheese", "mushroom", "jerky" };
+  private static final String[] monsters = { "goblin", "troll", "rat", "skeleton", "ogre" };
+
+  private static final int KINDS_OF_THINGS = furniture.length + weapons.length + foods.length + monsters.length;
+
+  // Every possible room description, made once so a million rooms share a
+  // hundred strings.
+  private static final String[] descriptions = IntStream
+    .range(0, adjectives.length * kinds.length)
+    .mapToObj(i -> Text.a(adjectives[i / kinds.length] + " " + kinds[i % kinds.length]))
+    .toArray(String[]::new);
+
+  private static final String[][] thingDescriptions = {
+    Arrays.stream(furniture).map(f -> "battered " + f).toArray(String[]::new),
+    Arrays.stream(weapons).map(w -> "rusty " + w).toArray(String[]::new),
+    Arrays.stream(foods).map(f -> "piece of " + f).toArray(String[]::new),
+    Arrays.stream(monsters).map(m -> "snarling " + m).toArray(String[]::new),
+  };
+
+  private static final String[] deadDescriptions = Arrays.stream(monsters).map(m -> "dead " + m).toArray(String[]::new);
+
+  private static final String[] eatings = Arrays
+    .stream(foods)
+    .map(f -> "You eat the " + f + ". Not bad.")
+    .toArray(String[]::new);
+
+  // Attacks are immutable so each weapon shares a few, doing 2 to 9 damage.
+  private static final Attack[][] attacks = Arrays
+    .stream(weapons)
+    .map(w -> IntStream.range(2, 10).mapToObj(d -> new Attack.Simple("You swing the " + w + ".", d)).toArray(Attack[]::new))
+    .toArray(Attack[][]::new);
+
+  private final Params params;
+  private final World world;
+
+  public MazeGenerator(Params params) {
+    if ((long) params.width() * params.height() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many rooms: " + params.width() + " x " + params.height());
+    }
+    this.params = params;
+    this.world = World.current();
+  }
+
+  /**
+   * Generate the maze and return the first room.
+   */
+  public Room build() {
+    return generate()[0];
+  }
+
+  /**
+   * Generate the maze and return all its rooms, in row-major order.
+   */
+  public Room[] generate() {
+    var blocks = blocks();
+
+    // Work out how many entities each block will make so each can be given
+    // its own range of ids, which makes the ids the same from run to run no
+    // matter how the blocks are scheduled.
+    var counts = new int[blocks];
+    IntStream.range(0, blocks).parallel().forEach(b -> counts[b] = entities(b));
+    var bases = new int[blocks];
+    var next = world.reserve(Arrays.stream(counts).sum());
+    for (var b = 0; b < blocks; b++) {
+      bases[b] = next;
+      next += counts[b];
+    }
+
+    var rooms = new Room[params.rooms()];
+    IntStream
+      .range(0, blocks)
+      .parallel()
+      .forEach(b ->
+        World.using(
+          world,
+          bases[b],
+          counts[b],
+          () -> {
+            var block = block(b);
+            var w = block.x1() - block.x0();
+            var cells = carve(b);
+            for (var i = 0; i < cells.length; i++) rooms[index(block.x0() + i % w, block.y0() + i / w)] = cells[i];
+          }
+        )
+      );
+    for (var j : joins()) {
+      var d = j.direction();
+      rooms[index(j.x(), j.y())].connect(j.door(), rooms[index(j.x() + dx(d), j.y() + dy(d))], d);
+    }
+    return rooms;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Carving
+
+  private static record Block(int x0, int y0, int x1, int y1) {}
+
+  private Block block(int block) {
+    var across = blocksAcross();
+    var x0 = (block % across) * params.block();
+    var y0 = (block / across) * params.block();
+    return new Block(x0, y0, Math.min(x0 + params.block(), params.width()), Math.min(y0 + params.block(), params.height()));
+  }
+
+  /**
+   * Number of blocks the grid is cut into.
+   */
+  int blocks() {
+    return blocksAcross() * ceilDiv(params.height(), params.block());
+  }
+
+  /**
+   * Number of rooms and things in a block.
+   */
+  int entities(int block) {
+    var b = block(block);
+    var n = 0;
+    for (var y = b.y0(); y < b.y1(); y++) {
+      for (var x = b.x0(); x < b.x1(); x++) {
+        n += 1 + Long.bitCount(kinds(index(x, y)));
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Make the rooms of one block, with their things and the doors between
+   * them, returning them in row-major order within the block. Each room is
+   * made right before its things so the entities of the block get ids in the
+   * same order every time.
+   */
+  Room[] carve(int block) {
+    var random = new SplittableRandom(mix(params.seed(), block));
+    var b = block(block);
+    var w = b.x1() - b.x0();
+    var h = b.y1() - b.y0();
+
+    var cells = new Room[w * h];
+    for (var i = 0; i < cells.length; i++) {
+      cells[i] = furnish(new Room(roomDescription(random)), kinds(index(b.x0() + i % w, b.y0() + i / w)), random);
+    }
+
+    // Randomized depth-first search over the block with an explicit stack,
+    // using local cell numbers.
+    var visited = new boolean[w * h];
+    var stack = new int[w * h];
+    var top = 0;
+    var options = new Direction[4];
+    stack[top++] = 0;
+    visited[0] = true;
+    while (top > 0) {
+      var cell = stack[top - 1];
+      var cx = cell % w;
+      var cy = cell / w;
+      var n = 0;
+      for (var d : Direction.values()) {
+        var nx = cx + dx(d);
+        var ny = cy + dy(d);
+        if (nx >= 0 && nx < w && ny >= 0 && ny < h && !visited[ny * w + nx]) {
+          options[n++] = d;
+        }
+      }
+      if (n == 0) {
+        top--;
+      } else {
+        var d = options[random.nextInt(n)];
+        var next = (cy + dy(d)) * w + cx + dx(d);
+        connect(cells, w, cell, d, random);
+        visited[next] = true;
+        stack[top++] = next;
+      }
+    }
+
+    // Extra doors. Only EAST and SOUTH so each pair is considered once.
+    if (params.loops() > 0) {
+      for (var cell = 0; cell < cells.length; cell++) {
+        if (cell % w + 1 < w) maybeConnect(cells, w, cell, EAST, random);
+        if (cell / w + 1 < h) maybeConnect(cells, w, cell, SOUTH, random);
+      }
+    }
+    return cells;
+  }
+
+  private void connect(Room[] cells, int w, int cell, Direction d, SplittableRandom random) {
+    cells[cell].connect(pick(doors, random), cells[cell + dy(d) * w + dx(d)], d);
+  }
+
+  private void maybeConnect(Room[] cells, int w, int cell, Direction d, SplittableRandom random) {
+    if (random.nextDouble() < params.loops() && cells[cell].door(d).isEmpty()) {
+      connect(cells, w, cell, d, random);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Joining
+
+  /**
+   * A door between two blocks, from the room at x, y to its neighbor in
+   * direction.
+   */
+  public static record Join(int x, int y, Direction direction, String door) {}
+
+  /**
+   * The doors joining the blocks into one maze: a random spanning tree over
+   * the grid of blocks, found by randomized Kruskal's algorithm, with one door
+   * across each edge of the tree. There are few enough blocks that this
+   * doesn't need to be done in parallel.
+   */
+  List<Join> joins() {
+    var random = new SplittableRandom(mix(params.seed(), -1));
+    var across = blocksAcross();
+    var blocks = blocks();
+
+    // Each edge is a block number times two plus 0 for the edge to the east
+    // and 1 for the edge to the south.
+    var edges = new int[blocks * 2];
+    var count = 0;
+    for (var b = 0; b < blocks; b++) {
+      if (b % across + 1 < across) edges[count++] = b * 2;
+      if (b + across < blocks) edges[count++] = b * 2 + 1;
+    }
+    for (var i = count - 1; i > 0; i--) {
+      var j = random.nextInt(i + 1);
+      var tmp = edges[i];
+      edges[i] = edges[j];
+      edges[j] = tmp;
+    }
+
+    var parents = new int[blocks];
+    for (var b = 0; b < blocks; b++) parents[b] = b;
+
+    var joins = new ArrayList<Join>();
+    for (var i = 0; i < count; i++) {
+      var b = edges[i] / 2;
+      var east = edges[i] % 2 == 0;
+      var other = east ? b + 1 : b + across;
+      var r1 = root(parents, b);
+      var r2 = root(parents, other);
+      if (r1 != r2) {
+        parents[r1] = r2;
+        var x0 = (b % across) * params.block();
+        var y0 = (b / across) * params.block();
+        if (east) {
+          var x = Math.min(x0 + params.block(), params.width()) - 1;
+          var y = y0 + random.nextInt(Math.min(params.block(), params.height() - y0));
+          joins.add(new Join(x, y, EAST, pick(doors, random)));
+        } else {
+          var x = x0 + random.nextInt(Math.min(params.block(), params.width() - x0));
+          var y = Math.min(y0 + params.block(), params.height()) - 1;
+          joins.add(new Join(x, y, SOUTH, pick(doors, random)));
+        }
+      }
+    }
+    return joins;
+  }
+
+  private static int root(int[] parents, int b) {
+    while (parents[b] != b) {
+      parents[b] = parents[parents[b]];
+      b = parents[b];
+    }
+    return b;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Contents
+
+  private String roomDescription(SplittableRandom random) {
+    return pick(descriptions, random);
+  }
+
+  /**
+   * Which kinds of thing go in a room, as a bit set: up to the maximum number
+   * of things, all different since names within a room should be distinct.
+   * Chosen with the room's own random numbers so the number of things in each
+   * room can be worked out before any are made.
+   */
+  private long kinds(int room) {
+    var random = new SplittableRandom(mix(~params.seed(), room));
+    var n = random.nextInt(params.things() + 1);
+    var chosen = 0L;
+    for (var i = 0; i < n; i++) {
+      chosen |= 1L << random.nextInt(KINDS_OF_THINGS);
+    }
+    return chosen;
+  }
+
+  /**
+   * Put things of the given kinds in the room. Portable things sometimes end
+   * up on a piece of furniture.
+   */
+  private Room furnish(Room room, long kinds, SplittableRandom random) {
+    Thing furniture = null;
+    for (var bits = kinds; bits != 0; bits &= bits - 1) {
+      var thing = thing(Long.numberOfTrailingZeros(bits), random);
+      if (furniture != null && thing.isPortable() && random.nextBoolean()) {
+        furniture.placeThing(thing, "on");
+      } else {
+        room.placeThing(thing, pick(places, random));
+      }
+      if (furniture == null && thing instanceof Thing.Furniture) {
+        furniture = thing;
+      }
+    }
+    return room;
+  }
+
+  private Thing thing(int k, SplittableRandom random) {
+    var i = k % 5;
+    return switch (k / 5) {
+      case 0 -> new Thing.Furniture(furniture[i], thingDescriptions[0][i]);
+      case 1 -> new Thing.Weapon(weapons[i], thingDescriptions[1][i], attacks[i][random.nextInt(attacks[i].length)]);
+      case 2 -> new Thing.Food(foods[i], thingDescriptions[2][i], eatings[i]);
+      default -> new Thing.Monster(monsters[i], thingDescriptions[3][i], deadDescriptions[i], 3 + random.nextInt(20), false);
+    };
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Grid arithmetic
+
+  private int blocksAcross() {
+    return ceilDiv(params.width(), params.block());
+  }
+
+  private int index(int x, int y) {
+    return y * params.width() + x;
+  }
+
+  /**
+   * The block the room at x, y is in.
+   */
+  int block(int x, int y) {
+    return (y / params.block()) * blocksAcross() + x / params.block();
+  }
+
+  /**
+   * Position of the room at x, y among the rooms of its block as returned by
+   * carve().
+   */
+  int cell(int x, int y) {
+    var b = block(block(x, y));
+    return (y - b.y0()) * (b.x1() - b.x0()) + x - b.x0();
+  }
+
+  /**
+   * How far into its block's range of ids the id of the room at x, y is,
+   * worked out without making the block.
+   */
+  int offset(int x, int y) {
+    var b = block(block(x, y));
+    var n = 0;
+    for (var yy = b.y0(); yy <= y; yy++) {
+      for (var xx = b.x0(); xx < (yy == y ? x : b.x1()); xx++) {
+        n += 1 + Long.bitCount(kinds(index(xx, yy)));
+      }
+    }
+    return n;
+  }
+
+  static int dx(Direction d) {
+    return d == EAST ? 1 : d == WEST ? -1 : 0;
+  }
+
+  static int dy(Direction d) {
+    return d == SOUTH ? 1 : d == NORTH ? -1 : 0;
+  }
+
+  private static int ceilDiv(int a, int b) {
+    return (a + b - 1) / b;
+  }
+
+  private static <T> T pick(T[] choices, SplittableRandom random) {
+    return choices[random.nextInt(choices.length)];
+  }
+
+  // SplitMix64 finalizer so nearby seeds and block numbers give unrelated streams.
+  static long mix(long seed, long n) {
+    var z = seed + (n + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  public static void main(String[] args) {
+    World.using(new World(), () -> run(args));
+  }
+
+  private static void run(String[] args) {
+    var width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    var height = args.length > 1 ? Integer.parseInt(args[1]) : width;
+    var seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+    var start = System.nanoTime();
+    var rooms = new MazeGenerator(new Params(width, height, seed)).generate();
+    var seconds = (System.nanoTime() - start) / 1e9;
+
+    var things = World.current().size() - rooms.length;
+    var doors = 0L;
+    for (var r : rooms) {
+      for (var d : Direction.values()) if (r.door(d).isPresent()) doors++;
+    }
+    System.out.println(
+      String.format("%,d rooms, %,d doors, %,d things in %.2f seconds", rooms.length, doors / 2, things, seconds)
+    );
+    var rt = Runtime.getRuntime();
+    for (var i = 0; i < 3; i++) System.gc();
+    System.out.println(String.format("%,d MB heap in use", (rt.totalMemory() - rt.freeMemory()) >> 20));
+  }
+}
@@ -0,0 +1,294 @@
+package com.gigamonkeys.dungeon;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counts what the game is doing: how long each command takes, per verb, both
+ * end to end in Dungeon.doCommand and for the turn itself in Command.Turn;
+ * how many commands of each verb couldn't be parsed; how many reactions each
+ * turn produced and how deep the deepest chain went; and how much text was
+ * written. Recording never takes a lock, just a few atomic adds, so it stays
+ * on all the time. Everything can be read as a text dump or, once register
+ * has been called, through JMX as com.gigamonkeys.dungeon:type=Metrics.
+ *
+ * Times are in nanoseconds. Text is counted in chars, which for the game's
+ * ASCII output is the same as bytes.
+ */
+public class Metrics implements DynamicMBean {
+
+  public static final Metrics GLOBAL = new Metrics();
+
+  public static final String NAME = "com.gigamonkeys.dungeon:type=Metrics";
+
+  // What commands that don't name a verb are counted under.
+  public static final String UNKNOWN = "?";
+
+  private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  /**
+   * Histogram of non-negative longs in the style of HdrHistogram: values below
+   * SUB get a bucket each and each power of two above that is split into SUB
+   * buckets, so any value is known to within an eighth whatever its size and
+   * the whole range of long fits in a few hundred buckets.
+   */
+  public static class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+      var v = Math.max(value, 0);
+      counts.incrementAndGet(bucket(v));
+      count.increment();
+      total.add(v);
+      // Only contended while the maximum is still climbing.
+      var m = max.get();
+      while (v > m && !max.compareAndSet(m, v)) m = max.get();
+    }
+
+    public long count() {
+      return count.sum();
+    }
+
+    public long max() {
+      return max.get();
+    }
+
+    public double mean() {
+      var n = count.sum();
+      return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * The largest value that could be in the bucket holding the given
+     * fraction of the recorded values, or zero if nothing has been recorded.
+     */
+    public long percentile(double p) {
+      var n = 0L;
+      var snapshot = new long[BUCKETS];
+      for (var i = 0; i < BUCKETS; i++) {
+        snapshot[i] = counts.get(i);
+        n += snapshot[i];
+      }
+      if (n == 0) return 0;
+
+      var rank = Math.max(1, (long) Math.ceil(p * n));
+      var seen = 0L;
+      for (var i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank) return Math.min(highest(i), max());
+      }
+      return max();
+    }
+
+    static int bucket(long v) {
+      if (v < SUB) return (int) v;
+      var exp = 63 - Long.numberOfLeadingZeros(v);
+      var sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+      return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    static long highest(int bucket) {
+      if (bucket < SUB) return bucket;
+      var exp = bucket / SUB + SUB_BITS - 1;
+      var width = 1L << (exp - SUB_BITS);
+      var lowest = (long) (SUB + bucket % SUB) << (exp - SUB_BITS);
+      return lowest + (width - 1);
+    }
+  }
+
+  // Everything counted per verb.
+  private static record Verb(Histogram commands, Histogram turns, LongAdder bad) {
+    Verb() {
+      this(new Histogram(), new Histogram(), new LongAdder());
+    }
+  }
+
+  private final Map<String, Verb> verbs = new ConcurrentHashMap<>();
+  private final Histogram reactions = new Histogram();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final LongAdder output = new LongAdder();
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Recording
+
+  /**
+   * A command for verb took nanos from start to finish and wrote chars of
+   * output.
+   */
+  public void command(String verb, long nanos, long chars) {
+    verb(verb).commands().record(nanos);
+    output.add(chars);
+  }
+
+  /**
+   * A turn of verb took nanos and ran the given reactions.
+   */
+  public void turn(String verb, long nanos, Reactions r) {
+    verb(verb).turns().record(nanos);
+    reactions.record(r.count());
+    var d = r.depth();
+    var m = depth.get();
+    while (d > m && !depth.compareAndSet(m, d)) m = depth.get();
+  }
+
+  /**
+   * A command for verb couldn't be parsed.
+   */
+  public void bad(String verb) {
+    verb(verb).bad().increment();
+  }
+
+  private Verb verb(String verb) {
+    var v = verbs.get(verb);
+    return v != null ? v : verbs.computeIfAbsent(verb, k -> new Verb());
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Reading
+
+  /**
+   * Every number kept, by name, e.g. go.command.p99 or reactions.max.
+   */
+  public Map<String, Number> values() {
+    var values = new TreeMap<String, Number>();
+    verbs.forEach((name, v) -> {
+      histogram(values, name + ".command", v.commands());
+      histogram(values, name + ".turn", v.turns());
+      values.put(name + ".bad", v.bad().sum());
+    });
+    histogram(values, "reactions", reactions);
+    values.put("reactions.depth", depth.get());
+    values.put("output.chars", output.sum());
+    return values;
+  }
+
+  private void histogram(Map<String, Number> values, String name, Histogram h) {
+    values.put(name + ".count", h.count());
+    values.put(name + ".mean", h.mean());
+    for (var p : PERCENTILES) values.put(name + "." + label(p), h.percentile(p));
+    values.put(name + ".max", h.max());
+  }
+
+  /**
+   * A table of the per-verb numbers followed by the per-turn ones.
+   */
+  public String dump() {
+    var sb = new StringBuilder();
+    sb.append(String.format("%-10s %8s %6s %6s", "verb", "commands", "bad", "bad%"));
+    for (var p : PERCENTILES) sb.append(String.format(" %9s", label(p) + " us"));
+    sb.append(String.format(" %9s %8s %9s%n", "max us", "turns", "turn p99"));
+
+    new TreeMap<>(verbs).forEach((name, v) -> {
+      var n = v.commands().count();
+      var bad = v.bad().sum();
+      sb.append(String.format("%-10s %8d %6d %5.1f%%", name, n, bad, n == 0 ? 0.0 : 100.0 * bad / n));
+      for (var p : PERCENTILES) sb.append(String.format(" %9.1f", v.commands().percentile(p) / 1e3));
+      sb.append(String.format(" %9.1f", v.commands().max() / 1e3));
+      sb.append(String.format(" %8d %9.1f%n", v.turns().count(), v.turns().percentile(0.99) / 1e3));
+    });
+
+    sb.append(
+      String.format(
+        "%nreactions per turn: mean %.2f, p99 %d, max %d; deepest chain %d%n",
+        reactions.mean(),
+        reactions.percentile(0.99),
+        reactions.max(),
+        depth.get()
+      )
+    );
+    sb.append(String.format("output: %,d chars%n", output.sum()));
+    return sb.toString();
+  }
+
+  private static String label(double p) {
+    var s = Double.toString(p * 100);
+    return "p" + (s.endsWith(".0") ? s.substring(0, s.length() - 2) : s);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // JMX
+
+  /**
+   * Make these metrics visible through the platform MBean server. Does nothing
+   * if they already are.
+   */
+  public void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(NAME));
+    } catch (InstanceAlreadyExistsException iaee) {
+      // Fine.
+    } catch (JMException jme) {
+      throw new IllegalStateException(jme);
+    }
+  }
+
+  public Object getAttribute(String name) throws AttributeNotFoundException {
+    var value = values().get(name);
+    if (value == null) throw new AttributeNotFoundException(name);
+    return value;
+  }
+
+  public AttributeList getAttributes(String[] names) {
+    var values = values();
+    var list = new AttributeList();
+    for (var name : names) {
+      if (values.containsKey(name)) list.add(new Attribute(name, values.get(name)));
+    }
+    return list;
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+    if (action.equals("dump")) return dump();
+    throw new ReflectionException(new NoSuchMethodException(action));
+  }
+
+  public MBeanInfo getMBeanInfo() {
+    var attributes = values()
+      .entrySet()
+      .stream()
+      .map(e -> new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false))
+      .toArray(MBeanAttributeInfo[]::new);
+    var dump = new MBeanOperationInfo("dump", "Text dump of all the metrics.", null, "java.lang.String", MBeanOperationInfo.INFO);
+    return new MBeanInfo(
+      getClass().getName(),
+      "Per-command latency and per-turn reaction counts.",
+      attributes,
+      null,
+      new MBeanOperationInfo[] { dump },
+      null
+    );
+  }
+}
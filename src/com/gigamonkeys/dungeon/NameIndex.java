@@ -0,0 +1,149 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Index by name of every Thing anywhere inside a location, no matter how
+ * deeply nested. Rooms and the Player each keep one which Location keeps up to
+ * date as things are placed and removed so looking up a thing by name doesn't
+ * require walking the whole tree of things.
+ */
+public class NameIndex {
+
+  private final Location owner;
+
+  // Names aren't necessarily unique within a room, e.g. a painting inside a
+  // chest and another painting on the wall, so each name maps to a list. Not
+  // built until the index is first used.
+  private Map<String, List<Thing>> things;
+
+  // The same names, for resolving abbreviations, and again for suggesting
+  // names close to misspelled ones. Both are only built once they're first
+  // needed, since most rooms in a big world are never visited, and kept up to
+  // date after that.
+  private Trie<String> names;
+  private BKTree spellings;
+
+  public NameIndex(Location owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Add the thing and everything inside it.
+   */
+  public void add(Thing thing) {
+    if (things == null) return;
+    addOne(thing);
+    thing.allThings().forEach(this::addOne);
+  }
+
+  /**
+   * Remove the thing and everything inside it.
+   */
+  public void remove(Thing thing) {
+    if (things == null) return;
+    removeOne(thing);
+    thing.allThings().forEach(this::removeOne);
+  }
+
+  /**
+   * Forget everything, to be rebuilt from the owner when next needed.
+   */
+  public void reset() {
+    things = null;
+    names = null;
+    spellings = null;
+  }
+
+  /**
+   * Get a thing with the given name, preferring one directly in the owner.
+   */
+  public Optional<Thing> thing(String name) {
+    var ts = things().get(name);
+    if (ts == null) return Optional.empty();
+    for (var t : ts) {
+      if (owner.world().parent(t.id()) == owner.id()) return Optional.of(t);
+    }
+    return Optional.of(ts.get(0));
+  }
+
+  /**
+   * The full name of the thing named exactly by prefix or of the only thing
+   * whose name starts with prefix, or null.
+   */
+  public String name(String prefix) {
+    return names().unique(prefix);
+  }
+
+  /**
+   * Number of different names starting with prefix.
+   */
+  public int count(String prefix) {
+    return names().count(prefix);
+  }
+
+  /**
+   * All the names starting with prefix.
+   */
+  public List<String> names(String prefix) {
+    return names().completions(prefix);
+  }
+
+  /**
+   * The name closest to a misspelled one, if any is close enough.
+   */
+  public Optional<String> suggestion(String name) {
+    return Optional.ofNullable(spellings().closest(name, BKTree.tolerance(name)));
+  }
+
+  public int size() {
+    return things().size();
+  }
+
+  private Map<String, List<Thing>> things() {
+    if (things == null) {
+      things = new HashMap<>();
+      owner.allThings().forEach(this::addOne);
+    }
+    return things;
+  }
+
+  private Trie<String> names() {
+    if (names == null) {
+      // Get things first since building it adds to names if names is set.
+      var things = things();
+      names = new Trie<>();
+      things.forEach((name, ts) -> ts.forEach(t -> names.add(name, name)));
+    }
+    return names;
+  }
+
+  private BKTree spellings() {
+    if (spellings == null) {
+      // Like names(), get things first.
+      var things = things();
+      spellings = new BKTree();
+      things.forEach((name, ts) -> ts.forEach(t -> spellings.add(name)));
+    }
+    return spellings;
+  }
+
+  private void addOne(Thing thing) {
+    things.computeIfAbsent(thing.name(), k -> new ArrayList<>(1)).add(thing);
+    if (names != null) names.add(thing.name(), thing.name());
+    if (spellings != null) spellings.add(thing.name());
+  }
+
+  private void removeOne(Thing thing) {
+    var ts = things.get(thing.name());
+    if (ts != null && ts.remove(thing)) {
+      if (ts.isEmpty()) things.remove(thing.name());
+      if (names != null) names.remove(thing.name());
+      if (spellings != null) spellings.remove(thing.name());
+    }
+  }
+}
@@ -4,10 +4,12 @@ import static com.gigamonkeys.dungeon.CommandParser.*;
 import static com.gigamonkeys.dungeon.Text.*;
 
 import com.gigamonkeys.dungeon.CommandParser.Parse;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 /**
@@ -15,20 +17,40 @@ import java.util.stream.Stream;
  */
 public class Player implements Location, Attack.Target {
 
-  private final Map<String, PlacedThing> inventory = new HashMap<>();
+  // Words to skip in TRAVEL TO THE KITCHEN and GO BACK TO THE KITCHEN.
+  private static final List<String> ROUTE_FILLER = List.of("to", "back", "the");
+
+  // How many turns can be undone.
+  public static final int UNDO_LIMIT = 32;
+
+  // The world and where the player was before a turn.
+  private static record Checkpoint(World.Version version, Room room) {}
+
+  private final World world;
+  private final int id;
+  private final NameIndex index = new NameIndex(this);
   private Room room;
-  private int hitPoints;
+  private final ArrayDeque<Checkpoint> history = new ArrayDeque<>();
 
   public Player(Room start, int hitPoints) {
-    this.room = start;
-    this.hitPoints = hitPoints;
+    this.world = start.world();
+    this.id = world.add(this, null, null, 0, hitPoints);
+    this.room = world.enter(this, start);
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation
 
-  public Map<String, PlacedThing> locationMap() {
-    return inventory;
+  public World world() {
+    return world;
+  }
+
+  public int id() {
+    return id;
+  }
+
+  public Optional<NameIndex> index() {
+    return Optional.of(index);
   }
 
   //////////////////////////////////////////////////////////////////////////////
@@ -37,16 +59,16 @@ public class Player implements Location, Attack.Target {
   public static record State(int hitPoints) {}
 
   public State state() {
-    return new State(hitPoints);
+    return new State(hitPoints());
   }
 
   public Stream<String> stateChanges(State original) {
-    int damage = original.hitPoints - hitPoints;
+    int damage = original.hitPoints() - hitPoints();
     return Stream.ofNullable(damage > 0 ? describeDamage(damage) : null);
   }
 
   private String describeDamage(int amount) {
-    var status = hitPoints > 0 ? "You're down to " + hitPoints + "." : "You feel consciousness slipping away.";
+    var status = alive() ? "You're down to " + hitPoints() + "." : "You feel consciousness slipping away.";
     return "You take " + amount + plural(" hit point", amount) + " of damage. " + status;
   }
 
@@ -57,22 +79,80 @@ public class Player implements Location, Attack.Target {
     return room;
   }
 
+  /**
+   * Pick up where a restored snapshot left off.
+   */
+  void restored(Room room) {
+    this.room = room;
+    index.reset();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Undo. Each turn starts with a checkpoint of the World, which costs the same
+  // however big the world is, and undoing the turn rolls the world back to it.
+
+  /**
+   * Remember the state of the game before a turn so it can be undone. Does
+   * nothing in a world loaded a region at a time or shared with other players
+   * since they can't be rolled back.
+   */
+  void checkpoint() {
+    if (world.paged() || world.realm() != null) return;
+    if (history.size() == UNDO_LIMIT) history.removeLast();
+    history.push(new Checkpoint(world.checkpoint(), room));
+  }
+
+  /**
+   * Put the game back the way it was before the last turn that changed
+   * anything, returning false if there is no such turn to undo.
+   */
+  boolean undo() {
+    while (!history.isEmpty()) {
+      var c = history.pop();
+      if (c.room() != room || world.changedSince(c.version())) {
+        world.rollback(c.version());
+        restored(c.room());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Forget the turns that could be undone, e.g. because the game has been
+   * restored from a save, which didn't have them.
+   */
+  void forget() {
+    history.clear();
+  }
+
   public int hitPoints() {
-    return hitPoints;
+    return world.hitPoints(id);
   }
 
   public boolean alive() {
-    return hitPoints > 0;
+    return hitPoints() > 0;
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Some verbs
 
   public String go(Door door) {
-    room = door.from(room);
+    enter(door);
     return room.description();
   }
 
+  /**
+   * Go through the door. In a shared world this hands the turn off to the room
+   * on the other side; see Realm.
+   */
+  void enter(Door door) {
+    var to = door.from(room);
+    var realm = world.realm();
+    if (realm != null) realm.handoff(to);
+    room = world.enter(this, to);
+  }
+
   public String drop(Thing t) {
     room.drop(t);
     return "You drop the " + t.name() + ".";
@@ -91,11 +171,14 @@ public class Player implements Location, Attack.Target {
   // Attack.Target implementation
 
   public String applyAttack(Attack attack) {
-    int damage = attack.damage();
-    hitPoints -= damage;
+    hit(attack);
     return "";
   }
 
+  public void hit(Attack attack) {
+    world.setHitPoints(id, hitPoints() - attack.damage());
+  }
+
   public String who() {
     return "you";
   }
@@ -132,6 +215,24 @@ public class Player implements Location, Attack.Target {
     return door.toAction(d -> new Action.Go(this, d));
   }
 
+  /**
+   * The route to the nearest room described by the words after the verb,
+   * ignoring any TO, BACK, or THE. Empty if there's only one word and no room
+   * it describes since then it's more likely a misspelled direction.
+   */
+  Optional<List<Direction>> route(String[] args) throws BadCommandException {
+    var words = Arrays.stream(args, 1, args.length).filter(w -> !ROUTE_FILLER.contains(w)).toList();
+    if (words.isEmpty()) throw new BadCommandException(capitalize(args[0]) + " where?");
+    var where = String.join(" ", words);
+    var route = world.routes().route(room, words);
+    if (route.isEmpty()) {
+      if (args.length == 2) return route;
+      throw new BadCommandException("Can't find the way to any " + where + ".");
+    }
+    if (route.get().isEmpty()) throw new BadCommandException("You're already in " + where + ".");
+    return route;
+  }
+
   Action look(String[] args) throws BadCommandException {
     return new Action.Look(this);
   }
@@ -171,16 +272,19 @@ public class Player implements Location, Attack.Target {
   }
 
   private <T> Parse<Thing, String> anyThing(Parse<String, T> parse) {
-    return parse.maybe(n -> thing(n).or(() -> room.thing(n))).or(n -> "No " + n + " here.");
+    return parse
+      .maybe(n -> thing(n).or(() -> room.thing(n)).or(() -> abbreviated(n, this, room)))
+      .or(n -> notHere(n, "", this, room));
   }
 
   private Parse<List<Thing>, String[]> listOfThings(String[] args, int start) {
     var things = new ArrayList<Thing>();
     for (var i = start; i < args.length; i++) {
-      var maybe = room.thing(args[i]);
+      var name = args[i];
+      var maybe = room.thing(name).or(() -> abbreviated(name, room));
       if (!maybe.isPresent()) {
-        if (!args[i].equals("and")) {
-          return bad(args, "No " + args[i] + " here to take.");
+        if (!name.equals("and")) {
+          return bad(args, notHere(name, " to take", room));
         }
       } else {
         var thing = maybe.get();
@@ -190,4 +294,55 @@ public class Player implements Location, Attack.Target {
     }
     return things.isEmpty() ? bad(args, "Take what?") : good(things, args);
   }
+
+  /**
+   * Find the one thing in the given locations whose name starts with prefix.
+   */
+  private Optional<Thing> abbreviated(String prefix, Location... locations) {
+    String found = null;
+    for (var l : locations) {
+      var index = l.index().get();
+      var count = index.count(prefix);
+      if (count > 1) return Optional.empty();
+      if (count == 1) {
+        var name = index.name(prefix);
+        if (found != null && !found.equals(name)) return Optional.empty();
+        found = name;
+      }
+    }
+    if (found == null) return Optional.empty();
+    for (var l : locations) {
+      var t = l.thing(found);
+      if (t.isPresent()) return t;
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Explain why name didn't pick out a thing in the given locations.
+   */
+  private String notHere(String name, String suffix, Location... locations) {
+    var candidates = Arrays
+      .stream(locations)
+      .flatMap(l -> l.index().get().names(name).stream())
+      .distinct()
+      .sorted()
+      .map(n -> "the " + n)
+      .toList();
+    if (candidates.size() > 1) {
+      return "Which do you mean: " + either(candidates) + "?";
+    }
+    return "No " + name + " here" + suffix + "." + suggestion(name, locations).map(n -> " Did you mean the " + n + "?").orElse("");
+  }
+
+  /**
+   * The closest name to a misspelled one among the things in the given
+   * locations.
+   */
+  private Optional<String> suggestion(String name, Location... locations) {
+    return Arrays
+      .stream(locations)
+      .flatMap(l -> l.index().get().suggestion(name).stream())
+      .min(Comparator.<String>comparingInt(n -> BKTree.distance(name, n)).thenComparing(n -> n));
+  }
 }
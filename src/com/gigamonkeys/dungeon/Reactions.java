@@ -0,0 +1,171 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Runs the reactions to an action, the reactions to those reactions, and so
+ * on, off an explicit work stack instead of by recursion. Each instance is
+ * good for one turn and enforces that turn's budget: chains of reactions can
+ * only go so deep, the turn as a whole can only produce so many reactions,
+ * and a reaction equal to one of the actions that led to it is dropped rather
+ * than being allowed to go around in circles. So a badly written on<Action>
+ * method in some Thing can make a mess of one turn but can't blow the stack
+ * or spin forever.
+ *
+ * Reactions are described in the same order the old recursive version used:
+ * all the immediate reactions to an action, then, one at a time, everything
+ * that follows from each of them.
+ */
+public class Reactions {
+
+  /**
+   * How deep chains of reactions can go and how many reactions one turn can
+   * produce in total.
+   */
+  public static record Limits(int depth, int reactions) {}
+
+  public static final Limits DEFAULT = new Limits(32, 256);
+
+  // An action waiting to have its reactions run plus the chain that led to it.
+  private static record Pending(Action action, Pending cause, int depth) {
+    boolean repeats(Action a) {
+      for (var p = this; p != null; p = p.cause()) {
+        if (p.action().equals(a)) return true;
+      }
+      return false;
+    }
+  }
+
+  private final Limits limits;
+  private int count = 0;
+  private int depth = 0;
+  private String report = null;
+
+  public Reactions() {
+    this(DEFAULT);
+  }
+
+  public Reactions(Limits limits) {
+    this.limits = limits;
+  }
+
+  /**
+   * Run all the reactions to action, writing their descriptions to text.
+   */
+  public void run(Text.Wrapper text, Action action, Player player) {
+    run(action, player, a -> text.add(a.description()));
+  }
+
+  /**
+   * Run all the reactions to action just for their effects. See Action.apply.
+   */
+  public void run(Action action, Player player) {
+    run(action, player, Action::apply);
+  }
+
+  /**
+   * Run actions that have come due, as from Scheduler.tick, describing each and
+   * then running its reactions. An action that turns out to have nothing to
+   * say, e.g. because what it was going to do has already been done, adds
+   * nothing.
+   */
+  public void run(Text.Wrapper text, List<Action> due, Player player) {
+    for (var a : due) {
+      var description = a.description();
+      if (!description.isEmpty()) text.add(description);
+      run(text, a, player);
+    }
+  }
+
+  /**
+   * Run actions that have come due and their reactions just for their effects.
+   */
+  public void run(List<Action> due, Player player) {
+    for (var a : due) {
+      a.apply();
+      run(a, player);
+    }
+  }
+
+  private void run(Action action, Player player, Consumer<Action> describe) {
+    var stack = new ArrayDeque<Pending>();
+    stack.push(new Pending(action, null, 0));
+
+    while (!stack.isEmpty()) {
+      var pending = stack.pop();
+
+      // Gets the reactions in batches because getting the description of each
+      // action may change the state of the world in ways that lead to
+      // ConcurrentModificationExceptions from the stream if we try to do
+      // everything in one big lazy stream. Only things that listen for this
+      // kind of action are asked. The limit keeps a Thing that
+      // returns an endless stream from hanging the turn.
+      var remaining = limits.reactions() - count;
+      var reactions = player
+        .room()
+        .listeners(pending.action().getClass())
+        .stream()
+        .flatMap(pending.action()::reactions)
+        .limit(remaining + 1)
+        .toList();
+      if (reactions.isEmpty()) continue;
+
+      if (pending.depth() == limits.depth()) {
+        stop("Reactions stopped " + limits.depth() + " deep.");
+        continue;
+      }
+
+      var batch = new ArrayList<Pending>(reactions.size());
+      var full = false;
+      for (var r : reactions) {
+        if (pending.repeats(r)) {
+          stop("Ignored a reaction that repeats what caused it.");
+        } else if (batch.size() == remaining) {
+          stop("Reactions stopped after " + limits.reactions() + " in one turn.");
+          full = true;
+          break;
+        } else {
+          batch.add(new Pending(r, pending, pending.depth() + 1));
+        }
+      }
+      count += batch.size();
+      if (!batch.isEmpty()) depth = Math.max(depth, pending.depth() + 1);
+
+      batch.forEach(p -> describe.accept(p.action()));
+      if (full) return;
+
+      for (var i = batch.size() - 1; i >= 0; i--) {
+        stack.push(batch.get(i));
+      }
+    }
+  }
+
+  /**
+   * Number of reactions run so far this turn.
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Length of the longest chain of reactions run so far this turn.
+   */
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * What limit, if any, cut the reactions short.
+   */
+  public Optional<String> report() {
+    return Optional.ofNullable(report);
+  }
+
+  private void stop(String why) {
+    if (report == null) report = why;
+  }
+}
@@ -0,0 +1,344 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One world shared by many players. Each room is an actor with a mailbox and
+ * everything that happens in it, a player's turn or a thing arriving from
+ * somewhere else, is a message the room handles one at a time in the order
+ * they arrived. So nothing in a room is ever touched by two threads at once,
+ * and rooms in different parts of the world run in parallel without any lock
+ * over the world as a whole.
+ *
+ * A player's turn is a message to the room they're in. It runs on the player's
+ * own virtual thread while the room waits for it to finish, so turns are
+ * still ordinary code. When the player goes through a door (Player.enter) the
+ * turn is handed off: it leaves the room, which gets on with its next message,
+ * and queues at the room on the other side, carrying on once that room gets
+ * to it. A turn is only ever in one room, so rooms can't end up waiting for
+ * each other. Anything else that reaches into another room, like a thing
+ * moving there or a door opening into it, is posted to that room and happens
+ * when the room gets to it.
+ *
+ * Whatever needs the whole world to stand still doesn't work in a shared
+ * world: there is no world-wide clock, so nothing can be scheduled and Actors
+ * don't tick; turns can't be undone; and the world can't be saved in a
+ * Snapshot.
+ */
+public class Realm implements AutoCloseable {
+
+  // The room the current thread is acting for, if any, and how to let the room
+  // get on with its other messages when it's done.
+  private static record Visit(Mailbox mailbox, Semaphore done) {
+    void leave() {
+      if (done != null) done.release();
+    }
+  }
+
+  private static final ThreadLocal<Visit> visiting = new ThreadLocal<>();
+
+  private final World world;
+  private final Room start;
+  private final int hitPoints;
+  private final Map<Room, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong();
+
+  public Realm(Supplier<Room> maze, int hitPoints) {
+    this.world = new World();
+    this.start = World.using(world, maze);
+    this.hitPoints = hitPoints;
+    // Allocate the whole first page now so players joining on different
+    // threads never see it copied as it grows.
+    world.reserve(0);
+    world.realm(this);
+  }
+
+  public Realm() {
+    this(() -> new Maze().build(), 20);
+  }
+
+  /**
+   * Add a player, starting in the maze's first room, whose output goes to the
+   * given stream.
+   */
+  public Session join(OutputStream out) {
+    var player = new Player(start, hitPoints);
+    var session = new Session(nextId.incrementAndGet(), player, new Dungeon(player, out));
+    sessions.put(session.id, session);
+    session.thread.start();
+    return session;
+  }
+
+  public Optional<Session> session(long id) {
+    return Optional.ofNullable(sessions.get(id));
+  }
+
+  public Collection<Session> sessions() {
+    return sessions.values();
+  }
+
+  public int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Stop all the sessions.
+   */
+  public void close() {
+    List.copyOf(sessions.values()).forEach(Session::close);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Rooms as actors
+
+  private Mailbox mailbox(Room room) {
+    return mailboxes.computeIfAbsent(room, Mailbox::new);
+  }
+
+  /**
+   * Move the current thread's turn from the room it's in to room, waiting for
+   * room to get to it.
+   */
+  void handoff(Room room) {
+    var v = visiting.get();
+    if (v == null || v.done() == null) throw new IllegalStateException("Not on a turn in this realm.");
+    v.leave();
+    visiting.set(mailbox(room).visit());
+  }
+
+  /**
+   * Run fn in the room where location is: right away if the current thread is
+   * acting for that room or the location isn't in a shared world, otherwise
+   * when that room's mailbox gets to it.
+   */
+  static void run(Location location, Runnable fn) {
+    var realm = location.world().realm();
+    var room = realm == null ? null : room(location);
+    var v = visiting.get();
+    if (room == null || (v != null && v.mailbox().room == room)) {
+      fn.run();
+    } else {
+      realm.mailbox(room).post(fn);
+    }
+  }
+
+  // The room location is in, counting things a player has as being in the
+  // player's room, or null if it isn't anywhere.
+  private static Room room(Location location) {
+    for (Location l = location; l != null; l = l.container().orElse(null)) {
+      if (l instanceof Room r) return r;
+      if (l instanceof Player p) return p.room();
+    }
+    return null;
+  }
+
+  /**
+   * A room's messages, run one at a time in order on a virtual thread that is
+   * started whenever there are messages and nothing running them.
+   */
+  private static class Mailbox {
+
+    private final Room room;
+    private final Queue<Runnable> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    Mailbox(Room room) {
+      this.room = room;
+    }
+
+    void post(Runnable message) {
+      messages.add(message);
+      if (running.compareAndSet(false, true)) Thread.ofVirtual().start(this::drain);
+    }
+
+    private void drain() {
+      visiting.set(new Visit(this, null));
+      do {
+        for (Runnable m; (m = messages.poll()) != null;) {
+          try {
+            m.run();
+          } catch (RuntimeException re) {
+            // One bad message shouldn't stop the room.
+            var t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, re);
+          }
+        }
+        running.set(false);
+      } while (!messages.isEmpty() && running.compareAndSet(false, true));
+    }
+
+    /**
+     * Wait for the room to get through everything posted before and then have
+     * it wait while the current thread acts for it until the visit is left.
+     */
+    Visit visit() {
+      var arrived = new Semaphore(0);
+      var done = new Semaphore(0);
+      post(() -> {
+        arrived.release();
+        done.acquireUninterruptibly();
+      });
+      arrived.acquireUninterruptibly();
+      return new Visit(this, done);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Sessions
+
+  /**
+   * One player. Input is queued by whoever is talking to the player and
+   * consumed by the session's own thread, which runs each command as a turn in
+   * the player's room.
+   */
+  public class Session implements Game {
+
+    private final long id;
+    private final Player player;
+    private final Dungeon dungeon;
+    private final BlockingQueue<String> input = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private Session(long id, Player player, Dungeon dungeon) {
+      this.id = id;
+      this.player = player;
+      this.dungeon = dungeon;
+      this.thread = Thread.ofVirtual().name("dungeon-player-" + id).unstarted(this::play);
+    }
+
+    public long id() {
+      return id;
+    }
+
+    public Player player() {
+      return player;
+    }
+
+    /**
+     * Queue a line of input for the game.
+     */
+    public void send(String line) {
+      input.add(line);
+    }
+
+    public boolean running() {
+      return thread.isAlive();
+    }
+
+    /**
+     * Take the player out of the game. Any input not yet processed is dropped.
+     */
+    public void close() {
+      thread.interrupt();
+    }
+
+    /**
+     * Wait for the session's thread to finish.
+     */
+    public void join() throws InterruptedException {
+      thread.join();
+    }
+
+    private void play() {
+      try {
+        turn(dungeon::start);
+        while (!dungeon.gameOver()) {
+          var line = input.take();
+          turn(() -> dungeon.command(line));
+        }
+      } catch (InterruptedException ie) {
+        // Closed while waiting for input. Nothing more to do.
+      } finally {
+        sessions.remove(id, this);
+        dungeon.close();
+      }
+    }
+
+    // Run fn in the player's room and whatever rooms it hands off to.
+    private void turn(Runnable fn) {
+      visiting.set(mailbox(player.room()).visit());
+      try {
+        fn.run();
+      } finally {
+        visiting.get().leave();
+        visiting.remove();
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Demo
+
+  // Counts prompts so the demo can wait for each command to finish.
+  private static class Prompts extends OutputStream {
+
+    private final Semaphore prompts = new Semaphore(0);
+    private int previous;
+
+    public void write(int b) {
+      if (previous == '>' && b == ' ') prompts.release();
+      previous = b;
+    }
+  }
+
+  /**
+   * Have players wander a generated maze at the same time and report how many
+   * commands a second they get through. Usage: Realm [players] [commands]
+   * [width] [height].
+   */
+  public static void main(String[] args) throws InterruptedException {
+    var players = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    var commands = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    var width = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    var height = args.length > 3 ? Integer.parseInt(args[3]) : width;
+
+    var params = new MazeGenerator.Params(width, height, 0);
+    try (var realm = new Realm(() -> new MazeGenerator(params).generate()[0], 1000)) {
+      var directions = Direction.values();
+      var drivers = new Thread[players];
+      var begin = System.nanoTime();
+      for (var i = 0; i < players; i++) {
+        var seed = i;
+        drivers[i] =
+          Thread.startVirtualThread(() -> {
+            var out = new Prompts();
+            var session = realm.join(out);
+            out.prompts.acquireUninterruptibly();
+            for (var c = 0; c < commands; c++) {
+              var d = directions[(int) Math.floorMod(MazeGenerator.mix(seed, c), (long) directions.length)];
+              session.send(c % 8 == 7 ? "look" : "go " + d.name().toLowerCase());
+              out.prompts.acquireUninterruptibly();
+            }
+          });
+      }
+      for (var d : drivers) d.join();
+      var seconds = (System.nanoTime() - begin) / 1e9;
+
+      var rooms = realm.sessions().stream().map(s -> s.player().room()).distinct().count();
+      System.out.println(
+        String.format(
+          "%,d players, %,d commands in %.2f s: %,.0f commands/s, %,d rooms occupied",
+          players,
+          (long) players * commands,
+          seconds,
+          players * commands / seconds,
+          rooms
+        )
+      );
+    }
+  }
+}
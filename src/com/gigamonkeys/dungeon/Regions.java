@@ -0,0 +1,527 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A MazeGenerator world loaded a region at a time so it doesn't have to fit
+ * in memory. Each region is one of the generator's blocks and gets a range of
+ * ids covering whole pages of the World, which are only allocated while the
+ * region is loaded. A region is loaded when a player goes into one of its
+ * rooms, made afresh by the generator and then, if it has been changed
+ * before, updated from its file in the directory. The regions joined to the
+ * one a player is in are loaded ahead of time on a background thread so
+ * walking into them doesn't have to wait.
+ *
+ * Once the loaded regions take more than the memory budget, the least
+ * recently entered ones are unloaded, with the changed ones written back to
+ * their files first, also on the background thread. Regions players are in or
+ * next to are never unloaded, and nor are regions with things in a player's
+ * hands. Things can also be carried from one region and left in another, so
+ * the World asks for a region to be loaded whenever it follows a link from a
+ * loaded entity to one that isn't, e.g. listing what's in a room.
+ *
+ * Doors between regions lead from the loaded side to a Room view standing in
+ * for the room on the other side, which is swapped for the real thing when its
+ * region is loaded. So memory scales with the number of regions players are
+ * in, not the size of the world.
+ *
+ * Like the World, Regions should only be used by one thread at a time apart
+ * from its own background thread, which only touches regions that aren't
+ * loaded.
+ *
+ * Usage: Regions [width] [height] [budget-mb] [moves] [seed]
+ */
+public class Regions implements World.Pager, AutoCloseable {
+
+  // Rough size in memory of a loaded entity: its share of the World's pages,
+  // door columns included, its view, and for rooms their doors. Measured on
+  // generated regions.
+  public static final long ENTITY_BYTES = 120;
+
+  /**
+   * Counts of what has happened so far: regions loaded, how many times a
+   * region had to be waited for because it hadn't been loaded ahead of time,
+   * regions unloaded, how many of those were written back, and the regions
+   * loaded now and their estimated size.
+   */
+  public static record Stats(long loads, long waits, long unloads, long writes, int loaded, long bytes) {}
+
+  private static record Region(int number, int base, int count, Room[] cells) {
+    long bytes() {
+      return count * ENTITY_BYTES;
+    }
+  }
+
+  private final World world;
+  private final MazeGenerator generator;
+  private final Path directory;
+  private final long budget;
+
+  // Ids of region n start at first + n * stride.
+  private final int first;
+  private final int stride;
+
+  // The doors joining each region to others.
+  private final List<List<MazeGenerator.Join>> joins;
+
+  private final ExecutorService background;
+
+  // Loaded regions by number and in order of when they were last entered.
+  private final Region[] regions;
+  private final LinkedHashMap<Integer, Region> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+  // Regions being loaded ahead of time, and unloaded regions being written.
+  private final Map<Integer, Future<Region>> loading = new HashMap<>();
+  private final List<Future<?>> unloading = new ArrayList<>();
+
+  // Which region each player is in.
+  private final Map<Player, Integer> players = new WeakHashMap<>();
+
+  private long bytes;
+  private long loads;
+  private long waits;
+  private long unloads;
+  private long writes;
+
+  /**
+   * Load the world generated with params a region at a time into the current
+   * world, keeping changed regions in directory and loaded ones within
+   * budget bytes.
+   */
+  public Regions(MazeGenerator.Params params, Path directory, long budget) throws IOException {
+    this.world = World.current();
+    this.generator = new MazeGenerator(params);
+    this.directory = Files.createDirectories(directory);
+    this.budget = budget;
+
+    var blocks = generator.blocks();
+    var most = (long) params.block() * params.block() * (1 + params.things());
+    this.stride = (int) ((most + World.PAGE_SIZE - 1) / World.PAGE_SIZE * World.PAGE_SIZE);
+    if ((long) blocks * stride > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many rooms to load by region: " + params.width() + " x " + params.height());
+    }
+    this.first = world.reserveUnallocated(blocks * stride);
+    this.regions = new Region[blocks];
+
+    this.joins = new ArrayList<>(blocks);
+    for (var b = 0; b < blocks; b++) joins.add(new ArrayList<>());
+    for (var j : generator.joins()) {
+      var d = j.direction();
+      joins.get(generator.block(j.x(), j.y())).add(j);
+      joins.get(generator.block(j.x() + MazeGenerator.dx(d), j.y() + MazeGenerator.dy(d))).add(j);
+    }
+
+    this.background = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("dungeon-regions").daemon().factory());
+    world.pager(this);
+  }
+
+  /**
+   * The first room of the maze, with its region loaded.
+   */
+  public Room start() {
+    return load(0).cells()[0];
+  }
+
+  /**
+   * Whether the entity's state is in memory.
+   */
+  public boolean loaded(int id) {
+    var r = region(id);
+    return r == -1 || (regions[r] != null && id < regions[r].base() + regions[r].count());
+  }
+
+  /**
+   * The player is going into room, which may be standing in for a room that
+   * isn't loaded. Load its region if need be, and the regions around it, and
+   * return the real room.
+   */
+  public Room enter(Player player, Room room) {
+    finish();
+    var r = region(room.id());
+    if (r == -1) return room;
+    load(r);
+    recent.get(r); // Now the most recently entered.
+    var previous = players.put(player, r);
+    if (previous == null || previous != r) {
+      for (var n : neighbors(r)) prefetch(n);
+      unload();
+    }
+    return (Room) world.view(room.id());
+  }
+
+  public Stats stats() {
+    return new Stats(loads, waits, unloads, writes, recent.size(), bytes);
+  }
+
+  /**
+   * Write every loaded region that has changed to its file.
+   */
+  public void flush() throws IOException {
+    finish();
+    for (var f : unloading) join(f);
+    unloading.clear();
+    for (var region : recent.values()) {
+      if (world.dirty(region.base(), region.count())) {
+        Snapshot.saveRegion(world, region.base(), region.count(), file(region.number()));
+        world.clean(region.base(), region.count());
+        writes++;
+      }
+    }
+  }
+
+  /**
+   * Write back everything that has changed and stop the background thread.
+   */
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      background.shutdown();
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Loading
+
+  /**
+   * Load the region of an entity the World has reached from a loaded one.
+   */
+  public void fault(int id) {
+    var r = region(id);
+    if (r != -1) load(r);
+  }
+
+  private Region load(int r) {
+    if (regions[r] != null) return regions[r];
+    var future = loading.remove(r);
+    if (future == null) future = background.submit(() -> build(r));
+    waits++;
+    return install(join(future));
+  }
+
+  private void prefetch(int r) {
+    if (regions[r] == null && !loading.containsKey(r)) {
+      loading.put(r, background.submit(() -> build(r)));
+    }
+  }
+
+  /**
+   * Put the regions that have finished loading in the background into the
+   * world, and check that unloaded ones were written.
+   */
+  private void finish() {
+    var done = loading.entrySet().stream().filter(e -> e.getValue().isDone()).map(Map.Entry::getKey).toList();
+    for (var r : done) {
+      if (regions[r] == null) install(join(loading.remove(r)));
+    }
+    for (var i = unloading.iterator(); i.hasNext();) {
+      var f = i.next();
+      if (f.isDone()) {
+        join(f);
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Make region r in its pages of the world. Runs on the background thread and
+   * touches nothing outside the region, not even the doors to other regions.
+   */
+  private Region build(int r) throws IOException {
+    var base = first + r * stride;
+    var count = generator.entities(r);
+    var cells = new Room[1][];
+    world.allocate(base, count);
+    World.using(world, base, count, () -> cells[0] = generator.carve(r));
+    var file = file(r);
+    if (Files.exists(file)) Snapshot.restoreRegion(world, base, count, file);
+    world.clean(base, count);
+    return new Region(r, base, count, cells[0]);
+  }
+
+  /**
+   * Hook a region that has been built up to the loaded regions around it.
+   */
+  private Region install(Region region) {
+    var r = region.number();
+    regions[r] = region;
+    recent.put(r, region);
+    bytes += region.bytes();
+    loads++;
+
+    for (var j : joins.get(r)) {
+      var side = side(j, r);
+      var other = regions[side.other()];
+      var here = room(region, side.x(), side.y());
+      if (other != null) {
+        var there = room(other, side.otherX(), side.otherY());
+        there.disconnect(side.direction().opposite());
+        here.connect(j.door(), there, side.direction());
+      } else {
+        here.connect(j.door(), stub(side.other(), side.otherX(), side.otherY()), side.direction());
+      }
+    }
+    world.routing().disconnected();
+    return region;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Unloading
+
+  /**
+   * Unload the least recently entered regions until the rest fit in the
+   * budget or only ones that have to stay are left.
+   */
+  private void unload() {
+    if (bytes <= budget) return;
+    var near = new HashSet<Integer>();
+    for (var r : players.values()) {
+      near.add(r);
+      near.addAll(neighbors(r));
+    }
+    for (var r : List.copyOf(recent.keySet())) {
+      if (bytes <= budget) break;
+      if (!near.contains(r) && !held(regions[r])) unload(regions[r]);
+    }
+  }
+
+  /**
+   * Whether any of the region's things are somewhere outside every region,
+   * i.e. in a player's hands.
+   */
+  private boolean held(Region region) {
+    for (var id = region.base(); id < region.base() + region.count(); id++) {
+      var p = world.parent(id);
+      if (p != World.NONE && region(p) == -1) return true;
+    }
+    return false;
+  }
+
+  private void unload(Region region) {
+    var r = region.number();
+    var base = region.base();
+    var count = region.count();
+
+    // Anything holding the region's things in other regions can't keep
+    // hold of the views of them, which will be made afresh if it's loaded
+    // again.
+    for (var id = base; id < base + count; id++) {
+      var p = world.parent(id);
+      if (p != World.NONE && (p < base || p >= base + count) && world.loaded(p)) {
+        var holder = world.view(p);
+        holder.indexes(NameIndex::reset);
+        holder.changed();
+      }
+    }
+
+    for (var j : joins.get(r)) {
+      var side = side(j, r);
+      var other = regions[side.other()];
+      if (other != null) {
+        var there = room(other, side.otherX(), side.otherY());
+        var d = side.direction().opposite();
+        there.disconnect(d);
+        there.connect(j.door(), stub(r, side.x(), side.y()), d);
+      } else {
+        // The region's pages aren't released until the background thread
+        // gets to it and until then a neighbor loaded meanwhile would find
+        // this side of the door still there.
+        world.door(room(region, side.x(), side.y()).id(), side.direction(), null);
+      }
+    }
+    world.routing().disconnected();
+
+    regions[r] = null;
+    recent.remove(r);
+    bytes -= region.bytes();
+    unloads++;
+
+    var dirty = world.dirty(base, count);
+    if (dirty) writes++;
+    unloading.add(
+      background.submit(() -> {
+        if (dirty) Snapshot.saveRegion(world, base, count, file(r));
+        world.release(base, count);
+        return null;
+      })
+    );
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Helpers
+
+  // The region an entity is in, or -1 if it isn't in one, e.g. a player.
+  private int region(int id) {
+    var r = (id - first) / stride;
+    return id < first || r >= regions.length ? -1 : r;
+  }
+
+  private Room room(Region region, int x, int y) {
+    return region.cells()[generator.cell(x, y)];
+  }
+
+  // Stand-in for the room at x, y in region r, which isn't loaded.
+  private Room stub(int r, int x, int y) {
+    return new Room(world, first + r * stride + generator.offset(x, y));
+  }
+
+  private List<Integer> neighbors(int r) {
+    return joins.get(r).stream().map(j -> side(j, r).other()).toList();
+  }
+
+  /**
+   * A join seen from region r: the room on r's side, the direction to go
+   * through the door, and the region and room on the other side.
+   */
+  private static record Side(int x, int y, Direction direction, int other, int otherX, int otherY) {}
+
+  private Side side(MazeGenerator.Join j, int r) {
+    var d = j.direction();
+    var x = j.x() + MazeGenerator.dx(d);
+    var y = j.y() + MazeGenerator.dy(d);
+    return generator.block(j.x(), j.y()) == r
+      ? new Side(j.x(), j.y(), d, generator.block(x, y), x, y)
+      : new Side(x, y, d.opposite(), generator.block(j.x(), j.y()), j.x(), j.y());
+  }
+
+  private Path file(int r) {
+    return directory.resolve("region-" + r + ".dat");
+  }
+
+  /**
+   * Wait for something done on the background thread, passing along any
+   * failure. Keeps waiting if interrupted since giving up halfway would leave
+   * the world inconsistent.
+   */
+  private static <T> T join(Future<T> future) {
+    var interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException ioe) throw new UncheckedIOException("Couldn't load or save region.", ioe);
+      throw new IllegalStateException(ee.getCause());
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Walking a player all over a big maze.
+
+  /**
+   * Explore the maze depth-first, picking things up along the way and
+   * dropping them again now and then, and report how many regions were loaded
+   * and how much memory was in use.
+   */
+  public static void main(String[] args) throws IOException {
+    try {
+      World.using(
+        new World(),
+        () -> {
+          try {
+            run(args);
+          } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+          }
+        }
+      );
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+
+  private static void run(String[] args) throws IOException {
+    var width = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    var height = args.length > 1 ? Integer.parseInt(args[1]) : width;
+    var budget = (args.length > 2 ? Long.parseLong(args[2]) : 64) << 20;
+    var moves = args.length > 3 ? Long.parseLong(args[3]) : 1_000_000L;
+    var seed = args.length > 4 ? Long.parseLong(args[4]) : 0L;
+
+    var directory = Files.createTempDirectory("regions");
+    var random = new SplittableRandom(seed);
+    var start = System.nanoTime();
+    try (var regions = new Regions(new MazeGenerator.Params(width, height, seed), directory, budget)) {
+      var player = new Player(regions.start(), 20);
+      var visited = new BitSet();
+      var path = new ArrayDeque<Direction>();
+      var rt = Runtime.getRuntime();
+      var most = 0L;
+      visited.set(player.room().id());
+
+      var n = 0L;
+      while (n < moves) {
+        var room = player.room();
+        var lying = room.things().stream().filter(Thing::canBeTaken).findFirst();
+        if (lying.isPresent() && player.things().size() < 3) {
+          new Action.Take(player, List.of(lying.get())).apply();
+        } else if (!player.things().isEmpty() && random.nextInt(50) == 0) {
+          new Action.Drop(player, player.things().iterator().next()).apply();
+        }
+
+        Direction next = null;
+        for (var d : Direction.values()) {
+          var door = room.door(d);
+          if (door.isPresent() && !visited.get(door.get().from(room).id())) {
+            next = d;
+            break;
+          }
+        }
+        if (next != null) {
+          path.push(next);
+        } else if (!path.isEmpty()) {
+          next = path.pop().opposite();
+        } else {
+          break;
+        }
+        player.enter(room.door(next).get());
+        visited.set(player.room().id());
+        n++;
+
+        if (n % 100_000 == 0) most = Math.max(most, rt.totalMemory() - rt.freeMemory());
+      }
+      var seconds = (System.nanoTime() - start) / 1e9;
+
+      var s = regions.stats();
+      System.out.printf("%,d moves, %,d rooms visited in %.2f seconds.%n", n, visited.cardinality(), seconds);
+      System.out.printf(
+        "%,d regions loaded (%,d waited for), %,d unloaded (%,d written back), %,d loaded now, ~%,d MB.%n",
+        s.loads(),
+        s.waits(),
+        s.unloads(),
+        s.writes(),
+        s.loaded(),
+        s.bytes() >> 20
+      );
+      for (var i = 0; i < 3; i++) System.gc();
+      System.out.printf("%,d MB heap in use, %,d MB at most.%n", (rt.totalMemory() - rt.freeMemory()) >> 20, most >> 20);
+    } finally {
+      try (var files = Files.list(directory)) {
+        for (var f : files.toList()) Files.delete(f);
+      }
+      Files.delete(directory);
+    }
+  }
+}
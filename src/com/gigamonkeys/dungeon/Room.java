@@ -18,49 +18,180 @@ import java.util.stream.Stream;
  */
 public class Room implements Location {
 
-  private final String description;
-  private final Map<Direction, Door> doors = new HashMap<Direction, Door>();
-  private final Map<String, PlacedThing> things = new HashMap<>();
+  private final World world;
+  private final int id;
+
+  // What's worked out from the room's state in its own world. Overlays of the
+  // world keep their own; see local().
+  private Local local;
+
+  /**
+   * Everything a room works out from its state and keeps.
+   */
+  static class Local {
+
+    private final NameIndex index;
+
+    // Cached text of description(); cleared whenever anything in the room changes.
+    private String rendered;
+
+    // Things in the room that listen for each type of action, in the same order
+    // as allThings(); cleared along with rendered. Made when first needed.
+    private Map<Class<? extends Action>, List<Thing>> listeners;
+
+    Local(Room room) {
+      this.index = new NameIndex(room);
+    }
+  }
 
   public Room(String description) {
-    this.description = description;
+    this.world = World.current();
+    this.id = world.add(this, null, description, 0, 0);
+  }
+
+  /**
+   * A view of a room in a region that isn't loaded, standing in for it at the
+   * far end of doors from loaded rooms until Regions loads it. Only its id
+   * means anything.
+   */
+  Room(World world, int id) {
+    this.world = world;
+    this.id = id;
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation
 
-  public Map<String, PlacedThing> locationMap() {
-    return things;
+  /**
+   * The world this room's state is in, which for a room shared by the
+   * overlays of a base world is the overlay the current thread is using.
+   */
+  public World world() {
+    return world.here();
+  }
+
+  public int id() {
+    return id;
+  }
+
+  public Optional<NameIndex> index() {
+    return Optional.of(local().index);
+  }
+
+  public void changed() {
+    var l = local(false);
+    if (l != null) {
+      l.rendered = null;
+      l.listeners = null;
+    }
+  }
+
+  private Local local() {
+    return local(true);
+  }
+
+  private Local local(boolean make) {
+    var w = world.here();
+    if (w != world) return w.local(this, make);
+    if (local == null && make) local = new Local(this);
+    return local;
   }
 
   //
   //////////////////////////////////////////////////////////////////////////////
 
   void connect(String doorDescription, Room other, Direction d) {
-    if (doors.containsKey(d)) {
+    var w = world();
+    if (w.door(id, d) != null) {
       throw new RuntimeException("Already have a door in direction " + d);
     }
-    if (other.doors.containsKey(d.opposite())) {
+    if (w.door(other.id, d.opposite()) != null) {
       throw new RuntimeException("Other room already has a door in direction " + d.opposite());
     }
 
     var door = new Door(doorDescription, this, other);
 
-    doors.put(d, door);
-    other.doors.put(d.opposite(), door);
+    w.door(id, d, door);
+    changed();
+    Realm.run(
+      other,
+      () -> {
+        w.door(other.id, d.opposite(), door);
+        other.changed();
+      }
+    );
+    w.routing().connected(this, other);
+  }
+
+  /**
+   * Take away the door in direction d, from both sides.
+   */
+  void disconnect(Direction d) {
+    var w = world();
+    var door = w.door(id, d);
+    if (door != null) {
+      var other = door.from(this);
+      w.door(id, d, null);
+      w.door(other.id, d.opposite(), null);
+      changed();
+      other.changed();
+      w.routing().disconnected();
+    }
+  }
+
+  /**
+   * Forget everything not kept in the World after the World has been restored
+   * from a snapshot and put back the doors the snapshot had, indexed by
+   * Direction ordinal.
+   */
+  void restored(Door[] doors) {
+    var w = world();
+    for (var d : Direction.values()) w.door(id, d, doors[d.ordinal()]);
+    w.routing().disconnected();
+    local().index.reset();
+    changed();
+  }
+
+  /**
+   * Forget everything worked out from the World after the World has been
+   * rolled back to an earlier Version.
+   */
+  void rolledBack() {
+    local().index.reset();
+    changed();
   }
 
   public String description() {
-    return new Text.Wrapped()
-      .add("You are in " + description + ".")
-      .add(describeThings(t -> !t.isMonster()))
-      .add(describeThings(t -> t.isMonster()))
-      .add(describeDoors())
-      .toString();
+    var l = local();
+    if (l.rendered == null) {
+      l.rendered =
+        new Text.Wrapped()
+          .add("You are in " + world().description(id) + ".")
+          .add(describeThings(t -> !t.isMonster()))
+          .add(describeThings(t -> t.isMonster()))
+          .add(describeDoors())
+          .toString();
+    }
+    return l.rendered;
+  }
+
+  /**
+   * The things in the room that react to actions of the given type. The list
+   * is a snapshot so it's fine to hold on to it while the room changes.
+   */
+  public List<Thing> listeners(Class<? extends Action> type) {
+    var l = local();
+    if (l.listeners == null) l.listeners = new HashMap<>();
+    var ts = l.listeners.get(type);
+    if (ts == null) {
+      ts = allThings().filter(t -> t.listensFor(type)).toList();
+      l.listeners.put(type, ts);
+    }
+    return ts;
   }
 
   public Optional<Door> door(Direction d) {
-    return Optional.ofNullable(doors.get(d));
+    return Optional.ofNullable(world().door(id, d));
   }
 
   public void drop(Thing t) {
@@ -97,10 +228,11 @@ public class Room implements Location {
   }
 
   private String describeDoors() {
+    var w = world();
     var ds = Arrays
       .stream(Direction.class.getEnumConstants())
-      .filter(doors::containsKey)
-      .map(d -> a(doors.get(d).description()) + " to the " + d.toString().toLowerCase())
+      .filter(d -> w.door(id, d) != null)
+      .map(d -> a(w.door(id, d).description()) + " to the " + d.toString().toLowerCase())
       .toList();
 
     return "There is " + commify(ds) + ".";
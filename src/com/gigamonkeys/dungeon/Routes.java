@@ -0,0 +1,486 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Shortest routes between the rooms of a World through their doors. Made by
+ * the world's Cache when first needed and kept up to date as doors are added.
+ * The overlays of a world use its routes for as long as they have the same
+ * doors; see World.routes.
+ *
+ * Small worlds are searched with a plain breadth-first search. For worlds
+ * with more rooms than that can search in a hurry, the distances from a few
+ * landmark rooms, spread out as far from each other as possible, to every
+ * room are worked out up front. Then routes are found with A* using the
+ * triangle inequality over the landmarks as its heuristic (ALT), which points
+ * the search at the destination so it only looks at rooms near the route. A
+ * new door can only make rooms closer, so adding one just lowers the landmark
+ * distances it shortens, touching only the rooms it actually affects.
+ *
+ * In a world loaded a region at a time (see Regions) the routes only cover
+ * the rooms that were loaded when they were made; the World makes new ones
+ * whenever a region is loaded or unloaded.
+ *
+ * Search state is kept in arrays reused from one query to the next, marked
+ * with the number of the query so nothing has to be cleared between them.
+ * Each search takes a set of arrays from a pool, so several threads, e.g.
+ * the games playing in overlays of one world, can search at once, but only
+ * the thread changing the world's doors should tell the routes about them.
+ */
+public class Routes {
+
+  public static final int SMALL = 4096;
+  public static final int LANDMARKS = 8;
+  public static final int FOUND = 1024;
+
+  private static final int FAR = Integer.MAX_VALUE;
+
+  private final World world;
+
+  // Every room, each one's position in rooms by entity id, and for each
+  // landmark the distance from it to every room.
+  private final Room[] rooms;
+  private final int[] index;
+  private final int[][] landmarks;
+
+  // The rooms whose descriptions use each word, made when first needed, and
+  // the rooms found for the lists of words asked for most recently. Only
+  // lists of words the rooms actually use are kept, and only FOUND of them,
+  // since anyone playing can ask for anything.
+  private Map<String, int[]> words;
+  private final LinkedHashMap<List<String>, int[]> found = new LinkedHashMap<>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<List<String>, int[]> eldest) {
+      return size() > FOUND;
+    }
+  };
+
+  // Search state not in use by any search right now.
+  private final Queue<Search> searches = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The state of one search: when each room was last seen, its distance from
+   * the start, and the direction taken into it, plus a queue for
+   * breadth-first searches and a heap of (estimate, room) pairs for A*.
+   */
+  private static class Search {
+
+    final int[] seen;
+    final int[] distance;
+    final byte[] via;
+    final int[] queue;
+    long[] heap = new long[64];
+    int query = 0;
+
+    Search(int rooms) {
+      seen = new int[rooms];
+      distance = new int[rooms];
+      via = new byte[rooms];
+      queue = new int[rooms];
+    }
+  }
+
+  Routes(World world) {
+    this.world = world;
+    this.index = new int[world.size()];
+    Arrays.fill(index, -1);
+    var found = new ArrayList<Room>();
+    for (var id = 0; id < index.length; id++) {
+      if (world.loaded(id) && world.view(id) instanceof Room r) {
+        index[id] = found.size();
+        found.add(r);
+      }
+    }
+    this.rooms = found.toArray(new Room[0]);
+    this.landmarks = rooms.length > SMALL ? landmarks(Math.min(LANDMARKS, rooms.length)) : null;
+  }
+
+  /**
+   * Whether these routes cover every room in the given world, i.e. no rooms
+   * have been added since they were made.
+   */
+  boolean current(World world) {
+    return world.lastRoom() < index.length;
+  }
+
+  /**
+   * A world's routes, made when first needed and again when they no longer
+   * cover all its rooms, and kept up to date with new doors when they can be.
+   */
+  static class Cache {
+
+    private final World world;
+    private Routes routes;
+
+    Cache(World world) {
+      this.world = world;
+    }
+
+    synchronized Routes get() {
+      if (routes == null || !routes.current(world)) routes = new Routes(world);
+      return routes;
+    }
+
+    /**
+     * Keep the routes, if there are any, up to date with a new door.
+     */
+    synchronized void connected(Room a, Room b) {
+      // Regions throws the routes away whenever it loads a region, and it makes
+      // the doors inside regions on another thread. In a shared world the doors
+      // are added by the rooms' threads while players search, so the routes are
+      // made again instead.
+      if (world.paged()) return;
+      if (routes != null) {
+        if (world.realm() == null && routes.current(world)) {
+          routes.connected(a, b);
+        } else {
+          routes = null;
+        }
+      }
+    }
+
+    /**
+     * Throw away the routes because doors have been taken away or rooms loaded
+     * or unloaded.
+     */
+    synchronized void disconnected() {
+      routes = null;
+    }
+  }
+
+  private Search search() {
+    var s = searches.poll();
+    return s != null ? s : new Search(rooms.length);
+  }
+
+  /**
+   * The shortest route from one room to another as the directions to go in,
+   * if there is one.
+   */
+  public Optional<List<Direction>> route(Room from, Room to) {
+    var target = index[to.id()];
+    var s = search();
+    try {
+      return landmarks == null
+        ? search(s, index[from.id()], i -> i == target, rooms.length)
+        : astar(s, index[from.id()], target);
+    } finally {
+      searches.add(s);
+    }
+  }
+
+  /**
+   * The route to the nearest room whose description has all the given words.
+   * Nearby rooms are found by searching outward from the start. In a big
+   * world a room too far away for that is picked from all the rooms with the
+   * right description as the one the landmarks say is probably nearest.
+   */
+  public Optional<List<Direction>> route(Room from, List<String> words) {
+    var start = index[from.id()];
+    var candidates = candidates(words);
+    if (candidates.length == 0) return Optional.empty();
+
+    var s = search();
+    try {
+      var limit = landmarks == null ? rooms.length : SMALL;
+      var found = search(s, start, i -> Arrays.binarySearch(candidates, i) >= 0, limit);
+      if (found.isPresent() || landmarks == null) return found;
+
+      var best = -1;
+      var bestBound = FAR;
+      for (var c : candidates) {
+        var b = bound(start, c);
+        if (b < bestBound) {
+          best = c;
+          bestBound = b;
+        }
+      }
+      return best == -1 ? Optional.empty() : astar(s, start, best);
+    } finally {
+      searches.add(s);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Keeping up with changes to the doors
+
+  /**
+   * A door has been added between a and b. Lower any landmark distances it
+   * shortens, and any that follow from those, by a breadth-first pass from
+   * whichever end got closer.
+   */
+  void connected(Room a, Room b) {
+    if (landmarks == null) return;
+    var ia = index[a.id()];
+    var ib = index[b.id()];
+    var s = search();
+    for (var d : landmarks) {
+      if (d[ia] != FAR && d[ia] + 1 < d[ib]) lower(d, ib, d[ia] + 1, s.queue);
+      if (d[ib] != FAR && d[ib] + 1 < d[ia]) lower(d, ia, d[ib] + 1, s.queue);
+    }
+    searches.add(s);
+  }
+
+  private void lower(int[] d, int from, int dist, int[] queue) {
+    d[from] = dist;
+    var head = 0;
+    var tail = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      var i = queue[head++];
+      var room = rooms[i];
+      for (var dir : Direction.values()) {
+        var j = neighbor(room, dir);
+        if (j != -1 && d[i] + 1 < d[j]) {
+          d[j] = d[i] + 1;
+          queue[tail++] = j;
+        }
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Searching
+
+  // Position in rooms of the room through the door in direction d, if any.
+  private int neighbor(Room room, Direction d) {
+    var door = room.door(d);
+    return door.isPresent() ? index[door.get().from(room).id()] : -1;
+  }
+
+  @FunctionalInterface
+  private static interface Goal {
+    boolean reached(int room);
+  }
+
+  /**
+   * Breadth-first search from start for a room that is a goal, giving up after
+   * looking at limit rooms.
+   */
+  private Optional<List<Direction>> search(Search s, int start, Goal goal, int limit) {
+    var q = ++s.query;
+    var head = 0;
+    var tail = 0;
+    s.seen[start] = q;
+    s.queue[tail++] = start;
+    while (head < tail && head < limit) {
+      var i = s.queue[head++];
+      if (goal.reached(i)) return Optional.of(path(s, start, i));
+      var room = rooms[i];
+      for (var d : Direction.values()) {
+        var j = neighbor(room, d);
+        if (j != -1 && s.seen[j] != q) {
+          s.seen[j] = q;
+          s.via[j] = (byte) d.ordinal();
+          s.queue[tail++] = j;
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * A* search from start to target using the landmark bound as the heuristic.
+   */
+  private Optional<List<Direction>> astar(Search s, int start, int target) {
+    if (bound(start, target) == FAR) return Optional.empty();
+    var q = ++s.query;
+    var size = 0;
+    s.seen[start] = q;
+    s.distance[start] = 0;
+    size = push(s, size, bound(start, target), start);
+    while (size > 0) {
+      var top = s.heap[0];
+      size = pop(s, size);
+      var i = (int) top;
+      var estimate = (int) (top >>> 32);
+      if (i == target) return Optional.of(path(s, start, i));
+      if (estimate > s.distance[i] + bound(i, target)) continue; // Stale entry.
+      var room = rooms[i];
+      for (var d : Direction.values()) {
+        var j = neighbor(room, d);
+        if (j == -1) continue;
+        var g = s.distance[i] + 1;
+        if (s.seen[j] != q || g < s.distance[j]) {
+          s.seen[j] = q;
+          s.distance[j] = g;
+          s.via[j] = (byte) d.ordinal();
+          size = push(s, size, g + bound(j, target), j);
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Lower bound on the distance from room a to room b from the landmarks: for
+   * any landmark the distance between them is at least the difference of their
+   * distances from it. FAR if some landmark can reach one but not the other.
+   */
+  private int bound(int a, int b) {
+    var best = 0;
+    for (var d : landmarks) {
+      if ((d[a] == FAR) != (d[b] == FAR)) return FAR;
+      if (d[a] != FAR) best = Math.max(best, Math.abs(d[a] - d[b]));
+    }
+    return best;
+  }
+
+  // Walk back from end to start by the directions we came in.
+  private List<Direction> path(Search s, int start, int end) {
+    var path = new ArrayList<Direction>();
+    var directions = Direction.values();
+    for (var i = end; i != start;) {
+      var d = directions[s.via[i]];
+      path.add(d);
+      i = neighbor(rooms[i], d.opposite());
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  private static int push(Search s, int size, int estimate, int room) {
+    if (size == s.heap.length) s.heap = Arrays.copyOf(s.heap, size * 2);
+    var heap = s.heap;
+    var e = ((long) estimate << 32) | room;
+    var i = size;
+    while (i > 0 && heap[(i - 1) / 2] > e) {
+      heap[i] = heap[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    heap[i] = e;
+    return size + 1;
+  }
+
+  private static int pop(Search s, int size) {
+    var heap = s.heap;
+    var last = heap[--size];
+    var i = 0;
+    while (2 * i + 1 < size) {
+      var c = 2 * i + 1;
+      if (c + 1 < size && heap[c + 1] < heap[c]) c++;
+      if (heap[c] >= last) break;
+      heap[i] = heap[c];
+      i = c;
+    }
+    heap[i] = last;
+    return size;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Landmarks and words
+
+  /**
+   * Pick count landmarks, each as far as possible from the ones already
+   * picked, and work out their distances to every room.
+   */
+  private int[][] landmarks(int count) {
+    var picked = new int[count][];
+    var nearest = new int[rooms.length];
+    Arrays.fill(nearest, FAR);
+    var queue = new int[rooms.length];
+
+    // Start from whatever is farthest from the first room.
+    var next = farthest(distances(0, queue));
+    for (var k = 0; k < count; k++) {
+      picked[k] = distances(next, queue);
+      for (var i = 0; i < rooms.length; i++) nearest[i] = Math.min(nearest[i], picked[k][i]);
+      next = farthest(nearest);
+    }
+    return picked;
+  }
+
+  // The room farthest from the landmarks among those they can reach.
+  private int farthest(int[] d) {
+    var best = -1;
+    for (var i = 0; i < d.length; i++) {
+      if (d[i] != FAR && (best == -1 || d[i] > d[best])) best = i;
+    }
+    return best;
+  }
+
+  private int[] distances(int from, int[] queue) {
+    var d = new int[rooms.length];
+    Arrays.fill(d, FAR);
+    lower(d, from, 0, queue);
+    return d;
+  }
+
+  // Rooms whose descriptions have all the words, in any order.
+  private int[] candidates(List<String> wanted) {
+    var words = words();
+    if (wanted.isEmpty()) return new int[0];
+    for (var w : wanted) {
+      if (!words.containsKey(w)) return new int[0];
+    }
+    var key = List.copyOf(wanted);
+    synchronized (found) {
+      var rooms = found.get(key);
+      if (rooms != null) return rooms;
+    }
+    int[] rooms = null;
+    for (var w : key) {
+      var rs = words.get(w);
+      rooms = rooms == null ? rs : intersection(rooms, rs);
+    }
+    synchronized (found) {
+      found.put(key, rooms);
+    }
+    return rooms;
+  }
+
+  /**
+   * How many lists of words have their rooms kept.
+   */
+  int cached() {
+    synchronized (found) {
+      return found.size();
+    }
+  }
+
+  private static int[] intersection(int[] a, int[] b) {
+    var result = new int[Math.min(a.length, b.length)];
+    var n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private synchronized Map<String, int[]> words() {
+    if (words == null) words = wordIndex();
+    return words;
+  }
+
+  private Map<String, int[]> wordIndex() {
+    var lists = new HashMap<String, List<Integer>>();
+    var byDescription = new HashMap<String, List<Integer>>();
+    for (var i = 0; i < rooms.length; i++) {
+      byDescription.computeIfAbsent(world.description(rooms[i].id()), k -> new ArrayList<>()).add(i);
+    }
+    byDescription.forEach((description, rs) -> {
+      for (var w : Dungeon.tokenize(description.toLowerCase())) {
+        lists.computeIfAbsent(w, k -> new ArrayList<>()).addAll(rs);
+      }
+    });
+    var index = new HashMap<String, int[]>();
+    lists.forEach((w, rs) -> index.put(w, rs.stream().mapToInt(Integer::intValue).sorted().distinct().toArray()));
+    return index;
+  }
+}
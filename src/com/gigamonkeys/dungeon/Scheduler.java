@@ -0,0 +1,211 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The game clock plus the actions waiting for some later turn, kept in a
+ * hierarchical timing wheel. Each level is a wheel of 64 slots: the first has
+ * a slot per turn for the next 64 turns, the next a slot per 64 turns for the
+ * next 4096, and so on, with anything further out than the top wheel reaches
+ * waiting in one overflow list. An action goes straight into the slot for its
+ * level and when the clock gets to the start of a slot on a higher wheel the
+ * actions in it are moved down to the wheel below. So scheduling is constant
+ * time, a turn with nothing due is an increment and a couple of comparisons,
+ * and nothing that isn't scheduled is ever looked at.
+ *
+ * Actions due on the same turn come out in the order they were scheduled.
+ *
+ * A world that can't keep scheduled actions has its scheduler refuse them;
+ * see World.
+ */
+public class Scheduler {
+
+  private static final int BITS = 6;
+  private static final int SLOTS = 1 << BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+
+  private static class Event {
+
+    final long due;
+    final Action action;
+    Event next;
+
+    Event(long due, Action action) {
+      this.due = due;
+      this.action = action;
+    }
+  }
+
+  // First and last event in each slot of each wheel, with the overflow list
+  // after the last wheel. Made the first time anything is scheduled.
+  private Event[][] heads;
+  private Event[][] tails;
+
+  private long now = 0;
+  private int pending = 0;
+
+  // Why nothing can be scheduled, if it can't, and whether the clock is
+  // stopped as well.
+  private String refused;
+  private boolean stopped;
+
+  /**
+   * Number of turns the clock has been ticked.
+   */
+  public long now() {
+    return now;
+  }
+
+  /**
+   * Number of actions scheduled and not yet due.
+   */
+  public int pending() {
+    return pending;
+  }
+
+  /**
+   * Have action come due the given number of turns from now.
+   */
+  public void schedule(int turns, Action action) {
+    if (refused != null) throw new IllegalStateException(refused);
+    if (turns < 1) throw new IllegalArgumentException("Can only schedule actions for future turns: " + turns);
+    if (heads == null) {
+      heads = new Event[LEVELS + 1][SLOTS];
+      tails = new Event[LEVELS + 1][SLOTS];
+    }
+    place(new Event(now + turns, action));
+    pending++;
+  }
+
+  /**
+   * Move the clock on one turn and return the actions that are now due.
+   */
+  public List<Action> tick() {
+    if (stopped) return List.of();
+    now++;
+    if (pending == 0) return List.of();
+
+    if ((now & MASK) == 0) cascade();
+
+    var slot = (int) now & MASK;
+    var e = heads[0][slot];
+    if (e == null) return List.of();
+    heads[0][slot] = tails[0][slot] = null;
+
+    var due = new ArrayList<Action>();
+    for (; e != null; e = e.next) due.add(e.action);
+    pending -= due.size();
+    return due;
+  }
+
+  /**
+   * A scheduler with the same clock and the same actions scheduled, which
+   * can be ticked without affecting this one.
+   */
+  public Scheduler copy() {
+    var copy = new Scheduler();
+    copy.now = now;
+    copy.pending = pending;
+    copy.refused = refused;
+    copy.stopped = stopped;
+    if (heads != null) {
+      copy.heads = new Event[LEVELS + 1][SLOTS];
+      copy.tails = new Event[LEVELS + 1][SLOTS];
+      for (var level = 0; level <= LEVELS; level++) {
+        for (var slot = 0; slot < SLOTS; slot++) {
+          for (var e = heads[level][slot]; e != null; e = e.next) {
+            var c = new Event(e.due, e.action);
+            if (copy.heads[level][slot] == null) {
+              copy.heads[level][slot] = c;
+            } else {
+              copy.tails[level][slot].next = c;
+            }
+            copy.tails[level][slot] = c;
+          }
+        }
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Pass each action still to come to fn with the number of turns until it's
+   * due, in the order they'll come due, e.g. to save them. Scheduling them
+   * again in that order on a clock at the same turn gets the same schedule.
+   */
+  public void forEach(ObjIntConsumer<Action> fn) {
+    if (pending == 0) return;
+    // Of the actions due on the same turn, the ones further up were scheduled
+    // before the ones lower down, since they are moved down before anything
+    // is scheduled straight into the lower slot, and each slot is in order.
+    var events = new ArrayList<Event>();
+    for (var level = LEVELS; level >= 0; level--) {
+      for (var slot = 0; slot < SLOTS; slot++) {
+        for (var e = heads[level][slot]; e != null; e = e.next) events.add(e);
+      }
+    }
+    events.sort(Comparator.comparingLong(e -> e.due));
+    for (var e : events) fn.accept(e.action, (int) (e.due - now));
+  }
+
+  /**
+   * Forget everything scheduled.
+   */
+  public void clear() {
+    heads = tails = null;
+    pending = 0;
+  }
+
+  /**
+   * Forget everything scheduled and set the clock to the given turn, e.g.
+   * when restoring a saved game.
+   */
+  public void reset(long turn) {
+    clear();
+    now = turn;
+  }
+
+  /**
+   * Refuse anything scheduled from now on with an IllegalStateException saying
+   * why. If stop is true the clock stops too and tick() never has anything due.
+   */
+  public void refuse(String why, boolean stop) {
+    refused = why;
+    stopped = stop;
+  }
+
+  // Move the events in the slots of the higher wheels starting now down to
+  // where they now belong, from the top down.
+  private void cascade() {
+    for (var level = LEVELS; level > 0; level--) {
+      if ((now & ((1L << (BITS * level)) - 1)) == 0) {
+        var slot = level == LEVELS ? 0 : (int) (now >>> (BITS * level)) & MASK;
+        var e = heads[level][slot];
+        heads[level][slot] = tails[level][slot] = null;
+        while (e != null) {
+          var next = e.next;
+          e.next = null;
+          place(e);
+          e = next;
+        }
+      }
+    }
+  }
+
+  // The lowest wheel whose span around now includes the event's turn.
+  private void place(Event e) {
+    var level = 0;
+    while (level < LEVELS && (e.due >>> (BITS * (level + 1))) != (now >>> (BITS * (level + 1)))) level++;
+    var slot = level == LEVELS ? 0 : (int) (e.due >>> (BITS * level)) & MASK;
+    if (heads[level][slot] == null) {
+      heads[level][slot] = e;
+    } else {
+      tails[level][slot].next = e;
+    }
+    tails[level][slot] = e;
+  }
+}
@@ -0,0 +1,426 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Telnet-style TCP front end. Each connection plays a Game: lines typed at the
+ * other end are sent to it and its output is written back. Connections are
+ * spread over a few event loops, normally one per core, each a thread with its
+ * own Selector, so an idle connection costs its channel, a selection key, and
+ * a small Connection plus whatever its game costs, but no thread or buffers
+ * of its own.
+ *
+ * Input is read into a direct buffer shared by all the connections on a loop
+ * and split into lines as it arrives. Only the start of a line that hasn't all
+ * arrived yet is copied out and kept with its connection. Bytes are taken as
+ * Latin-1, a carriage return before the newline is dropped, and anything past
+ * MAX_LINE bytes in one line is thrown away.
+ *
+ * The game's thread writes its output into a queue of chunks on the
+ * connection and the loop writes everything queued, in one gathering write,
+ * whenever the channel will take it. When a client doesn't read its output the
+ * queue grows, and once HIGH_WATER bytes are waiting the loop stops reading
+ * from that connection, so it can't send more commands, and the game blocks
+ * the next time it writes until the queue is back down to LOW_WATER. A slow
+ * client slows down its own game and holds on to a bounded amount of memory.
+ */
+public class Server implements AutoCloseable {
+
+  public static final int MAX_LINE = Dungeon.MAX_LINE;
+  public static final int HIGH_WATER = 64 * 1024;
+  public static final int LOW_WATER = 16 * 1024;
+
+  private static final int READ_BUFFER = 64 * 1024;
+
+  // Most chunks written in one gathering write.
+  private static final int GATHER = 64;
+
+  private final ServerSocketChannel channel;
+  private final Function<OutputStream, Game> games;
+  private final Loop[] loops;
+  private final Thread acceptor;
+  private final AtomicInteger connections = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  /**
+   * Serve games made by games on address with the given number of loops.
+   */
+  public Server(InetSocketAddress address, Function<OutputStream, Game> games, int loops) throws IOException {
+    this.channel = ServerSocketChannel.open().bind(address, 1024);
+    this.games = games;
+    this.loops = new Loop[loops];
+    for (var i = 0; i < loops; i++) this.loops[i] = new Loop(i);
+    this.acceptor = Thread.ofPlatform().name("dungeon-accept").start(this::accept);
+  }
+
+  public Server(int port, Function<OutputStream, Game> games) throws IOException {
+    this(new InetSocketAddress(port), games, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * The port the server is listening on, e.g. when it was asked for port 0.
+   */
+  public int port() {
+    return ((InetSocketAddress) channel.socket().getLocalSocketAddress()).getPort();
+  }
+
+  /**
+   * Number of open connections.
+   */
+  public int connections() {
+    return connections.get();
+  }
+
+  /**
+   * Stop accepting connections and close the ones there are, ending their
+   * games.
+   */
+  public void close() {
+    closed = true;
+    try {
+      channel.close();
+      acceptor.join();
+      for (var loop : loops) {
+        loop.selector.wakeup();
+        loop.thread.join();
+      }
+    } catch (IOException ioe) {
+      // Closing anyway.
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Hand out new connections to the loops in turn.
+  private void accept() {
+    var next = 0;
+    while (!closed) {
+      try {
+        var socket = channel.accept();
+        socket.configureBlocking(false);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        var loop = loops[next++ % loops.length];
+        loop.execute(() -> loop.connect(socket));
+      } catch (ClosedChannelException cce) {
+        return;
+      } catch (IOException ioe) {
+        // Lost that one before we got to it.
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Event loops
+
+  private class Loop {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER);
+
+    // Work for the loop's thread from other threads: new connections and
+    // connections with output to write.
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    Loop(int n) throws IOException {
+      this.selector = Selector.open();
+      this.thread = Thread.ofPlatform().name("dungeon-loop-" + n).start(this::run);
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    private void run() {
+      try {
+        while (!closed) {
+          selector.select();
+          for (Runnable t; (t = tasks.poll()) != null;) t.run();
+          for (var key : selector.selectedKeys()) {
+            var c = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isWritable()) c.drain();
+              if (key.isValid() && key.isReadable()) c.read();
+            } catch (IOException ioe) {
+              c.disconnect();
+            }
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException ioe) {
+        // Selector broke; fall through and drop everything.
+      } finally {
+        for (var key : new ArrayList<>(selector.keys())) ((Connection) key.attachment()).disconnect();
+        try {
+          selector.close();
+        } catch (IOException ioe) {
+          // Done with it anyway.
+        }
+      }
+    }
+
+    private void connect(SocketChannel socket) {
+      try {
+        var c = new Connection(this, socket);
+        c.key = socket.register(selector, SelectionKey.OP_READ, c);
+        connections.incrementAndGet();
+        c.game = games.apply(c);
+      } catch (IOException ioe) {
+        try {
+          socket.close();
+        } catch (IOException ignore) {
+          // Never really had it.
+        }
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Connections
+
+  /**
+   * One client. Also the output stream its game writes to, which is the only
+   * part used by any thread but the loop's.
+   */
+  private class Connection extends OutputStream {
+
+    private final Loop loop;
+    private final SocketChannel socket;
+    private SelectionKey key;
+    private Game game;
+
+    // The start of a line that hasn't finished arriving.
+    private byte[] partial;
+    private int partialLength = 0;
+
+    // Output waiting to be written and how many bytes of it there are, made
+    // when there is some. Guarded by lock since the game adds to it.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private ArrayDeque<ByteBuffer> queued;
+    private int backlog = 0;
+
+    // Whether the loop has been asked to drain the output, the game has closed
+    // its output, and the client has gone. Guarded by lock.
+    private boolean draining = false;
+    private boolean ended = false;
+    private boolean gone = false;
+
+    Connection(Loop loop, SocketChannel socket) {
+      this.loop = loop;
+      this.socket = socket;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////
+    // Input, on the loop's thread.
+
+    void read() throws IOException {
+      var in = loop.in;
+      in.clear();
+      var n = socket.read(in);
+      if (n < 0) {
+        disconnect();
+        return;
+      }
+      var start = 0;
+      for (var i = 0; i < n; i++) {
+        if (in.get(i) == '\n') {
+          line(in, start, i);
+          start = i + 1;
+        }
+      }
+      keep(in, start, n);
+    }
+
+    // A line ends at end in the buffer and starts at start or, if some of it
+    // came in earlier, in partial.
+    private void line(ByteBuffer in, int start, int end) {
+      var n = Math.min(end - start, MAX_LINE - partialLength);
+      var bytes = new byte[partialLength + n];
+      if (partialLength > 0) System.arraycopy(partial, 0, bytes, 0, partialLength);
+      in.get(start, bytes, partialLength, n);
+      partial = null;
+      partialLength = 0;
+
+      var length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+      game.send(new String(bytes, 0, length, StandardCharsets.ISO_8859_1));
+    }
+
+    private void keep(ByteBuffer in, int start, int end) {
+      var n = Math.min(end - start, MAX_LINE - partialLength);
+      if (n == 0) return;
+      if (partial == null) {
+        partial = new byte[Math.max(n, 64)];
+      } else if (partialLength + n > partial.length) {
+        partial = Arrays.copyOf(partial, Math.min(MAX_LINE, Math.max(partialLength + n, partial.length * 2)));
+      }
+      in.get(start, partial, partialLength, n);
+      partialLength += n;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////
+    // Output, written by the game and drained by the loop.
+
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      lock.lock();
+      try {
+        while (backlog >= HIGH_WATER && !gone) drained.awaitUninterruptibly();
+        if (gone) throw new IOException("Connection closed.");
+        if (queued == null) queued = new ArrayDeque<>(4);
+        queued.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        backlog += len;
+        wantDrain();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * The game is over: close the connection once its output is written.
+     */
+    public void close() {
+      lock.lock();
+      try {
+        ended = true;
+        wantDrain();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // Ask the loop to write out the output unless it already has been. Output
+    // written before it gets to it goes out along with this.
+    private void wantDrain() {
+      if (!draining && !gone) {
+        draining = true;
+        loop.execute(this::drainQuietly);
+      }
+    }
+
+    private void drainQuietly() {
+      try {
+        drain();
+      } catch (IOException ioe) {
+        disconnect();
+      }
+    }
+
+    /**
+     * Write as much of the queued output as the socket will take, on the
+     * loop's thread, and read from the client or not depending on how much is
+     * left.
+     */
+    void drain() throws IOException {
+      lock.lock();
+      try {
+        draining = false;
+        if (gone) return;
+        while (queued != null && !queued.isEmpty()) {
+          var chunks = queued.stream().limit(GATHER).toArray(ByteBuffer[]::new);
+          var written = socket.write(chunks);
+          backlog -= (int) written; // No more than backlog, so fits.
+          while (!queued.isEmpty() && !queued.peek().hasRemaining()) queued.poll();
+          if (written == 0) break;
+        }
+        if (backlog <= LOW_WATER) drained.signalAll();
+
+        if (backlog == 0) {
+          queued = null;
+          if (ended) {
+            disconnect();
+            return;
+          }
+        }
+        var ops = backlog == 0 ? 0 : SelectionKey.OP_WRITE;
+        if (backlog < HIGH_WATER) ops |= SelectionKey.OP_READ;
+        if (key.interestOps() != ops) key.interestOps(ops);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Drop the connection and end its game, on the loop's thread.
+     */
+    void disconnect() {
+      lock.lock();
+      try {
+        if (gone) return;
+        gone = true;
+        queued = null;
+        backlog = 0;
+        drained.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      connections.decrementAndGet();
+      key.cancel();
+      try {
+        socket.close();
+      } catch (IOException ioe) {
+        // Gone either way.
+      }
+      if (game != null) game.close();
+    }
+
+    /**
+     * Bytes written by the game and not yet taken by the socket.
+     */
+    int backlog() {
+      lock.lock();
+      try {
+        return backlog;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * The most output waiting to be written to any one connection. Only
+   * meaningful while nothing is connecting or disconnecting.
+   */
+  int maxBacklog() {
+    var max = 0;
+    for (var loop : loops) {
+      for (var key : loop.selector.keys()) max = Math.max(max, ((Connection) key.attachment()).backlog());
+    }
+    return max;
+  }
+
+  /**
+   * Serve the game on a port, each connection with its own game or, given
+   * SHARED, all in one world. Usage: Server [port] [shared].
+   */
+  public static void main(String[] args) throws IOException {
+    var port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+    var shared = args.length > 1 && args[1].equalsIgnoreCase("shared");
+    Function<OutputStream, Game> games = shared ? new Realm()::join : new SessionHost()::create;
+    var server = new Server(port, games);
+    System.out.println("Serving " + (shared ? "one shared game" : "games") + " on port " + server.port() + ".");
+  }
+}
@@ -0,0 +1,235 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Loopback load test for Server, with the clients in the same JVM. Measures
+ * the heap each idle connection costs, next to what a bare pair of connected
+ * sockets costs, then the latency of commands from some of the connections
+ * playing at once, and finally checks that a client that sends a flood of
+ * commands without reading the output is held at the high-water mark and
+ * still gets every response once it starts reading.
+ *
+ * Usage: ServerBench [connections] [active] [commands-per-active] [loops]
+ */
+public class ServerBench {
+
+  private static final String[] script = { "look", "go east", "go east", "go west", "go west", "inventory" };
+
+  /**
+   * One client connection, driven by the bench's selector. Counts prompts to
+   * know when a command has finished.
+   */
+  private static class Client {
+
+    final SocketChannel channel;
+    int prompts = 0;
+    int previous = 0;
+    int sent = 0;
+    long sentAt;
+
+    Client(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    // Read what's there, returning the number of new prompts.
+    int read(ByteBuffer buffer) throws IOException {
+      buffer.clear();
+      var n = channel.read(buffer);
+      var found = 0;
+      for (var i = 0; i < n; i++) {
+        var b = buffer.get(i);
+        if (previous == '>' && b == ' ') found++;
+        previous = b;
+      }
+      prompts += found;
+      return found;
+    }
+
+    void send(String line) throws IOException {
+      var bytes = ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      while (bytes.hasRemaining()) channel.write(bytes);
+      sent++;
+      sentAt = System.nanoTime();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    var connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    var active = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    var commands = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+    var loops = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+    var loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    var bare = barePairs(loopback, connections);
+    System.out.println(String.format("bare socket pair: %,d bytes", bare));
+
+    var host = new SessionHost();
+    try (var server = new Server(loopback, host::create, loops); var selector = Selector.open()) {
+      var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+      var buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+      // Idle connections.
+      var before = used();
+      var clients = new ArrayList<Client>();
+      for (var i = 0; i < connections; i++) clients.add(connect(address, selector));
+      pump(selector, buffer, clients, c -> c.prompts < 1, null);
+      var after = used();
+      System.out.println(
+        String.format(
+          "%,d idle connections: %,d bytes each (%,d more than a bare pair), %,d open",
+          connections,
+          (after - before) / connections,
+          (after - before) / connections - bare,
+          server.connections()
+        )
+      );
+
+      // Some of them playing.
+      var playing = clients.subList(0, Math.min(active, clients.size()));
+      var latencies = new long[playing.size() * commands];
+      var count = new int[1];
+      var start = System.nanoTime();
+      for (var c : playing) c.send(script[0]);
+      pump(
+        selector,
+        buffer,
+        playing,
+        c -> c.prompts <= commands,
+        c -> {
+          latencies[count[0]++] = System.nanoTime() - c.sentAt;
+          if (c.sent < commands) c.send(script[c.sent % script.length]);
+        }
+      );
+      var seconds = (System.nanoTime() - start) / 1e9;
+      Arrays.sort(latencies, 0, count[0]);
+      System.out.println(
+        String.format(
+          "%,d active: %,d commands in %.2f s, %,.0f commands/s, p50 %,d us, p99 %,d us, max %,d us",
+          playing.size(),
+          count[0],
+          seconds,
+          count[0] / seconds,
+          latencies[count[0] / 2] / 1000,
+          latencies[(int) (count[0] * 0.99)] / 1000,
+          latencies[count[0] - 1] / 1000
+        )
+      );
+
+      slowReader(server, address);
+    }
+    host.close();
+  }
+
+  // A client that sends lots of commands with big responses without reading
+  // any of them, then reads everything.
+  private static void slowReader(Server server, InetSocketAddress address) throws Exception {
+    var flood = 10000;
+    try (var channel = SocketChannel.open()) {
+      // A small window, as for a client far away, so the output backs up at
+      // the server rather than in loopback's generous socket buffers.
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+      channel.connect(address);
+      var client = new Client(channel);
+      var lines = new StringBuilder();
+      for (var i = 0; i < flood; i++) lines.append("help\n");
+      var bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.ISO_8859_1));
+      channel.configureBlocking(false);
+      for (var tries = 0; bytes.hasRemaining() && tries < 1000; tries++) {
+        channel.write(bytes);
+        Thread.sleep(1);
+      }
+      Thread.sleep(1000);
+      var held = server.maxBacklog();
+
+      channel.configureBlocking(true);
+      channel.write(bytes);
+      var buffer = ByteBuffer.allocate(64 * 1024);
+      while (client.prompts < flood + 1) client.read(buffer);
+      System.out.println(
+        String.format(
+          "slow reader: %,d commands, %,d bytes of output waiting while not reading (high water %,d), all %,d answered",
+          flood,
+          held,
+          Server.HIGH_WATER,
+          client.prompts - 1
+        )
+      );
+    }
+  }
+
+  private static Client connect(InetSocketAddress address, Selector selector) throws IOException {
+    var channel = SocketChannel.open(address);
+    channel.configureBlocking(false);
+    var client = new Client(channel);
+    channel.register(selector, SelectionKey.OP_READ, client);
+    return client;
+  }
+
+  private interface Step {
+    void accept(Client c) throws IOException;
+  }
+
+  // Read from the clients until none of them is waiting, calling prompted for
+  // each prompt a waiting client gets.
+  private static void pump(
+    Selector selector,
+    ByteBuffer buffer,
+    List<Client> clients,
+    Predicate<Client> waiting,
+    Step prompted
+  ) throws IOException {
+    var left = (int) clients.stream().filter(waiting).count();
+    while (left > 0) {
+      selector.select();
+      for (var key : selector.selectedKeys()) {
+        var c = (Client) key.attachment();
+        if (!waiting.test(c)) {
+          c.read(buffer);
+          continue;
+        }
+        for (var n = c.read(buffer); n > 0; n--) {
+          if (prompted != null && c.prompts > 1) prompted.accept(c);
+        }
+        if (!waiting.test(c)) left--;
+      }
+      selector.selectedKeys().clear();
+    }
+  }
+
+  // Heap per pair of connected loopback sockets with nothing else attached.
+  private static long barePairs(InetSocketAddress loopback, int n) throws IOException {
+    try (var server = ServerSocketChannel.open().bind(loopback, n)) {
+      var before = used();
+      var sockets = new ArrayList<SocketChannel>();
+      for (var i = 0; i < n; i++) {
+        sockets.add(SocketChannel.open(server.getLocalAddress()));
+        var accepted = server.accept();
+        accepted.configureBlocking(false);
+        sockets.add(accepted);
+      }
+      var after = used();
+      for (var s : sockets) s.close();
+      return (after - before) / n;
+    }
+  }
+
+  private static long used() {
+    var rt = Runtime.getRuntime();
+    for (var i = 0; i < 3; i++) System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,162 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency benchmark for SessionHost. For each session count it
+ * starts that many games, measures how much heap the idle sessions take, and
+ * then has every session play the same loop of commands at once, timing each
+ * command from the moment it is sent until the next prompt comes back.
+ *
+ * Usage: SessionBench [commands-per-session] [session-count ...]
+ */
+public class SessionBench {
+
+  private static final String[] script = { "look", "go east", "go east", "go west", "go west", "inventory" };
+
+  /**
+   * Output sink that throws away the text but counts bytes and notices each
+   * prompt so a driver can wait for a command to finish.
+   */
+  private static class Prompts extends OutputStream {
+
+    private final Semaphore prompts = new Semaphore(0);
+    private final AtomicLong bytes;
+    private int previous;
+
+    Prompts(AtomicLong bytes) {
+      this.bytes = bytes;
+    }
+
+    public void write(int b) {
+      if (previous == '>' && b == ' ') prompts.release();
+      previous = b;
+    }
+
+    public void write(byte[] b, int off, int len) {
+      for (var i = off; i < off + len; i++) write(b[i]);
+      bytes.addAndGet(len);
+    }
+
+    void await() throws InterruptedException {
+      prompts.acquire();
+    }
+  }
+
+  private static record Result(
+    int sessions,
+    long bytesPerSession,
+    double seconds,
+    long commands,
+    long outputBytes,
+    long[] latencies
+  ) {
+    long percentile(double p) {
+      return latencies[Math.min(latencies.length - 1, (int) (latencies.length * p))];
+    }
+
+    public String toString() {
+      return String.format(
+        "%,9d %,10d %,12d %,12.0f %,9d %,9d %,9d %,9d %,9d",
+        sessions,
+        bytesPerSession,
+        (1L << 30) / Math.max(1, bytesPerSession),
+        commands / seconds,
+        outputBytes / commands,
+        percentile(0.50) / 1000,
+        percentile(0.99) / 1000,
+        percentile(0.999) / 1000,
+        latencies[latencies.length - 1] / 1000
+      );
+    }
+  }
+
+  private static long usedHeap() {
+    var rt = Runtime.getRuntime();
+    for (var i = 0; i < 3; i++) System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static Result run(int count, int commands) throws InterruptedException {
+    var outputBytes = new AtomicLong();
+    var before = usedHeap();
+
+    try (var host = new SessionHost()) {
+      var sessions = new ArrayList<SessionHost.Session>(count);
+      var prompts = new ArrayList<Prompts>(count);
+      for (var i = 0; i < count; i++) {
+        var p = new Prompts(outputBytes);
+        prompts.add(p);
+        sessions.add(host.create(p));
+      }
+      for (var p : prompts) p.await();
+
+      var perSession = (usedHeap() - before) / count;
+
+      var latencies = new long[count][commands];
+      var drivers = new ArrayList<Thread>(count);
+      var start = System.nanoTime();
+      for (var i = 0; i < count; i++) {
+        var session = sessions.get(i);
+        var p = prompts.get(i);
+        var lats = latencies[i];
+        drivers.add(
+          Thread.ofVirtual().start(() -> {
+            try {
+              for (var c = 0; c < commands; c++) {
+                var t0 = System.nanoTime();
+                session.send(script[c % script.length]);
+                p.await();
+                lats[c] = System.nanoTime() - t0;
+              }
+            } catch (InterruptedException ie) {
+              Thread.currentThread().interrupt();
+            }
+          })
+        );
+      }
+      for (var d : drivers) d.join();
+      var seconds = (System.nanoTime() - start) / 1e9;
+
+      var all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+      return new Result(count, perSession, seconds, (long) count * commands, outputBytes.get(), all);
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    var commands = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+    var counts = new ArrayList<Integer>();
+    for (var i = 1; i < args.length; i++) counts.add(Integer.parseInt(args[i]));
+    if (counts.isEmpty()) counts.addAll(List.of(100, 1_000, 5_000, 10_000));
+
+    // Warm up the JIT so the first row isn't mostly measuring the interpreter.
+    run(100, commands);
+
+    System.out.println(
+      String.format(
+        "%9s %10s %12s %12s %9s %9s %9s %9s %9s",
+        "sessions",
+        "bytes/sess",
+        "sessions/GB",
+        "commands/s",
+        "out/cmd",
+        "p50 us",
+        "p99 us",
+        "p99.9 us",
+        "max us"
+      )
+    );
+    for (var count : counts) {
+      System.out.println(run(count, commands));
+    }
+
+    // Includes the warm up.
+    System.out.println();
+    System.out.print(Metrics.GLOBAL.dump());
+  }
+}
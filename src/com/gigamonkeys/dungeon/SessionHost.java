@@ -0,0 +1,393 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Hosts many independent games in one JVM. The maze is built once and each
+ * session gets its own overlay of that world (see World.fork), which only
+ * holds what the player has changed, plus its own Player and Dungeon, and
+ * runs on its own virtual thread, which spends almost all of its life parked
+ * waiting for the next line of input. The host keeps a registry of the live
+ * sessions so they can be looked up by id and closed.
+ *
+ * A host can also keep its sessions in a directory so they survive the host
+ * stopping or crashing. Every command is written to a Journal shared by all
+ * the sessions before it is run and every so often each session is saved in
+ * a Snapshot, after which the journal only needs the commands since. Commands
+ * that wouldn't do the same thing run again, like undo, aren't journaled; the
+ * session is saved right after them instead. A new
+ * host on the same directory rebuilds each game that hadn't ended from its
+ * last snapshot and the commands after it and then starts a fresh journal. A
+ * game whose snapshot can't be restored is ended, with a message to its
+ * output, and forgotten.
+ *
+ * Making a host registers the game's Metrics with JMX.
+ */
+public class SessionHost implements AutoCloseable {
+
+  public static final Duration LINGER = Duration.ofMillis(2);
+  public static final int CHECKPOINT_EVERY = 256;
+
+  private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong();
+  private final int hitPoints;
+
+  // The maze, built once in a world each session plays in an overlay of.
+  private final World base;
+  private final Room start;
+
+  // Where sessions are kept and the journal of what they've done. Both null
+  // if the sessions are not kept.
+  private final Path directory;
+  private final Journal journal;
+
+  public SessionHost(Supplier<Room> maze, int hitPoints) {
+    this.base = new World();
+    this.start = World.using(base, maze);
+    this.hitPoints = hitPoints;
+    this.directory = null;
+    this.journal = null;
+    Metrics.GLOBAL.register();
+  }
+
+  public SessionHost() {
+    this(() -> new Maze().build(), 20);
+  }
+
+  /**
+   * Host whose sessions are kept in directory, starting with any recovered
+   * from it. A recovered session's output goes to the stream outputs returns
+   * for its id. The maze must be built the same way it was by the host that
+   * wrote the directory since snapshots only hold state.
+   */
+  public SessionHost(Supplier<Room> maze, int hitPoints, Path directory, LongFunction<OutputStream> outputs)
+    throws IOException {
+    this.base = new World();
+    this.start = World.using(base, maze);
+    this.hitPoints = hitPoints;
+    this.directory = Files.createDirectories(directory);
+    Metrics.GLOBAL.register();
+
+    var recoverable = recoverable();
+    var recovered = new ArrayList<Session>();
+    for (var r : recoverable.values()) {
+      nextId.accumulateAndGet(r.id, Math::max);
+      var session = newSession(r.id, outputs.apply(r.id));
+      try {
+        World.using(session.player.world(), () -> recover(session, r));
+      } catch (UncheckedIOException uioe) {
+        // Lose this game, since there's nothing to replay its commands onto,
+        // rather than every game on the host.
+        session.dungeon.end("Couldn't recover your game: " + uioe.getCause().getMessage());
+        continue;
+      }
+      if (!session.dungeon.gameOver()) {
+        session.commands = Math.max(r.checkpoint, 0) + r.commands.size();
+        recovered.add(session);
+      }
+    }
+
+    // Start the new journal with a checkpoint of each recovered session so the
+    // old journal isn't needed once this one replaces it. A session with
+    // actions scheduled that can't be saved keeps its old snapshot and its
+    // commands since are copied into the new journal.
+    var file = directory.resolve("journal");
+    var fresh = directory.resolve("journal.new");
+    this.journal = new Journal(fresh, LINGER);
+    var live = new HashSet<Path>();
+    for (var session : recovered) {
+      var r = recoverable.get(session.id);
+      if (Snapshot.savable(session.player.world())) {
+        Snapshot.save(session.player, snapshot(session.id, session.commands));
+        journal.checkpoint(session.id, session.commands);
+        session.checkpoint = session.commands;
+      } else {
+        if (r.checkpoint >= 0) journal.checkpoint(session.id, r.checkpoint);
+        for (var tokens : r.commands) journal.command(session.id, tokens);
+        session.checkpoint = r.checkpoint;
+      }
+      if (session.checkpoint >= 0) live.add(snapshot(session.id, session.checkpoint));
+    }
+    Files.move(fresh, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    try (var dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+    try (var old = Files.newDirectoryStream(directory, "session-*")) {
+      for (var path : old) {
+        if (!live.contains(path)) Files.delete(path);
+      }
+    }
+
+    for (var session : recovered) start(session);
+  }
+
+  /**
+   * Start a new game whose output goes to the given stream.
+   */
+  public Session create(OutputStream out) {
+    return start(newSession(nextId.incrementAndGet(), out));
+  }
+
+  private Session newSession(long id, OutputStream out) {
+    return World.using(
+      base.fork(),
+      () -> {
+        var player = new Player(start, hitPoints);
+        return new Session(id, player, new Dungeon(player, out));
+      }
+    );
+  }
+
+  // Bring a session back to where the journal says it got to.
+  private void recover(Session session, Recoverable r) {
+    try {
+      if (r.checkpoint >= 0) Snapshot.restore(session.player, snapshot(r.id, r.checkpoint));
+    } catch (IOException ioe) {
+      throw new UncheckedIOException(ioe);
+    }
+    for (var tokens : r.commands) {
+      if (session.dungeon.gameOver()) break;
+      session.dungeon.replay(tokens);
+    }
+  }
+
+  private Session start(Session session) {
+    if (journal != null) {
+      session.dungeon.journal(
+        tokens -> {
+          if (!session.stale) journal.command(session.id, tokens);
+          session.commands++;
+        },
+        () -> {
+          session.commands++;
+          session.stale = true;
+        }
+      );
+    }
+    sessions.put(session.id, session);
+    session.thread.start();
+    return session;
+  }
+
+  public Optional<Session> session(long id) {
+    return Optional.ofNullable(sessions.get(id));
+  }
+
+  public Collection<Session> sessions() {
+    return sessions.values();
+  }
+
+  public int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Close the given session if it is still running.
+   */
+  public boolean close(long id) {
+    var session = sessions.get(id);
+    if (session != null) session.close();
+    return session != null;
+  }
+
+  /**
+   * Stop all the sessions. If they are being kept they aren't over, just
+   * stopped until a new host recovers them.
+   */
+  public void close() {
+    var stopping = List.copyOf(sessions.values());
+    stopping.forEach(journal != null ? Session::stop : Session::close);
+    if (journal != null) {
+      try {
+        for (var s : stopping) s.join();
+        journal.close();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Recovery
+
+  // What the journal says about a session: the number of its last snapshot,
+  // or -1 if it doesn't have one, and the commands since.
+  private static class Recoverable {
+
+    final long id;
+    long checkpoint = -1;
+    final List<String[]> commands = new ArrayList<>();
+
+    Recoverable(long id) {
+      this.id = id;
+    }
+  }
+
+  private Map<Long, Recoverable> recoverable() throws IOException {
+    var found = new LinkedHashMap<Long, Recoverable>();
+    Journal.read(
+      directory.resolve("journal"),
+      e -> {
+        var r = found.computeIfAbsent(e.session(), Recoverable::new);
+        switch (e.type()) {
+          case Journal.COMMAND -> r.commands.add(e.tokens());
+          case Journal.CHECKPOINT -> {
+            r.checkpoint = e.number();
+            r.commands.clear();
+          }
+          case Journal.CLOSE -> found.remove(e.session());
+          default -> {}
+        }
+      }
+    );
+    return found;
+  }
+
+  private Path snapshot(long id, long number) {
+    return directory.resolve("session-" + id + "-" + number + ".sav");
+  }
+
+  /**
+   * One game. Input is queued by whoever is talking to the player and consumed
+   * by the session's own thread so callers never block on the game.
+   */
+  public class Session implements Game {
+
+    // Put at the front of the input to stop the session's thread once it has
+    // finished the command it's on. Interrupting it instead could land in the
+    // middle of writing a checkpoint. Compared by identity.
+    private static final String STOP = new String("stop");
+
+    private final long id;
+    private final Player player;
+    private final Dungeon dungeon;
+    private final BlockingDeque<String> input = new LinkedBlockingDeque<>();
+    private final Thread thread;
+
+    // Commands run and the number of the snapshot the journal goes on from.
+    // Stale when a command that can't be journaled, like undo, has been run
+    // since, after which nothing more is journaled until the next snapshot.
+    // Only touched by the session's thread once it has started.
+    private long commands = 0;
+    private long checkpoint = -1;
+    private boolean stale = false;
+    private volatile boolean ended = false;
+
+    private Session(long id, Player player, Dungeon dungeon) {
+      this.id = id;
+      this.player = player;
+      this.dungeon = dungeon;
+      this.thread = Thread.ofVirtual().name("dungeon-session-" + id).unstarted(this::run);
+    }
+
+    public long id() {
+      return id;
+    }
+
+    /**
+     * Queue a line of input for the game.
+     */
+    public void send(String line) {
+      input.add(line);
+    }
+
+    public boolean running() {
+      return thread.isAlive();
+    }
+
+    /**
+     * End the game. Any input not yet processed is dropped.
+     */
+    public void close() {
+      ended = true;
+      input.addFirst(STOP);
+    }
+
+    // Stop the thread without ending the game.
+    private void stop() {
+      input.addFirst(STOP);
+    }
+
+    /**
+     * Wait for the session's thread to finish.
+     */
+    public void join() throws InterruptedException {
+      thread.join();
+    }
+
+    private void run() {
+      World.using(player.world(), this::play);
+    }
+
+    private void play() {
+      try {
+        dungeon.start();
+        while (!dungeon.gameOver()) {
+          var line = input.take();
+          if (line == STOP) break;
+          dungeon.command(line);
+          if (journal != null && (stale || commands - Math.max(checkpoint, 0) >= CHECKPOINT_EVERY)) checkpoint();
+        }
+      } catch (InterruptedException ie) {
+        // Nothing more to do.
+      } finally {
+        sessions.remove(id, this);
+        if (journal != null && (ended || dungeon.gameOver())) end();
+        dungeon.close();
+      }
+    }
+
+    /**
+     * Save the game so recovery can start from here instead of replaying all
+     * the commands so far. While an action that a snapshot can't hold is
+     * scheduled this waits for the next command, since the journal still has
+     * everything since the last checkpoint. A stale session isn't being
+     * journaled so it can't wait. Failing to save ends the session, which can
+     * then be recovered from the last checkpoint.
+     */
+    private void checkpoint() {
+      if (!stale && !Snapshot.savable(player.world())) return;
+      try {
+        Snapshot.save(player, snapshot(id, commands));
+        journal.checkpoint(id, commands);
+        if (checkpoint >= 0) Files.deleteIfExists(snapshot(id, checkpoint));
+        checkpoint = commands;
+        stale = false;
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+
+    private void end() {
+      journal.ended(id);
+      try {
+        if (checkpoint >= 0) Files.deleteIfExists(snapshot(id, checkpoint));
+      } catch (IOException ioe) {
+        // Cleaned up when the next host starts.
+      }
+    }
+  }
+}
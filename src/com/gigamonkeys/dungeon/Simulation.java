@@ -0,0 +1,277 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Headless Monte Carlo games for balancing monsters' hit points and weapons'
+ * damage. Plays lots of games against fresh copies of the Maze in parallel,
+ * each in its own World with its own random number generator, seeded from
+ * the seed and the game's number, driving a Policy that picks the player's
+ * actions. Then reports how often players died in each room, how many attacks
+ * it took to kill each monster, and how often each weapon was used.
+ *
+ * Actions go straight from the Policy to the same turn Command.Turn runs,
+ * skipping command parsing, and are applied rather than described (see
+ * Action.apply) so nothing is wrapped or printed.
+ *
+ * Usage: Simulation [games] [random|fighter] [seed] [max-turns] [hit-points]
+ */
+public class Simulation {
+
+  /**
+   * Picks the player's next action, or null to end the game.
+   */
+  public static interface Policy {
+    public Action choose(Player player, SplittableRandom random);
+  }
+
+  /**
+   * Any of the possible actions, all equally likely.
+   */
+  public static final Policy RANDOM = (player, random) -> {
+    var moves = moves(player);
+    return moves.isEmpty() ? null : moves.get(random.nextInt(moves.size()));
+  };
+
+  /**
+   * Attack any live monster in the room with the best weapon at hand and
+   * otherwise pick up any weapon lying around or do something at random.
+   */
+  public static final Policy FIGHTER = (player, random) -> {
+    var room = player.room();
+    var monster = room.allThings().filter(t -> t.isMonster() && t.alive()).findFirst();
+    var weapon = weapons(player).max(Comparator.comparingInt(w -> w.attack().damage()));
+    if (monster.isPresent() && weapon.isPresent()) {
+      return new Action.Attack(monster.get(), weapon.get());
+    }
+    var lying = room.allThings().filter(t -> t instanceof Thing.Weapon && t.canBeTaken()).findFirst();
+    if (lying.isPresent()) {
+      return new Action.Take(player, List.of(lying.get()));
+    }
+    return RANDOM.choose(player, random);
+  };
+
+  /**
+   * Everything the player could usefully do right now: go through a door, take
+   * something, attack a live monster with a weapon, or eat some food.
+   */
+  public static List<Action> moves(Player player) {
+    var room = player.room();
+    var moves = new ArrayList<Action>();
+    for (var d : Direction.values()) {
+      room.door(d).ifPresent(door -> moves.add(new Action.Go(player, door)));
+    }
+    room.allThings().filter(Thing::canBeTaken).forEach(t -> moves.add(new Action.Take(player, List.of(t))));
+    room
+      .allThings()
+      .filter(t -> t.isMonster() && t.alive())
+      .forEach(m -> weapons(player).forEach(w -> moves.add(new Action.Attack(m, w))));
+    player.things().stream().filter(t -> t instanceof Thing.Food).forEach(f -> moves.add(new Action.Eat(f)));
+    return moves;
+  }
+
+  private static Stream<Thing> weapons(Player player) {
+    return player.things().stream().filter(t -> t instanceof Thing.Weapon);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Statistics
+
+  private static final int BUCKETS = 64;
+
+  /**
+   * Totals over some number of games. Each thread fills in its own and they
+   * are merged at the end.
+   */
+  public static class Stats {
+
+    long games;
+    long turns;
+    long deaths;
+    final Map<String, Long> visits = new HashMap<>();
+    final Map<String, Long> deathsIn = new HashMap<>();
+    final Map<String, Long> weaponUses = new HashMap<>();
+
+    // For each monster, how many games it died in after n attacks, with the
+    // last bucket counting everything from there up.
+    final Map<String, long[]> attacksToKill = new HashMap<>();
+
+    void merge(Stats other) {
+      games += other.games;
+      turns += other.turns;
+      deaths += other.deaths;
+      other.visits.forEach((k, v) -> visits.merge(k, v, Long::sum));
+      other.deathsIn.forEach((k, v) -> deathsIn.merge(k, v, Long::sum));
+      other.weaponUses.forEach((k, v) -> weaponUses.merge(k, v, Long::sum));
+      other.attacksToKill.forEach((k, v) -> {
+        var mine = attacksToKill.computeIfAbsent(k, x -> new long[BUCKETS]);
+        for (var i = 0; i < BUCKETS; i++) mine[i] += v[i];
+      });
+    }
+
+    void killed(Thing monster, int attacks) {
+      attacksToKill.computeIfAbsent(monster.name(), k -> new long[BUCKETS])[Math.min(attacks, BUCKETS - 1)]++;
+    }
+
+    public String toString() {
+      var sb = new StringBuilder();
+      sb.append(String.format("%,d games, %,d turns, %.1f%% died.%n", games, turns, 100.0 * deaths / games));
+
+      sb.append(String.format("%n%-40s %12s %12s %8s%n", "Room", "visits", "deaths", "rate"));
+      visits
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.comparingByKey())
+        .forEach(e -> {
+          var d = deathsIn.getOrDefault(e.getKey(), 0L);
+          sb.append(String.format("%-40.40s %,12d %,12d %7.2f%%%n", e.getKey(), e.getValue(), d, 100.0 * d / e.getValue()));
+        });
+
+      sb.append(String.format("%n%-20s %12s %8s %6s %6s %6s%n", "Attacks to kill", "kills", "mean", "p50", "p90", "max"));
+      attacksToKill
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.comparingByKey())
+        .forEach(e -> {
+          var h = e.getValue();
+          var n = 0L;
+          var sum = 0L;
+          var max = 0;
+          for (var i = 0; i < BUCKETS; i++) {
+            n += h[i];
+            sum += i * h[i];
+            if (h[i] > 0) max = i;
+          }
+          sb.append(
+            String.format(
+              "%-20s %,12d %8.2f %6d %6d %5d%s%n",
+              e.getKey(),
+              n,
+              (double) sum / n,
+              percentile(h, n, 0.5),
+              percentile(h, n, 0.9),
+              max,
+              max == BUCKETS - 1 ? "+" : ""
+            )
+          );
+        });
+
+      sb.append(String.format("%n%-20s %12s %8s%n", "Weapon", "uses", "share"));
+      var uses = weaponUses.values().stream().mapToLong(Long::longValue).sum();
+      weaponUses
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+        .forEach(e -> sb.append(String.format("%-20s %,12d %7.2f%%%n", e.getKey(), e.getValue(), 100.0 * e.getValue() / uses)));
+
+      return sb.toString();
+    }
+
+    private static int percentile(long[] h, long n, double p) {
+      var target = (long) Math.ceil(n * p);
+      var seen = 0L;
+      for (var i = 0; i < BUCKETS; i++) {
+        seen += h[i];
+        if (seen >= target) return i;
+      }
+      return BUCKETS - 1;
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Playing
+
+  private final Policy policy;
+  private final long seed;
+  private final int maxTurns;
+  private final int hitPoints;
+
+  public Simulation(Policy policy, long seed, int maxTurns, int hitPoints) {
+    this.policy = policy;
+    this.seed = seed;
+    this.maxTurns = maxTurns;
+    this.hitPoints = hitPoints;
+  }
+
+  /**
+   * Play the given number of games in parallel and total up what happened.
+   */
+  public Stats run(long games) {
+    return LongStream.range(0, games).parallel().collect(Stats::new, this::play, Stats::merge);
+  }
+
+  /**
+   * Play game number n, adding what happened to stats.
+   */
+  void play(Stats stats, long n) {
+    World.using(
+      new World(),
+      () -> {
+        var random = new SplittableRandom(MazeGenerator.mix(seed, n));
+        var player = new Player(new Maze().build(), hitPoints);
+        var world = player.world();
+        var visited = new HashSet<Room>();
+        var attacks = new HashMap<Thing, Integer>();
+        visited.add(player.room());
+
+        var turn = 0;
+        while (turn < maxTurns && player.alive()) {
+          var action = policy.choose(player, random);
+          if (action == null) break;
+          turn++;
+
+          Thing victim = null;
+          if (action instanceof Action.Attack a) {
+            stats.weaponUses.merge(a.weapon().name(), 1L, Long::sum);
+            if (a.target() instanceof Thing m && m.isMonster() && m.alive()) {
+              victim = m;
+              attacks.merge(m, 1, Integer::sum);
+            }
+          }
+
+          var reactions = new Reactions();
+          action.apply();
+          reactions.run(action, player);
+          reactions.run(new Action.Turn(player), player);
+          reactions.run(world.scheduler().tick(), player);
+          reactions.run(Actors.tick(player), player);
+
+          if (victim != null && !victim.alive()) stats.killed(victim, attacks.get(victim));
+          visited.add(player.room());
+        }
+
+        stats.games++;
+        stats.turns += turn;
+        for (var r : visited) stats.visits.merge(world.description(r.id()), 1L, Long::sum);
+        if (!player.alive()) {
+          stats.deaths++;
+          stats.deathsIn.merge(world.description(player.room().id()), 1L, Long::sum);
+        }
+      }
+    );
+  }
+
+  public static void main(String[] args) {
+    var games = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+    var policy = args.length > 1 && args[1].equals("random") ? RANDOM : FIGHTER;
+    var seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+    var maxTurns = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    var hitPoints = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+    var simulation = new Simulation(policy, seed, maxTurns, hitPoints);
+    var start = System.nanoTime();
+    var stats = simulation.run(games);
+    var seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.print(stats);
+    System.out.printf("%n%.2f seconds, %,.0f games/s, %,.0f turns/s.%n", seconds, games / seconds, stats.turns / seconds);
+  }
+}
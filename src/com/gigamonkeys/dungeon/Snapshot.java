@@ -0,0 +1,546 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saving and restoring the state of a game in a compact binary file. The file
+ * holds the World's columns more or less as they are in memory, plus the
+ * doors between rooms, which room the player is in, and the clock and the
+ * actions scheduled on it, and is written and read sequentially through
+ * memory-mapped windows onto the file so even a very large world takes one
+ * pass over its arrays each way.
+ *
+ * A snapshot only holds state, not behavior: it is restored into a world
+ * built the same way as the one it was saved from (e.g. by the same Maze or a
+ * MazeGenerator with the same params) whose Things, Rooms, and Player then
+ * pick up the saved state. Restoring into some other world fails without
+ * changing anything if the numbers or names of the entities don't match, as
+ * does restoring a file that is truncated or has anything out of range.
+ *
+ * Scheduled actions are saved as the records they are, by class name and
+ * components, with any things or rooms in them saved as ids. So only actions
+ * that are records of locations, strings, numbers, booleans, and enums can be
+ * saved; see savable().
+ *
+ * Format, all little-endian: magic, version, entity count, the string table
+ * (count then length-prefixed UTF-8), the columns, the doors, the player, the
+ * turn, and the scheduled actions (count then turns to go, class, and
+ * components).
+ *
+ * The regions of a world loaded a region at a time are saved the same way,
+ * one file per region holding just the region's columns. See Regions.
+ */
+public class Snapshot {
+
+  private static final int MAGIC = 0x53474e44; // "DNGS"
+  private static final int REGION_MAGIC = 0x52474e44; // "DNGR"
+  private static final int VERSION = 2;
+  private static final int WINDOW = 16 << 20;
+
+  /**
+   * Save the world the player is in to path.
+   */
+  public static void save(Player player, Path path) throws IOException {
+    var world = player.world();
+    var n = world.size();
+    whole(world);
+    var scheduled = scheduled(world);
+
+    // Number every distinct string. Strings are mostly shared between
+    // entities so comparing by identity finds nearly all the duplicates
+    // without hashing every string.
+    var numbers = new IdentityHashMap<String, Integer>();
+    var strings = new ArrayList<String>();
+    world.strings(s -> number(s, numbers, strings));
+    var doors = doors(world);
+    for (var d : doors) number(d.description(), numbers, strings);
+    for (var a : scheduled) {
+      number(a.type(), numbers, strings);
+      for (var v : a.values()) if (v instanceof String str) number(str, numbers, strings);
+    }
+
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out = new Out(tmp)) {
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(n);
+
+      out.putInt(strings.size());
+      for (var s : strings) {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.putBytes(bytes);
+      }
+
+      world.write(out, s -> s == null ? -1 : numbers.get(s));
+
+      out.putInt(doors.size());
+      for (var d : doors) {
+        out.putInt(d.from().id());
+        out.putInt(d.direction().ordinal());
+        out.putInt(d.to().id());
+        out.putInt(numbers.get(d.description()));
+      }
+
+      out.putInt(player.id());
+      out.putInt(player.room().id());
+
+      out.putLong(world.scheduler().now());
+      out.putInt(scheduled.size());
+      for (var a : scheduled) {
+        out.putInt(a.turns());
+        out.putInt(numbers.get(a.type()));
+        for (var v : a.values()) write(out, v, numbers);
+      }
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Restore the world the player is in from the snapshot at path.
+   */
+  public static void restore(Player player, Path path) throws IOException {
+    var world = player.world();
+    whole(world);
+    try (var in = new In(path)) {
+      if (in.getInt() != MAGIC) throw new IOException(path + " is not a saved game.");
+      if (in.getInt() != VERSION) throw new IOException(path + " was saved by a different version.");
+      var n = in.getInt();
+      if (n != world.size()) throw new IOException(path + " was saved from a different world.");
+
+      var strings = strings(in);
+
+      // Check everything, reading the doors, the player's room, and the
+      // scheduled actions as we go, before changing anything since a failed
+      // restore would otherwise leave the world half restored.
+      in.mark();
+      world.check(in, strings);
+
+      var doors = new ArrayList<SavedDoor>();
+      for (var i = in.getInt(); i > 0; i--) {
+        var from = room(world, in.getInt());
+        var direction = direction(in.getInt());
+        var to = room(world, in.getInt());
+        doors.add(new SavedDoor(from, direction, to, string(strings, in.getInt())));
+      }
+
+      if (in.getInt() != player.id()) throw new IOException(path + " was saved by a different player.");
+      var room = room(world, in.getInt());
+
+      var turn = in.getLong();
+      if (turn < 0) throw In.corrupt();
+      var actions = new ArrayList<Action>();
+      var turns = new ArrayList<Integer>();
+      for (var i = in.getInt(); i > 0; i--) {
+        var t = in.getInt();
+        if (t < 1) throw In.corrupt();
+        turns.add(t);
+        actions.add(action(world, strings, in));
+      }
+
+      in.reset();
+      world.read(in, strings);
+
+      // Set each room's doors all at once so the ones that haven't changed
+      // aren't touched and an overlay keeps sharing its base's.
+      var byRoom = new HashMap<Room, Door[]>();
+      for (var d : doors) {
+        var door = new Door(d.description(), d.from(), d.to());
+        doorsOf(byRoom, d.from())[d.direction().ordinal()] = door;
+        doorsOf(byRoom, d.to())[d.direction().opposite().ordinal()] = door;
+      }
+      var none = new Door[Direction.values().length];
+      for (var id = 0; id < n; id++) {
+        if (world.view(id) instanceof Room r) r.restored(byRoom.getOrDefault(r, none));
+      }
+      world.scheduler().reset(turn);
+      for (var i = 0; i < actions.size(); i++) world.scheduler().schedule(turns.get(i), actions.get(i));
+      player.forget();
+      player.restored(room);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Regions
+
+  /**
+   * Save the entities with ids from base up to base + count to path.
+   */
+  static void saveRegion(World world, int base, int count, Path path) throws IOException {
+    var numbers = new IdentityHashMap<String, Integer>();
+    var strings = new ArrayList<String>();
+    world.strings(base, count, s -> number(s, numbers, strings));
+
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out = new Out(tmp)) {
+      out.putInt(REGION_MAGIC);
+      out.putInt(VERSION);
+      out.putInt(base);
+      out.putInt(count);
+
+      out.putInt(strings.size());
+      for (var s : strings) {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.putBytes(bytes);
+      }
+
+      world.write(out, base, count, s -> s == null ? -1 : numbers.get(s));
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Restore the entities with ids from base up to base + count from path.
+   */
+  static void restoreRegion(World world, int base, int count, Path path) throws IOException {
+    try (var in = new In(path)) {
+      if (in.getInt() != REGION_MAGIC) throw new IOException(path + " is not a saved region.");
+      if (in.getInt() != VERSION) throw new IOException(path + " was saved by a different version.");
+      if (in.getInt() != base || in.getInt() != count) throw new IOException(path + " was saved from a different world.");
+
+      var strings = strings(in);
+
+      in.mark();
+      world.check(in, base, count, strings);
+      in.reset();
+      world.read(in, base, count, strings);
+    }
+  }
+
+  // Only worlds that are all in memory, and that nobody else is playing in, can
+  // be saved whole.
+  private static void whole(World world) throws IOException {
+    if (world.paged()) {
+      throw new IOException("Can't snapshot a world loaded a region at a time. Its regions are saved as they're unloaded.");
+    }
+    if (world.realm() != null) {
+      throw new IOException("Can't snapshot a world shared with other players.");
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Scheduled actions
+
+  private static record Scheduled(int turns, String type, Object[] values) {}
+
+  /**
+   * Whether everything scheduled in the world can be saved.
+   */
+  static boolean savable(World world) {
+    var savable = new boolean[] { true };
+    world.scheduler().forEach((action, turns) -> savable[0] &= savable(action.getClass()));
+    return savable[0];
+  }
+
+  private static boolean savable(Class<?> type) {
+    if (!type.isRecord()) return false;
+    for (var c : type.getRecordComponents()) {
+      var t = c.getType();
+      var plain = t == String.class || t == int.class || t == long.class || t == boolean.class || t.isEnum();
+      if (!plain && !Location.class.isAssignableFrom(t)) return false;
+    }
+    return true;
+  }
+
+  // What's scheduled, in order, with each action taken apart into its components.
+  private static List<Scheduled> scheduled(World world) throws IOException {
+    if (!savable(world)) throw new IOException("Can't save while actions that can't be saved are scheduled.");
+    var scheduled = new ArrayList<Scheduled>();
+    world.scheduler().forEach((action, turns) -> {
+      var components = action.getClass().getRecordComponents();
+      var values = new Object[components.length];
+      for (var i = 0; i < components.length; i++) values[i] = value(components[i], action);
+      scheduled.add(new Scheduled(turns, action.getClass().getName(), values));
+    });
+    return scheduled;
+  }
+
+  private static Object value(RecordComponent component, Action action) {
+    try {
+      var accessor = component.getAccessor();
+      accessor.setAccessible(true);
+      return accessor.invoke(action);
+    } catch (ReflectiveOperationException roe) {
+      throw new IllegalStateException(roe);
+    }
+  }
+
+  private static void write(Out out, Object value, Map<String, Integer> numbers) throws IOException {
+    switch (value) {
+      case null -> out.putInt(-1);
+      case String s -> out.putInt(numbers.get(s));
+      case Integer i -> out.putInt(i);
+      case Long l -> out.putLong(l);
+      case Boolean b -> out.putInt(b ? 1 : 0);
+      case Enum<?> e -> out.putInt(e.ordinal());
+      case Location l -> out.putInt(l.id());
+      default -> throw new IOException("Can't save " + value.getClass().getName() + ".");
+    }
+  }
+
+  // Make a saved action again, checking each of its parts. Only records that
+  // are Actions are made, since the class name comes from the file.
+  private static Action action(World world, String[] strings, In in) throws IOException {
+    var name = string(strings, in.getInt());
+    Class<?> type;
+    try {
+      type = Class.forName(name, false, Snapshot.class.getClassLoader());
+    } catch (ClassNotFoundException cnfe) {
+      throw In.corrupt();
+    }
+    if (!Action.class.isAssignableFrom(type) || !savable(type)) throw In.corrupt();
+
+    var components = type.getRecordComponents();
+    var types = new Class<?>[components.length];
+    var values = new Object[components.length];
+    for (var i = 0; i < components.length; i++) {
+      types[i] = components[i].getType();
+      values[i] = read(world, strings, in, types[i]);
+    }
+    try {
+      var constructor = type.getDeclaredConstructor(types);
+      constructor.setAccessible(true);
+      return (Action) constructor.newInstance(values);
+    } catch (ReflectiveOperationException roe) {
+      throw new IOException("Can't make saved action " + name, roe);
+    }
+  }
+
+  private static Object read(World world, String[] strings, In in, Class<?> type) throws IOException {
+    if (type == long.class) return in.getLong();
+    var n = in.getInt();
+    if (type == int.class) return n;
+    if (type == boolean.class) return n != 0;
+    if (type == String.class) return n == -1 ? null : string(strings, n);
+    if (type.isEnum()) {
+      var values = type.getEnumConstants();
+      if (n < 0 || n >= values.length) throw In.corrupt();
+      return values[n];
+    }
+    if (n == World.NONE) return null;
+    if (n < 0 || n >= world.size() || !type.isInstance(world.view(n))) throw In.corrupt();
+    return world.view(n);
+  }
+
+  private static String[] strings(In in) throws IOException {
+    var count = in.getInt();
+    // Each string takes at least its length.
+    if (count < 0 || count > in.remaining() / 4) throw In.corrupt();
+    var strings = new String[count];
+    for (var i = 0; i < strings.length; i++) {
+      strings[i] = new String(in.getBytes(in.getInt()), StandardCharsets.UTF_8);
+    }
+    return strings;
+  }
+
+  private static String string(String[] strings, int n) throws IOException {
+    if (n < 0 || n >= strings.length) throw In.corrupt();
+    return strings[n];
+  }
+
+  private static Room room(World world, int id) throws IOException {
+    if (id < 0 || id >= world.size() || !(world.view(id) instanceof Room r)) throw In.corrupt();
+    return r;
+  }
+
+  private static Direction direction(int n) throws IOException {
+    if (n < 0 || n >= Direction.values().length) throw In.corrupt();
+    return Direction.values()[n];
+  }
+
+  private static void number(String s, IdentityHashMap<String, Integer> numbers, List<String> strings) {
+    if (s != null && !numbers.containsKey(s)) {
+      numbers.put(s, strings.size());
+      strings.add(s);
+    }
+  }
+
+  private static Door[] doorsOf(Map<Room, Door[]> byRoom, Room room) {
+    return byRoom.computeIfAbsent(room, r -> new Door[Direction.values().length]);
+  }
+
+  private static record SavedDoor(Room from, Direction direction, Room to, String description) {}
+
+  /**
+   * Every door in the world, once each, from the side it was made from.
+   */
+  private static List<SavedDoor> doors(World world) {
+    var doors = new ArrayList<SavedDoor>();
+    for (var id = 0; id < world.size(); id++) {
+      if (world.view(id) instanceof Room r) {
+        for (var d : Direction.values()) {
+          r.door(d).filter(door -> door.a() == r).ifPresent(door -> doors.add(new SavedDoor(r, d, door.b(), door.description())));
+        }
+      }
+    }
+    return doors;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Sequential I/O through a window mapped onto the file which slides along
+  // as it fills up or is used up.
+
+  static class Out implements AutoCloseable {
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long start = 0;
+
+    Out(Path path) throws IOException {
+      channel =
+        FileChannel.open(
+          path,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE
+        );
+    }
+
+    private MappedByteBuffer room(int bytes) throws IOException {
+      if (buffer == null || buffer.remaining() < bytes) {
+        if (buffer != null) {
+          start += buffer.position();
+          buffer.force();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(WINDOW, bytes));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return buffer;
+    }
+
+    void putInt(int i) throws IOException {
+      room(4).putInt(i);
+    }
+
+    void putLong(long l) throws IOException {
+      room(8).putLong(l);
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+      room(bytes.length).put(bytes);
+    }
+
+    void putBytes(byte[] bytes, int length) throws IOException {
+      room(length).put(bytes, 0, length);
+    }
+
+    void putInts(int[] ints, int length) throws IOException {
+      var b = room(length * 4);
+      b.asIntBuffer().put(ints, 0, length);
+      b.position(b.position() + length * 4);
+    }
+
+    public void close() throws IOException {
+      try {
+        if (buffer != null) {
+          start += buffer.position();
+          buffer.force();
+        }
+        channel.truncate(start);
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  static class In implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long start = 0;
+    private long mark = -1;
+
+    In(Path path) throws IOException {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      size = channel.size();
+    }
+
+    /**
+     * What to throw when something read from the file can't be right.
+     */
+    static IOException corrupt() {
+      return new IOException("Saved game is corrupt.");
+    }
+
+    private MappedByteBuffer available(int bytes) throws IOException {
+      if (bytes < 0) throw corrupt();
+      if (buffer == null || buffer.remaining() < bytes) {
+        if (buffer != null) start += buffer.position();
+        if (start + bytes > size) throw new IOException("Saved game is truncated.");
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, Math.max(WINDOW, bytes)));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return buffer;
+    }
+
+    int getInt() throws IOException {
+      return available(4).getInt();
+    }
+
+    long getLong() throws IOException {
+      return available(8).getLong();
+    }
+
+    byte[] getBytes(int length) throws IOException {
+      var bytes = new byte[length];
+      available(length).get(bytes);
+      return bytes;
+    }
+
+    void getBytes(byte[] bytes, int length) throws IOException {
+      available(length).get(bytes, 0, length);
+    }
+
+    void skip(int length) throws IOException {
+      var b = available(length);
+      b.position(b.position() + length);
+    }
+
+    void getInts(int[] ints, int length) throws IOException {
+      var b = available(length * 4);
+      b.asIntBuffer().get(ints, 0, length);
+      b.position(b.position() + length * 4);
+    }
+
+    /**
+     * Bytes left to read.
+     */
+    long remaining() {
+      return size - start - (buffer == null ? 0 : buffer.position());
+    }
+
+    /**
+     * Remember the current position so reading can start again from there.
+     */
+    void mark() {
+      mark = start + (buffer == null ? 0 : buffer.position());
+    }
+
+    void reset() {
+      start = mark;
+      buffer = null;
+    }
+
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
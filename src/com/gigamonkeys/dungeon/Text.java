@@ -1,6 +1,7 @@
 package com.gigamonkeys.dungeon;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -54,38 +55,169 @@ class Text {
     };
   }
 
+  /**
+   * Like commify but for alternatives, e.g. "a, b, or c".
+   */
+  public static String either(List<String> items) {
+    return switch (items.size()) {
+      case 0 -> "";
+      case 1 -> items.get(0);
+      case 2 -> items.get(0) + " or " + items.get(1);
+      default -> String.join(", ", items.subList(0, items.size() - 1)) + ", or " + items.get(items.size() - 1);
+    };
+  }
+
+  /**
+   * Collects text and word wraps it into a string.
+   */
   public static class Wrapped {
 
-    private List<String> items = new ArrayList<>();
+    private final StringBuilder sb = new StringBuilder();
+    private final Wrapper wrapper = new Wrapper(sb);
 
     public Wrapped add(Stream<String> ss) {
-      ss.forEach(items::add);
+      ss.forEach(wrapper::add);
       return this;
     }
 
     public Wrapped add(String s) {
-      items.add(s);
+      wrapper.add(s);
       return this;
     }
 
     public String toString() {
-      var sb = new StringBuilder();
-      int col = 0;
-      for (var text : items) {
-        for (var t : text.split("\\s+")) {
-          if (col + 1 + t.length() > WRAP) {
-            sb.append("\n");
-            col = 0;
-          }
-          if (col > 0) {
-            sb.append(" ");
-            col++;
-          }
-          sb.append(t);
-          col += t.length();
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Word wraps text straight into an Appendable, e.g. a PrintStream or
+   * StringBuilder, one word at a time without building any intermediate
+   * strings. Runs of whitespace in the input become a single space or a line
+   * break and whitespace at the very beginning and end of the output is
+   * dropped.
+   */
+  public static class Wrapper {
+
+    private final Appendable out;
+
+    // Current column, counting separators we haven't written yet.
+    private int col = 0;
+
+    // Separators owed before the next word. They are only written once there
+    // is a word to follow them so trailing whitespace is never written.
+    private int spaces = 0;
+    private int newlines = 0;
+
+    // Whether we've written anything. Separators before the first word are dropped.
+    private boolean started = false;
+
+    // Chars written since this Wrapper was made, whatever resets.
+    private long written = 0;
+
+    public Wrapper(Appendable out) {
+      this.out = out;
+    }
+
+    /**
+     * Start over as if nothing had been written.
+     */
+    public Wrapper reset() {
+      col = 0;
+      spaces = 0;
+      newlines = 0;
+      started = false;
+      return this;
+    }
+
+    /**
+     * Number of chars written since this Wrapper was made.
+     */
+    public long written() {
+      return written;
+    }
+
+    public Wrapper add(Stream<String> ss) {
+      ss.forEach(this::add);
+      return this;
+    }
+
+    /**
+     * Add the words of s to the wrapped text.
+     */
+    public Wrapper add(CharSequence s) {
+      var len = s.length();
+      var i = 0;
+
+      // Text that starts with whitespace (or is empty) contributes an empty
+      // word which still counts toward the column. Text that is all
+      // whitespace contributes nothing at all.
+      while (i < len && Character.isWhitespace(s.charAt(i))) i++;
+      if (len == 0 || (i > 0 && i < len)) word(s, 0, 0);
+
+      while (i < len) {
+        var start = i;
+        while (i < len && !Character.isWhitespace(s.charAt(i))) i++;
+        word(s, start, i);
+        while (i < len && Character.isWhitespace(s.charAt(i))) i++;
+      }
+      return this;
+    }
+
+    /**
+     * Add already formatted text verbatim.
+     */
+    public Wrapper raw(CharSequence s) {
+      if (s.length() > 0) {
+        append(s, 0, s.length());
+        started = true;
+        spaces = 0;
+        newlines = 0;
+        var nl = s.toString().lastIndexOf('\n');
+        col = nl == -1 ? col + s.length() : s.length() - (nl + 1);
+      }
+      return this;
+    }
+
+    private void word(CharSequence s, int start, int end) {
+      var n = end - start;
+      if (col + 1 + n > WRAP) {
+        newlines++;
+        col = 0;
+      }
+      if (col > 0) {
+        spaces++;
+        col++;
+      }
+      if (n > 0) {
+        if (started) {
+          for (var i = 0; i < spaces; i++) append(' ');
+          for (var i = 0; i < newlines; i++) append('\n');
         }
+        append(s, start, end);
+        started = true;
+        spaces = 0;
+        newlines = 0;
+      }
+      col += n;
+    }
+
+    private void append(char c) {
+      written++;
+      try {
+        out.append(c);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+
+    private void append(CharSequence s, int start, int end) {
+      written += end - start;
+      try {
+        out.append(s, start, end);
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
       }
-      return sb.toString().strip();
     }
   }
 }
@@ -17,30 +17,36 @@ import java.util.stream.Stream;
  */
 public class Thing implements Location, Attack.Target {
 
-  private final Map<String, PlacedThing> things = new HashMap<>();
+  private final World world;
+  private final int id;
 
-  private final String name;
-  private final String description;
-  private final boolean isPortable;
-  private final boolean isMonster;
+  Thing(String name, String description, boolean isPortable, boolean isMonster, int hitPoints) {
+    this.world = World.current();
+    var flags =
+      (isPortable ? World.PORTABLE : 0) |
+      (isMonster ? World.MONSTER : 0) |
+      (listensFor(Action.Tick.class) ? World.ACTIVE : 0);
+    this.id = world.add(this, name, description, flags, hitPoints);
+  }
 
-  private int hitPoints = 0;
-  private Optional<Location> location = Optional.empty();
+  /**
+   * The world this thing's state is in, which for a thing shared by the
+   * overlays of a base world is the overlay the current thread is using.
+   */
+  public World world() {
+    return world.here();
+  }
 
-  Thing(String name, String description, boolean isPortable, boolean isMonster, int hitPoints) {
-    this.name = name;
-    this.description = description;
-    this.hitPoints = hitPoints;
-    this.isPortable = isPortable;
-    this.isMonster = isMonster;
+  public int id() {
+    return id;
   }
 
   public String name() {
-    return name;
+    return world().name(id);
   }
 
   public String description() {
-    return description;
+    return world().description(id);
   }
 
   public String describeThings() {
@@ -63,28 +69,58 @@ public class Thing implements Location, Attack.Target {
     return String.join(" ", desc);
   }
 
+  /**
+   * Close the thing and say what happened. Like moveTo, subclasses that want to
+   * say something else should override this and anything that should happen
+   * belongs in applyClose. Likewise eat and open.
+   */
   public String close() {
+    applyClose();
     return "You can't close a " + name() + ".";
   }
 
+  /**
+   * Close the thing without saying anything.
+   */
+  public void applyClose() {}
+
   public String eat() {
+    applyEat();
     return "Yuck. You can't eat " + a(description()) + ".";
   }
 
+  public void applyEat() {}
+
   public String open() {
+    applyOpen();
     return "You can't open a " + name() + ".";
   }
 
+  public void applyOpen() {}
+
   public boolean isPortable() {
-    return isPortable;
+    return world().is(id, World.PORTABLE);
   }
 
   public boolean isMonster() {
-    return isMonster;
+    return world().is(id, World.MONSTER);
   }
 
   public int hitPoints() {
-    return hitPoints;
+    return world().hitPoints(id);
+  }
+
+  /**
+   * Whether the thing is open, for things that can be opened and closed. Kept
+   * in the World like the rest of a thing's state so it is saved with it.
+   */
+  public boolean isOpen() {
+    return world().is(id, World.OPEN);
+  }
+
+  protected void setOpen(boolean open) {
+    world().set(id, World.OPEN, open);
+    changed();
   }
 
   public Attack attack() {
@@ -111,10 +147,10 @@ public class Thing implements Location, Attack.Target {
    * Apply an attack to this thing as a target.
    */
   public String applyAttack(Attack attack) {
-    hitPoints -= attack.damage();
+    hit(attack);
 
-    if (hitPoints < -500) {
-      return destroy("");
+    if (hitPoints() < -500) {
+      return "";
     }
 
     if (isMonster()) {
@@ -131,8 +167,14 @@ public class Thing implements Location, Attack.Target {
     }
   }
 
+  public void hit(Attack attack) {
+    world().setHitPoints(id, hitPoints() - attack.damage());
+    changed();
+    if (hitPoints() < -500) destroy("");
+  }
+
   public String who() {
-    return "the " + name;
+    return "the " + name();
   }
 
   /**
@@ -147,37 +189,72 @@ public class Thing implements Location, Attack.Target {
   // Movement
 
   public final Optional<Location> location() {
-    return location;
+    return world().location(id);
   }
 
+  /**
+   * Move to location and say so. Subclasses that want to say something else
+   * should override this; anything that should happen as well belongs in move
+   * so it also happens when nobody is watching. See Action.apply.
+   */
   public String moveTo(Location location, String place) {
-    location.placeThing(this, place);
+    move(location, place);
     return "The " + name() + " moves to " + place + " " + location + ".";
   }
 
-  public final void setLocation(Location location) {
-    this.location = Optional.of(location);
-  }
-
-  public final void clearLocation() {
-    location = Optional.empty();
+  /**
+   * Move to location without saying anything.
+   */
+  public void move(Location location, String place) {
+    // In a shared world the thing leaves here now and arrives when the room
+    // it's going to gets to it.
+    if (world().realm() != null) location().ifPresent(l -> l.removeThing(this));
+    Realm.run(location, () -> location.placeThing(this, place));
   }
 
   //////////////////////////////////////////////////////////////////////////////
   // Location implementation -- things can contain things.
 
-  public Map<String, PlacedThing> locationMap() {
-    return things;
-  }
-
   public boolean canTake(Thing thing) {
     return !alive();
   }
 
+  public Optional<Location> container() {
+    return location();
+  }
+
   //////////////////////////////////////////////////////////////////////////////
-  // Action events. When an action occurs all the things in the room are
-  // notified via the appropriate one of these methods and can generate
-  // reactions which are then processed as part of the turn.
+  // Action events. When an action occurs the things in the room that listen
+  // for that kind of action are notified via the appropriate one of these
+  // methods and can generate reactions which are then processed as part of the
+  // turn. A thing listens for an action if its class overrides the method.
+
+  // Kinds of action each class of Thing overrides a handler for.
+  private static final ClassValue<Set<Class<?>>> handled = new ClassValue<>() {
+    protected Set<Class<?>> computeValue(Class<?> c) {
+      var types = new HashSet<Class<?>>();
+      for (var m : Thing.class.getDeclaredMethods()) {
+        var params = m.getParameterTypes();
+        if (m.getName().startsWith("on") && params.length == 1 && Action.class.isAssignableFrom(params[0])) {
+          try {
+            if (c.getMethod(m.getName(), params).getDeclaringClass() != Thing.class) {
+              types.add(params[0]);
+            }
+          } catch (NoSuchMethodException nsme) {
+            throw new IllegalStateException(nsme);
+          }
+        }
+      }
+      return Set.copyOf(types);
+    }
+  };
+
+  /**
+   * Does this thing react to actions of the given type?
+   */
+  public final boolean listensFor(Class<? extends Action> type) {
+    return handled.get(getClass()).contains(type);
+  }
 
   public Stream<Action> onAttack(Action.Attack a) {
     return Stream.empty();
@@ -231,6 +308,27 @@ public class Thing implements Location, Attack.Target {
     return Stream.empty();
   }
 
+  /**
+   * Act on a turn wherever this thing is, not just in the player's room. Unlike
+   * the other handlers this is called on pool threads alongside the onTick of
+   * things in other rooms, so it should only decide what to do, from this
+   * thing's own state, and leave doing it to the actions it returns. See
+   * Actors.
+   */
+  public Stream<Action> onTick(Action.Tick a) {
+    return Stream.empty();
+  }
+
+  /**
+   * Have action happen the given number of turns from now, e.g. a door closing
+   * itself or a monster attacking a few turns after the player comes in. Only
+   * things that schedule something cost anything on later turns, unlike
+   * onTurn which is called every turn.
+   */
+  protected void after(int turns, Action action) {
+    world().scheduler().schedule(turns, action);
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Static convenient classes for creating various kinds of Thing.
 
@@ -287,7 +385,12 @@ public class Thing implements Location, Attack.Target {
     }
 
     public String eat() {
-      return destroy(eat);
+      applyEat();
+      return eat;
+    }
+
+    public void applyEat() {
+      destroy(eat);
     }
   }
 }
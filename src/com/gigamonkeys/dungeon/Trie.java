@@ -0,0 +1,171 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix tree mapping lower case words to values, used to resolve abbreviated
+ * verbs, directions, and names of things. A word is found either by its full
+ * text or by any prefix that only one word in the trie starts with. Lookups
+ * fold case one character at a time and don't allocate.
+ *
+ * The same word can be added more than once, e.g. when a room holds two
+ * things with the same name; it stays in the trie until it has been removed
+ * as many times as it was added.
+ */
+public class Trie<V> {
+
+  private static final char[] NO_KEYS = new char[0];
+  private static final Node<?>[] NO_KIDS = new Node<?>[0];
+
+  private static class Node<V> {
+
+    char[] keys = NO_KEYS;
+    Node<V>[] kids = noKids();
+
+    V value;
+
+    // How many times this word has been added and not removed.
+    int refs;
+
+    // How many distinct words end at or below this node.
+    int words;
+
+    Node<V> child(char c) {
+      for (var i = 0; i < keys.length; i++) {
+        if (keys[i] == c) return kids[i];
+      }
+      return null;
+    }
+
+    Node<V> addChild(char c) {
+      var n = keys.length;
+      keys = Arrays.copyOf(keys, n + 1);
+      kids = Arrays.copyOf(kids, n + 1);
+      keys[n] = c;
+      kids[n] = new Node<>();
+      return kids[n];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] noKids() {
+      return (Node<V>[]) NO_KIDS;
+    }
+  }
+
+  private final Node<V> root = new Node<>();
+
+  /**
+   * Add a word with its value.
+   */
+  public void add(CharSequence word, V value) {
+    var path = path(word, true);
+    var node = path[path.length - 1];
+    node.value = value;
+    if (node.refs++ == 0) {
+      for (var n : path) n.words++;
+    }
+  }
+
+  /**
+   * Remove one reference to the word, removing it completely once it has been
+   * removed as many times as it was added.
+   */
+  public void remove(CharSequence word) {
+    var path = path(word, false);
+    if (path == null) return;
+    var node = path[path.length - 1];
+    if (node.refs > 0 && --node.refs == 0) {
+      node.value = null;
+      for (var n : path) n.words--;
+    }
+  }
+
+  /**
+   * The value of exactly this word, or null.
+   */
+  public V get(CharSequence word) {
+    var node = find(word);
+    return node != null && node.refs > 0 ? node.value : null;
+  }
+
+  /**
+   * The value of the word that is either exactly prefix or the only word
+   * starting with prefix, or null if there is no such word or more than one.
+   */
+  public V unique(CharSequence prefix) {
+    var node = find(prefix);
+    if (node == null || node.words == 0) return null;
+    if (node.refs > 0) return node.value;
+    if (node.words > 1) return null;
+    while (node.refs == 0) {
+      node = onlyLiveChild(node);
+    }
+    return node.value;
+  }
+
+  /**
+   * Number of distinct words starting with prefix.
+   */
+  public int count(CharSequence prefix) {
+    var node = find(prefix);
+    return node == null ? 0 : node.words;
+  }
+
+  /**
+   * Values of all the words starting with prefix.
+   */
+  public List<V> completions(CharSequence prefix) {
+    var values = new ArrayList<V>();
+    var node = find(prefix);
+    if (node != null) collect(node, values);
+    return values;
+  }
+
+  public int size() {
+    return root.words;
+  }
+
+  private Node<V> find(CharSequence word) {
+    var node = root;
+    for (var i = 0; i < word.length() && node != null; i++) {
+      node = node.child(Character.toLowerCase(word.charAt(i)));
+    }
+    return node;
+  }
+
+  /**
+   * Nodes from the root to the end of word, creating them as needed if create
+   * is true and returning null if they don't exist otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  private Node<V>[] path(CharSequence word, boolean create) {
+    var path = (Node<V>[]) new Node<?>[word.length() + 1];
+    var node = path[0] = root;
+    for (var i = 0; i < word.length(); i++) {
+      var c = Character.toLowerCase(word.charAt(i));
+      var next = node.child(c);
+      if (next == null) {
+        if (!create) return null;
+        next = node.addChild(c);
+      }
+      node = path[i + 1] = next;
+    }
+    return path;
+  }
+
+  private Node<V> onlyLiveChild(Node<V> node) {
+    for (var kid : node.kids) {
+      if (kid.words > 0) return kid;
+    }
+    throw new IllegalStateException("Word count out of sync.");
+  }
+
+  private void collect(Node<V> node, List<V> values) {
+    if (node.refs > 0) values.add(node.value);
+    for (var kid : node.kids) {
+      if (kid.words > 0) collect(kid, values);
+    }
+  }
+}
@@ -0,0 +1,1141 @@
+package com.gigamonkeys.dungeon;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Compact store for the state of every room, thing, and player in a game.
+ * Each entity gets an int id and its state lives in columns of primitive
+ * arrays indexed by that id rather than in fields and maps of its own; Thing,
+ * Room, and Player objects are just views holding their world and id plus
+ * any behavior their class adds. Containment is kept in the same columns as a
+ * doubly linked list of children per entity so things are kept in the order
+ * they were placed and two things with the same name can share a location.
+ *
+ * Columns are stored in fixed-size pages which never move once allocated, so
+ * entities can be added from several threads at once (only allocating ids is
+ * synchronized) and different threads can update different entities. The
+ * exception is the first page, which starts small and is copied as it grows
+ * so a world with a handful of entities doesn't pay for a whole page per
+ * column; reserve() always allocates whole pages, so code that reserves ids
+ * before creating entities on several threads never sees a page move.
+ * Worlds too big to keep in memory leave whole ranges of pages unallocated,
+ * to be allocated and freed again a region at a time by a Regions.
+ *
+ * Entities are created in the current world, which is per-thread and is set
+ * for the duration of some code with using(); there is none outside it. Ids are normally handed out
+ * in order of creation; code that creates entities on several threads and
+ * needs the same ids every time can reserve() blocks of ids up front and give
+ * each thread its own block.
+ */
+public class World {
+
+  public static final int NONE = -1;
+
+  // Flags
+  public static final int PORTABLE = 1;
+  public static final int MONSTER = 2;
+  public static final int OPEN = 4;
+  public static final int ACTIVE = 8;
+
+  private static final int PAGE_BITS = 12;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  // Set by using() for the code that runs in a world.
+  private static final ThreadLocal<World> current = new ThreadLocal<>();
+
+  // Block of reserved ids the current thread is creating entities with.
+  private static class Reservation {
+
+    final World world;
+    int next;
+    final int end;
+
+    Reservation(World world, int base, int count) {
+      this.world = world;
+      this.next = base;
+      this.end = base + count;
+    }
+  }
+
+  private static final ThreadLocal<Reservation> reservation = new ThreadLocal<>();
+
+  /**
+   * The world new entities are created in. There is none unless the current
+   * thread is running code with using(), so making a Room or Thing anywhere
+   * else fails instead of quietly landing in whatever world the thread last
+   * had.
+   */
+  public static World current() {
+    var world = current.get();
+    if (world == null) throw new IllegalStateException("No current world. Make things in World.using().");
+    return world;
+  }
+
+  /**
+   * Run fn with world as the current world.
+   */
+  public static <T> T using(World world, Supplier<T> fn) {
+    var previous = current.get();
+    current.set(world);
+    try {
+      return fn.get();
+    } finally {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  public static void using(World world, Runnable fn) {
+    using(
+      world,
+      () -> {
+        fn.run();
+        return null;
+      }
+    );
+  }
+
+  /**
+   * Run fn with world as the current world, giving the entities it creates
+   * exactly the ids from base up to base + count, which must have been
+   * reserved.
+   */
+  public static void using(World world, int base, int count, Runnable fn) {
+    var previous = reservation.get();
+    var r = new Reservation(world, base, count);
+    reservation.set(r);
+    try {
+      using(world, fn);
+    } finally {
+      reservation.set(previous);
+    }
+    if (r.next != r.end) {
+      throw new IllegalStateException("Reserved " + count + " ids but used " + (r.next - base));
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Columns
+
+  // A column's pages and the epoch each was last copied in.
+  private static record Table(Object[] pages, int[] epochs) {}
+
+  /**
+   * One column, kept as pages of type P, some kind of array, which are shared
+   * with Versions and overlays and copied the first time they're written
+   * after that. Subclasses just make, copy, and index the pages.
+   */
+  private abstract static class Column<P> {
+
+    Object[] pages = new Object[0];
+    int[] epochs = new int[0];
+    int epoch = 0;
+    boolean shared = false;
+
+    abstract P make(int length);
+
+    abstract P copy(P page, int length);
+
+    abstract int length(P page);
+
+    @SuppressWarnings("unchecked")
+    P page(int page) {
+      return (P) pages[page];
+    }
+
+    // The page, copied first if a Version might still be using it.
+    P writable(int page) {
+      if (epochs[page] != epoch) {
+        unshare();
+        pages[page] = copy(page(page), length(page(page)));
+        epochs[page] = epoch;
+      }
+      return page(page);
+    }
+
+    private void unshare() {
+      if (shared) {
+        pages = pages.clone();
+        epochs = epochs.clone();
+        shared = false;
+      }
+    }
+
+    /**
+     * Grow to n pages, allocating the new ones with the given length.
+     */
+    void grow(int n, int length) {
+      var old = pages.length;
+      pages = Arrays.copyOf(pages, n);
+      epochs = Arrays.copyOf(epochs, n);
+      shared = false;
+      if (old == 1 && pages[0] != null && length(page(0)) < length) {
+        pages[0] = copy(page(0), length);
+        epochs[0] = epoch;
+      }
+      for (var i = old; i < n; i++) {
+        pages[i] = make(length);
+        epochs[i] = epoch;
+      }
+    }
+
+    /**
+     * Grow to n pages without allocating any of the new ones.
+     */
+    void extend(int n) {
+      var old = pages.length;
+      pages = Arrays.copyOf(pages, n);
+      epochs = Arrays.copyOf(epochs, n);
+      shared = false;
+      Arrays.fill(epochs, old, n, epoch);
+    }
+
+    void allocate(int page) {
+      unshare();
+      pages[page] = make(PAGE_SIZE);
+      epochs[page] = epoch;
+    }
+
+    void release(int page) {
+      unshare();
+      pages[page] = null;
+    }
+
+    /**
+     * Hand out the current pages as part of a Version, after which they're
+     * copied before being written, and start writing as of epoch.
+     */
+    Table share(int epoch) {
+      shared = true;
+      this.epoch = epoch;
+      return new Table(pages, epochs);
+    }
+
+    /**
+     * Go back to the pages of a Version, still shared with it.
+     */
+    void restore(Table table, int epoch) {
+      pages = table.pages();
+      epochs = table.epochs();
+      shared = true;
+      this.epoch = epoch;
+    }
+  }
+
+  private static class Ints extends Column<int[]> {
+
+    int get(int id) {
+      return page(id >>> PAGE_BITS)[id & PAGE_MASK];
+    }
+
+    void set(int id, int value) {
+      writable(id >>> PAGE_BITS)[id & PAGE_MASK] = value;
+    }
+
+    int[] make(int length) {
+      return new int[length];
+    }
+
+    int[] copy(int[] page, int length) {
+      return Arrays.copyOf(page, length);
+    }
+
+    int length(int[] page) {
+      return page.length;
+    }
+  }
+
+  private static class Bytes extends Column<byte[]> {
+
+    int get(int id) {
+      return page(id >>> PAGE_BITS)[id & PAGE_MASK];
+    }
+
+    void set(int id, int value) {
+      writable(id >>> PAGE_BITS)[id & PAGE_MASK] = (byte) value;
+    }
+
+    byte[] make(int length) {
+      return new byte[length];
+    }
+
+    byte[] copy(byte[] page, int length) {
+      return Arrays.copyOf(page, length);
+    }
+
+    int length(byte[] page) {
+      return page.length;
+    }
+  }
+
+  private static class Refs<T> extends Column<Object[]> {
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+      return (T) page(id >>> PAGE_BITS)[id & PAGE_MASK];
+    }
+
+    void set(int id, T value) {
+      writable(id >>> PAGE_BITS)[id & PAGE_MASK] = value;
+    }
+
+    Object[] make(int length) {
+      return new Object[length];
+    }
+
+    Object[] copy(Object[] page, int length) {
+      return Arrays.copyOf(page, length);
+    }
+
+    int length(Object[] page) {
+      return page.length;
+    }
+  }
+
+  private final Refs<Location> views = new Refs<>();
+  private final Refs<String> names = new Refs<>();
+  private final Refs<String> descriptions = new Refs<>();
+  private final Bytes flags = new Bytes();
+  private final Ints hitPoints = new Ints();
+
+  // Containment: where each entity is and in what place, plus its first and
+  // last children and its siblings on either side.
+  private final Ints parents = new Ints();
+  private final Refs<String> places = new Refs<>();
+  private final Ints firstChildren = new Ints();
+  private final Ints lastChildren = new Ints();
+  private final Ints nextSiblings = new Ints();
+  private final Ints previousSiblings = new Ints();
+
+  // The door in each direction out of each room, by Direction ordinal.
+  private final List<Refs<Door>> doors = Arrays.stream(Direction.values()).map(d -> new Refs<Door>()).toList();
+
+  private final List<Column<?>> columns = Stream
+    .<Column<?>>concat(
+      Stream.of(
+        views,
+        names,
+        descriptions,
+        flags,
+        hitPoints,
+        parents,
+        places,
+        firstChildren,
+        lastChildren,
+        nextSiblings,
+        previousSiblings
+      ),
+      doors.stream()
+    )
+    .toList();
+
+  // Which pages have had entities changed since they were last marked clean.
+  private boolean[] dirty = new boolean[0];
+
+  private int size = 0;
+  private int capacity = 0;
+
+  // Routes between the rooms, made when first asked for.
+  private final Routes.Cache routes = new Routes.Cache(this);
+
+  // What loads the world's regions, if it's loaded a region at a time.
+  private Pager pager;
+
+  // The Realm sharing this world between players, if it is shared.
+  private volatile Realm realm;
+
+  // The clock and the actions scheduled for later turns.
+  private Scheduler scheduler = new Scheduler();
+
+  // Number of active entities ever added. See Actors.
+  private final AtomicInteger actors = new AtomicInteger();
+
+  // Highest id of any room added, so Routes can tell if it's missing any.
+  private final AtomicInteger lastRoom = new AtomicInteger(NONE);
+
+  // Bumped by every checkpoint, rollback, and fork; pages last copied in an
+  // earlier epoch may be shared with a Version or an overlay.
+  private int epoch = 0;
+
+  // The world this is an overlay of, if it is one, and whether this world has
+  // any overlays. See fork().
+  private final World base;
+  private volatile boolean forked = false;
+
+  // What this overlay works out for rooms shared from its base, for the rooms
+  // it has needed anything for.
+  private Map<Integer, Room.Local> locals;
+
+  public World() {
+    this.base = null;
+  }
+
+  private World(World base) {
+    this.base = base;
+  }
+
+  /**
+   * Add an entity, returning its id.
+   */
+  public int add(Location view, String name, String description, int flags, int hitPoints) {
+    var id = nextId();
+    views.set(id, view);
+    names.set(id, name);
+    descriptions.set(id, description);
+    this.flags.set(id, flags);
+    if ((flags & ACTIVE) != 0) actors.incrementAndGet();
+    if (view instanceof Room) lastRoom.accumulateAndGet(id, Math::max);
+    this.hitPoints.set(id, hitPoints);
+    parents.set(id, NONE);
+    firstChildren.set(id, NONE);
+    lastChildren.set(id, NONE);
+    nextSiblings.set(id, NONE);
+    previousSiblings.set(id, NONE);
+    return id;
+  }
+
+  /**
+   * Reserve count ids, returning the first. See using(World, int, int, Runnable).
+   */
+  public synchronized int reserve(int count) {
+    var base = size;
+    size += count;
+    ensurePages(Math.max(size, PAGE_SIZE));
+    return base;
+  }
+
+  private int nextId() {
+    var r = reservation.get();
+    if (r != null && r.world == this) {
+      if (r.next == r.end) throw new IllegalStateException("Out of reserved ids");
+      return r.next++;
+    }
+    synchronized (this) {
+      ensurePages(size + 1);
+      return size++;
+    }
+  }
+
+  private void ensurePages(int entities) {
+    if (entities <= capacity) return;
+    var n = (entities + PAGE_MASK) >>> PAGE_BITS;
+    var length = n > 1 ? PAGE_SIZE : Math.min(PAGE_SIZE, Math.max(entities, Math.max(capacity * 2, 16)));
+    for (var column : columns) column.grow(n, length);
+    dirty = Arrays.copyOf(dirty, n);
+    capacity = n > 1 ? n * PAGE_SIZE : length;
+  }
+
+  /**
+   * Number of entities ever added.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Properties
+
+  public Location view(int id) {
+    return views.get(id);
+  }
+
+  public String name(int id) {
+    return names.get(id);
+  }
+
+  public String description(int id) {
+    return descriptions.get(id);
+  }
+
+  public boolean is(int id, int flag) {
+    return (flags.get(id) & flag) != 0;
+  }
+
+  public void set(int id, int flag, boolean on) {
+    flags.set(id, on ? flags.get(id) | flag : flags.get(id) & ~flag);
+    touch(id);
+  }
+
+  public int hitPoints(int id) {
+    return hitPoints.get(id);
+  }
+
+  public void setHitPoints(int id, int hp) {
+    hitPoints.set(id, hp);
+    touch(id);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Containment
+
+  public int parent(int id) {
+    return parents.get(id);
+  }
+
+  /**
+   * The location of the entity, if it has one.
+   */
+  public Optional<Location> location(int id) {
+    var p = parents.get(id);
+    return p == NONE ? Optional.empty() : Optional.of(views.get(p));
+  }
+
+  /**
+   * Where in its location the entity is, e.g. "on" or "against the wall".
+   */
+  public String place(int id) {
+    return places.get(id);
+  }
+
+  public int firstChild(int id) {
+    return reached(firstChildren.get(id));
+  }
+
+  public int nextSibling(int id) {
+    return reached(nextSiblings.get(id));
+  }
+
+  /**
+   * Put child at the end of parent's children, taking it out of wherever it
+   * was before.
+   */
+  public void place(int child, int parent, String where) {
+    unplace(child);
+    var last = reached(lastChildren.get(parent));
+    if (last == NONE) {
+      firstChildren.set(parent, child);
+    } else {
+      nextSiblings.set(last, child);
+    }
+    previousSiblings.set(child, last);
+    lastChildren.set(parent, child);
+    parents.set(child, parent);
+    places.set(child, where);
+    touch(child);
+    touch(parent);
+    if (last != NONE) touch(last);
+  }
+
+  /**
+   * Take the entity out of its location, if it has one.
+   */
+  public void unplace(int id) {
+    var parent = reached(parents.get(id));
+    if (parent == NONE) return;
+    var previous = reached(previousSiblings.get(id));
+    var next = reached(nextSiblings.get(id));
+    if (previous == NONE) {
+      firstChildren.set(parent, next);
+    } else {
+      nextSiblings.set(previous, next);
+    }
+    if (next == NONE) {
+      lastChildren.set(parent, previous);
+    } else {
+      previousSiblings.set(next, previous);
+    }
+    parents.set(id, NONE);
+    places.set(id, null);
+    nextSiblings.set(id, NONE);
+    previousSiblings.set(id, NONE);
+    touch(id);
+    touch(parent);
+    if (previous != NONE) touch(previous);
+    if (next != NONE) touch(next);
+  }
+
+  /**
+   * An entity reached by following a link from another one, which may be in a
+   * region that has to be loaded first. Not while adding entities with
+   * reserved ids, which is how regions themselves are made.
+   */
+  private int reached(int id) {
+    if (pager != null && id != NONE && !pager.loaded(id)) {
+      var r = reservation.get();
+      if (r == null || r.world != this) pager.fault(id);
+    }
+    return id;
+  }
+
+  private void touch(int id) {
+    dirty[id >>> PAGE_BITS] = true;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Doors
+
+  /**
+   * The door in direction d out of the room with the given id, or null.
+   */
+  public Door door(int id, Direction d) {
+    var column = doors.get(d.ordinal());
+    // A room in a region that isn't loaded has no pages and so no doors.
+    if (pager != null && column.page(id >>> PAGE_BITS) == null) return null;
+    return column.get(id);
+  }
+
+  /**
+   * Set the door in direction d out of the room with the given id. Setting the
+   * door a room already has changes nothing, so an overlay keeps sharing its
+   * base's doors. Doesn't count as a change for Regions, which make the doors
+   * of each region along with the region, and does nothing for a room in a
+   * region that isn't loaded, which gets its doors when it is.
+   */
+  void door(int id, Direction d, Door door) {
+    var column = doors.get(d.ordinal());
+    if (pager != null && column.page(id >>> PAGE_BITS) == null) return;
+    if (!Objects.equals(column.get(id), door)) column.set(id, door);
+  }
+
+  // Whether this overlay still has just its base's rooms and doors.
+  private boolean sameDoors() {
+    if (lastRoom.get() != base.lastRoom.get()) return false;
+    for (var d = 0; d < doors.size(); d++) {
+      var mine = doors.get(d).pages;
+      var theirs = base.doors.get(d).pages;
+      if (mine.length != theirs.length) return false;
+      for (var p = 0; p < mine.length; p++) {
+        if (mine[p] != theirs[p]) return false;
+      }
+    }
+    return true;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Regions. A world too big to keep in memory all at once is loaded a region
+  // at a time by a Pager, e.g. Regions, which gives each region a range of ids
+  // covering whole pages. The pages are only allocated while the region is
+  // loaded.
+
+  /**
+   * What a world loaded a region at a time needs from whatever loads it.
+   */
+  interface Pager {
+
+    /**
+     * Whether the entity's region is loaded.
+     */
+    boolean loaded(int id);
+
+    /**
+     * Load the entity's region, which isn't loaded, because something links to it.
+     */
+    void fault(int id);
+
+    /**
+     * The player is going into room. Returns the room to be in, which is a
+     * different view of the same room if the room's region had to be loaded.
+     */
+    Room enter(Player player, Room room);
+  }
+
+  /**
+   * Load the world a region at a time with pager. Scheduled actions hold on to
+   * their things and so can't be used in a world loaded a region at a time.
+   */
+  void pager(Pager pager) {
+    this.pager = pager;
+    scheduler.refuse("Can't schedule actions in a world loaded a region at a time.", false);
+  }
+
+  /**
+   * Whether the world is loaded a region at a time.
+   */
+  boolean paged() {
+    return pager != null;
+  }
+
+  /**
+   * The player is going into room. Returns the room to be in; see Pager.
+   */
+  Room enter(Player player, Room room) {
+    return pager == null ? room : pager.enter(player, room);
+  }
+
+  /**
+   * Whether the entity's state is in memory.
+   */
+  public boolean loaded(int id) {
+    return pager == null || pager.loaded(id);
+  }
+
+  /**
+   * Reserve count ids, starting on a page boundary and rounded up to whole
+   * pages, without allocating any pages for them. The pages have to be
+   * allocate()d before anything is added there.
+   */
+  synchronized int reserveUnallocated(int count) {
+    // A partly filled first page has to be whole before there are pages after it.
+    if (size > 0) ensurePages(PAGE_SIZE);
+    var base = (size + PAGE_MASK) & ~PAGE_MASK;
+    var end = (long) base + ((count + PAGE_MASK) & ~PAGE_MASK);
+    if (end > Integer.MAX_VALUE - PAGE_SIZE) throw new IllegalArgumentException("Too many ids: " + end);
+    size = (int) end;
+    var n = size >>> PAGE_BITS;
+    for (var column : columns) column.extend(n);
+    dirty = Arrays.copyOf(dirty, n);
+    capacity = size;
+    return base;
+  }
+
+  /**
+   * Allocate fresh, clean pages for the ids from base up to base + count.
+   */
+  synchronized void allocate(int base, int count) {
+    for (var p = base >>> PAGE_BITS; p * PAGE_SIZE < base + count; p++) {
+      for (var column : columns) column.allocate(p);
+      dirty[p] = false;
+    }
+  }
+
+  /**
+   * Free the pages for the ids from base up to base + count.
+   */
+  synchronized void release(int base, int count) {
+    for (var p = base >>> PAGE_BITS; p * PAGE_SIZE < base + count; p++) {
+      for (var column : columns) column.release(p);
+      dirty[p] = false;
+    }
+  }
+
+  /**
+   * Whether anything with an id from base up to base + count has changed since
+   * they were last marked clean.
+   */
+  boolean dirty(int base, int count) {
+    for (var p = base >>> PAGE_BITS; p * PAGE_SIZE < base + count; p++) {
+      if (dirty[p]) return true;
+    }
+    return false;
+  }
+
+  void clean(int base, int count) {
+    for (var p = base >>> PAGE_BITS; p * PAGE_SIZE < base + count; p++) dirty[p] = false;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Sharing. A world can be shared by many players at once with each room
+  // acting for itself; see Realm. Nothing that needs the whole world to stand
+  // still, like checkpoints or the world-wide clock, works in a shared world.
+
+  void realm(Realm realm) {
+    this.realm = realm;
+    // Its players' turns aren't in any one order so there's no clock to tick.
+    scheduler.refuse("Can't schedule actions in a world shared between players.", true);
+  }
+
+  Realm realm() {
+    return realm;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Routes
+
+  /**
+   * Routes between the rooms, made the first time they are needed and again if
+   * rooms have been added since. An overlay uses its base world's routes for
+   * as long as it has the same rooms and doors, so only overlays that have
+   * changed the doors, e.g. by opening a secret door, pay for their own.
+   */
+  public synchronized Routes routes() {
+    if (base != null && sameDoors()) return base.routes();
+    return routes.get();
+  }
+
+  /**
+   * The cache of this world's own routes, to be told about changed doors.
+   */
+  Routes.Cache routing() {
+    return routes;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Versions. A checkpoint hands the current pages of every column over to a
+  // Version and from then on a page is copied the first time it's written, so
+  // taking a checkpoint costs the same however big the world is, each turn
+  // after it pays for copying the pages it changes, and rolling back is just
+  // putting the Version's pages back. The World's state is everything in the
+  // columns, doors included, plus whatever is scheduled; the player's room is
+  // up to the caller.
+  // Copying on write isn't safe with several threads writing at once, so once
+  // there are versions a world should be changed by one thread at a time.
+
+  /**
+   * The state of a world at a checkpoint.
+   */
+  public static class Version {
+
+    private final Table[] tables;
+    private final int size;
+    private final int capacity;
+    private final int actors;
+    private final int lastRoom;
+    private final Scheduler scheduler;
+
+    private Version(Table[] tables, int size, int capacity, int actors, int lastRoom, Scheduler scheduler) {
+      this.tables = tables;
+      this.size = size;
+      this.capacity = capacity;
+      this.actors = actors;
+      this.lastRoom = lastRoom;
+      this.scheduler = scheduler;
+    }
+  }
+
+  /**
+   * Remember the world as it is now.
+   */
+  public synchronized Version checkpoint() {
+    if (pager != null) throw new IllegalStateException("Can't checkpoint a world loaded a region at a time.");
+    if (realm != null) throw new IllegalStateException("Can't checkpoint a world shared between players.");
+    epoch++;
+    var tables = new Table[columns.size()];
+    for (var i = 0; i < tables.length; i++) tables[i] = columns.get(i).share(epoch);
+    return new Version(tables, size, capacity, actors.get(), lastRoom.get(), scheduler.copy());
+  }
+
+  /**
+   * Put the world back the way it was at a checkpoint. Rooms with anything
+   * changed since then are told they've been restored.
+   */
+  public synchronized void rollback(Version version) {
+    var changed = changed(version);
+    var rooms = Collections.newSetFromMap(new IdentityHashMap<Room, Boolean>());
+    rooms(changed, rooms);
+
+    epoch++;
+    for (var i = 0; i < version.tables.length; i++) columns.get(i).restore(version.tables[i], epoch);
+    size = version.size;
+    capacity = version.capacity;
+    actors.set(version.actors);
+    lastRoom.set(version.lastRoom);
+    scheduler = version.scheduler.copy();
+    routes.disconnected();
+
+    rooms(changed, rooms);
+    rooms.forEach(Room::rolledBack);
+  }
+
+  /**
+   * Has anything changed, or any turn passed, since the checkpoint?
+   */
+  public synchronized boolean changedSince(Version version) {
+    if (size != version.size || scheduler.now() != version.scheduler.now()) return true;
+    for (var changed : changed(version)) if (changed) return true;
+    return false;
+  }
+
+  // Which pages are different in the version, going by whether any column has
+  // copied them since.
+  private boolean[] changed(Version version) {
+    var n = 0;
+    for (var t : version.tables) n = Math.max(n, t.pages().length);
+    for (var c : columns) n = Math.max(n, c.pages.length);
+
+    var changed = new boolean[n];
+    for (var i = 0; i < version.tables.length; i++) {
+      var then = version.tables[i].pages();
+      var now = columns.get(i).pages;
+      for (var p = 0; p < n; p++) {
+        changed[p] |= p >= then.length || p >= now.length || then[p] != now[p];
+      }
+    }
+    return changed;
+  }
+
+  // Add the rooms of everything on the changed pages, as of now.
+  private void rooms(boolean[] changed, Set<Room> rooms) {
+    for (var p = 0; p < changed.length; p++) {
+      if (!changed[p]) continue;
+      var end = Math.min((p + 1) * PAGE_SIZE, size);
+      for (var id = p * PAGE_SIZE; id < end; id++) {
+        for (var a = id; a != NONE; a = parents.get(a)) {
+          if (views.get(a) instanceof Room r) {
+            rooms.add(r);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Overlays. A world built once can be shared by any number of games, each
+  // playing in an overlay made by fork(). An overlay starts out sharing all the
+  // base world's pages and copies them as it changes them, just as after a
+  // checkpoint, so what each game costs depends on what it has changed, not on
+  // the size of the world. The overlays share the base world's Rooms and
+  // Things as well; those look up their state in the world the current thread
+  // is using (see using()), so a game has to be played with its overlay
+  // current, and keep what they work out from it, like a room's description,
+  // in the overlay.
+
+  /**
+   * A new world sharing this one's state and views. This world should not be
+   * changed once it has overlays since their views are its views.
+   */
+  public synchronized World fork() {
+    if (pager != null) throw new IllegalStateException("Can't fork a world loaded a region at a time.");
+    forked = true;
+    epoch++;
+    var overlay = new World(this);
+    for (var i = 0; i < columns.size(); i++) overlay.columns.get(i).restore(columns.get(i).share(epoch), epoch);
+    overlay.epoch = epoch;
+    overlay.size = size;
+    overlay.capacity = capacity;
+    overlay.dirty = new boolean[dirty.length];
+    overlay.actors.set(actors.get());
+    overlay.lastRoom.set(lastRoom.get());
+    overlay.scheduler = scheduler.copy();
+    return overlay;
+  }
+
+  /**
+   * Is this an overlay of another world?
+   */
+  public boolean overlay() {
+    return base != null;
+  }
+
+  /**
+   * The world a view made in this world should use: the current world if it's
+   * an overlay of this one and otherwise this one.
+   */
+  World here() {
+    if (!forked) return this;
+    var c = current.get();
+    return c != null && c.base == this ? c : this;
+  }
+
+  /**
+   * What this overlay keeps for a room shared from its base, made if needed
+   * and make is true.
+   */
+  Room.Local local(Room room, boolean make) {
+    if (locals == null) {
+      if (!make) return null;
+      locals = new HashMap<>();
+    }
+    var l = locals.get(room.id());
+    if (l == null && make) {
+      l = new Room.Local(room);
+      locals.put(room.id(), l);
+    }
+    return l;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Scheduling. Actions can be scheduled to happen some number of turns later
+  // with the world's Scheduler, which is part of its state for checkpoints,
+  // overlays, and snapshots.
+
+  /**
+   * The world's clock and the actions scheduled on it.
+   */
+  public Scheduler scheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Number of entities ever added with the ACTIVE flag, i.e. that act every
+   * turn wherever they are.
+   */
+  public int actors() {
+    return actors.get();
+  }
+
+  /**
+   * Highest id of any room in the world, or NONE if there are none.
+   */
+  int lastRoom() {
+    return lastRoom.get();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////
+  // Snapshots. See Snapshot for the file format.
+
+  /**
+   * Pass every string in the string columns to fn.
+   */
+  void strings(Consumer<String> fn) {
+    strings(0, size(), fn);
+  }
+
+  void strings(int base, int count, Consumer<String> fn) {
+    for (var id = base; id < base + count; id++) {
+      fn.accept(names.get(id));
+      fn.accept(descriptions.get(id));
+      fn.accept(places.get(id));
+    }
+  }
+
+  /**
+   * Write the columns a page at a time, with strings written as the numbers
+   * given by strings.
+   */
+  void write(Snapshot.Out out, ToIntFunction<String> strings) throws IOException {
+    write(out, 0, size(), strings);
+  }
+
+  /**
+   * Write the columns for just the ids from base, which must start a page, up
+   * to base + count.
+   */
+  void write(Snapshot.Out out, int base, int count, ToIntFunction<String> strings) throws IOException {
+    var n = base + count;
+    var first = base >>> PAGE_BITS;
+    var scratch = new int[PAGE_SIZE];
+    writeStrings(out, names, first, n, strings, scratch);
+    writeStrings(out, descriptions, first, n, strings, scratch);
+    for (var p = first; p * PAGE_SIZE < n; p++) out.putBytes(flags.page(p), length(p, n));
+    for (var column : List.of(hitPoints, parents)) writeInts(out, column, first, n);
+    writeStrings(out, places, first, n, strings, scratch);
+    for (var column : List.of(firstChildren, lastChildren, nextSiblings, previousSiblings)) {
+      writeInts(out, column, first, n);
+    }
+  }
+
+  /**
+   * Check that the snapshot about to be read from in was saved from a world
+   * with the same entities as this one and that every string and id in its
+   * columns is in range, reading to the end of the columns.
+   */
+  void check(Snapshot.In in, String[] strings) throws IOException {
+    check(in, 0, size(), strings);
+  }
+
+  void check(Snapshot.In in, int base, int count, String[] strings) throws IOException {
+    var n = base + count;
+    var first = base >>> PAGE_BITS;
+    var scratch = new int[PAGE_SIZE];
+    for (var p = first; p * PAGE_SIZE < n; p++) {
+      var len = length(p, n);
+      in.getInts(scratch, len);
+      for (var i = 0; i < len; i++) {
+        var id = p * PAGE_SIZE + i;
+        if (!Objects.equals(checkedString(strings, scratch[i]), names.get(id))) {
+          throw new IOException("Saved game doesn't match this world: entity " + id + " is " + names.get(id) + ".");
+        }
+      }
+    }
+    checkStrings(in, first, n, strings, scratch);
+    for (var p = first; p * PAGE_SIZE < n; p++) in.skip(length(p, n));
+    for (var p = first; p * PAGE_SIZE < n; p++) in.skip(length(p, n) * 4);
+    checkIds(in, first, n, scratch);
+    checkStrings(in, first, n, strings, scratch);
+    for (var i = 0; i < 4; i++) checkIds(in, first, n, scratch);
+  }
+
+  /**
+   * Replace the columns with the ones in the snapshot.
+   */
+  void read(Snapshot.In in, String[] strings) throws IOException {
+    read(in, 0, size(), strings);
+  }
+
+  void read(Snapshot.In in, int base, int count, String[] strings) throws IOException {
+    var n = base + count;
+    var first = base >>> PAGE_BITS;
+    var scratch = new int[PAGE_SIZE];
+    readStrings(in, names, first, n, strings, scratch);
+    readStrings(in, descriptions, first, n, strings, scratch);
+    for (var p = first; p * PAGE_SIZE < n; p++) in.getBytes(flags.writable(p), length(p, n));
+    for (var column : List.of(hitPoints, parents)) readInts(in, column, first, n);
+    readStrings(in, places, first, n, strings, scratch);
+    for (var column : List.of(firstChildren, lastChildren, nextSiblings, previousSiblings)) {
+      readInts(in, column, first, n);
+    }
+  }
+
+  private static int length(int page, int n) {
+    return Math.min(PAGE_SIZE, n - page * PAGE_SIZE);
+  }
+
+  private static String string(String[] strings, int n) {
+    return n == -1 ? null : strings[n];
+  }
+
+  private static String checkedString(String[] strings, int n) throws IOException {
+    if (n < -1 || n >= strings.length) throw Snapshot.In.corrupt();
+    return string(strings, n);
+  }
+
+  private static void checkStrings(Snapshot.In in, int first, int n, String[] strings, int[] scratch)
+    throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) {
+      var len = length(p, n);
+      in.getInts(scratch, len);
+      for (var i = 0; i < len; i++) checkedString(strings, scratch[i]);
+    }
+  }
+
+  // Ids in a column of ids, e.g. parents, must be NONE or an entity in the
+  // whole world, not just the part being read.
+  private void checkIds(Snapshot.In in, int first, int n, int[] scratch) throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) {
+      var len = length(p, n);
+      in.getInts(scratch, len);
+      for (var i = 0; i < len; i++) {
+        if (scratch[i] < NONE || scratch[i] >= size()) throw Snapshot.In.corrupt();
+      }
+    }
+  }
+
+  private static void writeInts(Snapshot.Out out, Ints column, int first, int n) throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) out.putInts(column.page(p), length(p, n));
+  }
+
+  private static void readInts(Snapshot.In in, Ints column, int first, int n) throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) in.getInts(column.writable(p), length(p, n));
+  }
+
+  private static void writeStrings(
+    Snapshot.Out out,
+    Refs<String> column,
+    int first,
+    int n,
+    ToIntFunction<String> strings,
+    int[] scratch
+  ) throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) {
+      var page = column.page(p);
+      var len = length(p, n);
+      for (var i = 0; i < len; i++) scratch[i] = strings.applyAsInt((String) page[i]);
+      out.putInts(scratch, len);
+    }
+  }
+
+  private static void readStrings(
+    Snapshot.In in,
+    Refs<String> column,
+    int first,
+    int n,
+    String[] strings,
+    int[] scratch
+  ) throws IOException {
+    for (var p = first; p * PAGE_SIZE < n; p++) {
+      var page = column.writable(p);
+      var len = length(p, n);
+      in.getInts(scratch, len);
+      for (var i = 0; i < len; i++) page[i] = string(strings, scratch[i]);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+class ActorsTest {
+
+  private static final Direction[] DIRECTIONS = Direction.values();
+
+  static void tests(Test t) {
+    t.test(
+      "Actors: actors end up in the same places however many threads decide what they do",
+      () -> {
+        var one = new ForkJoinPool(1);
+        var many = new ForkJoinPool(8);
+        try {
+          checkEquals(one.submit(() -> wander(40)).get(), many.submit(() -> wander(40)).get());
+        } finally {
+          one.shutdown();
+          many.shutdown();
+        }
+      }
+    );
+
+    t.test(
+      "Actors: actions in the player's room are handed back and the rest just happen",
+      () ->
+        fresh(() -> {
+          var here = new Room("here");
+          var there = new Room("there");
+          var elsewhere = new Room("elsewhere");
+          var player = new Player(here, 20);
+          var talker = new Actor("talker", (self, a) -> Stream.of(new Action.Talk("hello")));
+          var mover = new Actor("mover", (self, a) -> Stream.of(new Action.Move(self, elsewhere, "in")));
+          var carried = new Actor("carried", (self, a) -> Stream.of(new Action.Talk("from your pocket")));
+          here.placeThing(talker, "in");
+          there.placeThing(mover, "in");
+          player.placeThing(carried, "in");
+          checkEquals(3, player.world().actors());
+
+          var seen = Actors.tick(player);
+          checkEquals(List.of(new Action.Talk("hello"), new Action.Talk("from your pocket")), seen);
+          checkEquals(elsewhere, mover.location().orElse(null));
+          return null;
+        })
+    );
+
+    t.test(
+      "Actors: a world without actors has nothing to do",
+      () -> checkEquals(List.of(), fresh(() -> Actors.tick(new Player(new Room("empty"), 20))))
+    );
+  }
+
+  // Where rats, wandering like the demo's, are after some ticks of a generated
+  // maze with one in every room.
+  private static List<Integer> wander(int ticks) {
+    return fresh(() -> {
+      var rooms = new MazeGenerator(new MazeGenerator.Params(64, 64, 11)).generate();
+      var wanderers = new ArrayList<Actor>();
+      for (var room : rooms) {
+        var w = new Actor("rat", (self, a) -> {
+          var start = (int) Math.floorMod(MazeGenerator.mix(self.id(), a.turn()), (long) DIRECTIONS.length);
+          for (var i = 0; i < DIRECTIONS.length; i++) {
+            var door = a.room().door(DIRECTIONS[(start + i) % DIRECTIONS.length]);
+            if (door.isPresent()) return Stream.of(new Action.Move(self, door.get().from(a.room()), "in"));
+          }
+          return Stream.empty();
+        });
+        room.placeThing(w, "in");
+        wanderers.add(w);
+      }
+      var player = new Player(rooms[0], 20);
+      for (var i = 0; i < ticks; i++) {
+        player.world().scheduler().tick();
+        Actors.tick(player).forEach(Action::apply);
+      }
+      return wanderers.stream().map(w -> w.location().map(Location::id).orElse(-1)).toList();
+    });
+  }
+
+  /**
+   * A thing that does whatever its function says each turn.
+   */
+  private static class Actor extends Thing.Monster {
+
+    private final BiFunction<Actor, Action.Tick, Stream<Action>> fn;
+
+    Actor(String name, BiFunction<Actor, Action.Tick, Stream<Action>> fn) {
+      super(name, 1);
+      this.fn = fn;
+    }
+
+    @Override
+    public Stream<Action> onTick(Action.Tick a) {
+      return fn.apply(this, a);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+import java.util.Random;
+
+class BKTreeTest {
+
+  static void tests(Test t) {
+    t.test(
+      "BKTree: distance counts the characters deleted and inserted",
+      () -> {
+        checkEquals(0, BKTree.distance("take", "take"));
+        checkEquals(1, BKTree.distance("tke", "take"));
+        checkEquals(2, BKTree.distance("tkae", "take"));
+        checkEquals(7, BKTree.distance("", "inspect"));
+      }
+    );
+
+    t.test(
+      "BKTree: the closest word within the limit is found",
+      () -> {
+        var tree = words("attack", "close", "drop", "eat", "go", "inventory", "look", "open", "take", "travel");
+        checkEquals("attack", tree.closest("atack", 2));
+        checkEquals("inventory", tree.closest("inventroy", 3));
+        checkEquals(null, tree.closest("xyzzy", 2));
+      }
+    );
+
+    t.test(
+      "BKTree: ties go to the alphabetically first word",
+      () -> checkEquals("bat", words("hat", "cat", "bat").closest("at", 1))
+    );
+
+    t.test(
+      "BKTree: removed words aren't suggested until added again",
+      () -> {
+        var tree = words("sword", "swords");
+        tree.remove("sword");
+        checkEquals("swords", tree.closest("sword", 2));
+        tree.add("sword");
+        checkEquals("sword", tree.closest("sword", 2));
+      }
+    );
+
+    t.test(
+      "BKTree: finds the same word as comparing against every word",
+      () -> {
+        var random = new Random(7);
+        var words = random.ints(500, 0, 1 << 20).mapToObj(i -> Integer.toString(i, 5)).distinct().toList();
+        var tree = new BKTree();
+        words.forEach(tree::add);
+        for (var i = 0; i < 200; i++) {
+          var word = Integer.toString(random.nextInt(1 << 20), 5);
+          var best = words
+            .stream()
+            .filter(w -> BKTree.distance(word, w) <= 3)
+            .min((a, b) -> distanceThenName(word, a, b))
+            .orElse(null);
+          checkEquals(best, tree.closest(word, 3));
+        }
+      }
+    );
+  }
+
+  private static int distanceThenName(String word, String a, String b) {
+    var c = Integer.compare(BKTree.distance(word, a), BKTree.distance(word, b));
+    return c != 0 ? c : a.compareTo(b);
+  }
+
+  private static BKTree words(String... words) {
+    var tree = new BKTree();
+    List.of(words).forEach(tree::add);
+    return tree;
+  }
+}
@@ -0,0 +1,41 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+import static com.gigamonkeys.dungeon.Test.*;
+
+class BenchTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Bench: the synthetic world has the shape its params say",
+      () ->
+        fresh(() -> {
+          var f = new Bench.Fixture(new Bench.Params(9, 5, 3));
+          checkEquals(9, f.rooms.length);
+          checkEquals(6, f.rooms[0].things().size());
+          check(f.rooms[0].thing(f.deepest).isPresent(), "the deepest thing is in the first room");
+          check(f.rooms[0].door(EAST).isPresent() && f.rooms[0].door(SOUTH).isPresent(), "rooms are in a grid");
+          check(f.rooms[8].door(EAST).isEmpty() && f.rooms[8].door(SOUTH).isEmpty(), "the grid has a corner");
+          return null;
+        })
+    );
+
+    t.test(
+      "Bench: every benchmark does the work it's named for, again and again",
+      () ->
+        fresh(() -> {
+          var f = new Bench.Fixture(new Bench.Params(4, 5, 2));
+          for (var b : Bench.benchmarks) {
+            var op = b.setup().apply(f);
+            for (var i = 0; i < 4; i++) check(op.get() != null, b.name());
+          }
+          var takeDrop = Bench.benchmarks.stream().filter(b -> b.name().contains("take/drop")).findFirst().get();
+          var op = takeDrop.setup().apply(f);
+          check(op.get().toString().contains("took"), "took the thing");
+          check(op.get().toString().contains("You drop"), "dropped the thing");
+          check(op.get().toString().contains("took"), "took the thing again");
+          return null;
+        })
+    );
+  }
+}
@@ -0,0 +1,50 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+class CorpusTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Corpus: run.txt still plays the way golden.txt says",
+      () -> checkEquals(Files.readString(Path.of("golden.txt")), Corpus.play(Files.readAllBytes(Path.of("run.txt"))))
+    );
+
+    t.test(
+      "Corpus: each script is reported with the first line that differs from its golden",
+      () -> {
+        var dir = Files.createTempDirectory("corpus");
+        try {
+          var golden = Corpus.play("take ring\ninventory\n".getBytes());
+          Files.writeString(dir.resolve("a.txt"), "take ring\ninventory\n");
+          Files.writeString(dir.resolve("a.golden"), golden);
+          Files.writeString(dir.resolve("b.txt"), "inventory\n");
+          Files.writeString(dir.resolve("b.golden"), golden);
+          Files.writeString(dir.resolve("c.txt"), "look\n");
+
+          var results = new Corpus().run(dir);
+          checkEquals(3, results.size());
+          check(results.get(0).passed(), results.get(0).toString());
+
+          var b = results.get(1);
+          checkEquals(dir.resolve("b.txt"), b.script());
+          checkEquals(golden.lines().toList().indexOf("> take ring") + 1, b.line());
+          checkEquals("> take ring", b.expected());
+          checkEquals("> inventory", b.actual());
+
+          var c = results.get(2);
+          checkEquals(1, c.line());
+          checkEquals("<no c.golden>", c.expected());
+        } finally {
+          try (var paths = Files.walk(dir)) {
+            for (var p : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+          }
+        }
+      }
+    );
+  }
+}
@@ -0,0 +1,104 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+class DungeonTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Dungeon: tokenize splits on anything but letters, digits, and underscores",
+      () -> {
+        checkEquals(List.of("take", "the", "ring"), List.of(Dungeon.tokenize("  take   the ring! ")));
+        checkEquals(List.of("go_to", "x2", "y"), List.of(Dungeon.tokenize("go_to x2,y")));
+        checkEquals(0, Dungeon.tokenize(" ,.! ").length);
+        checkEquals(0, Dungeon.tokenize("").length);
+      }
+    );
+
+    t.test(
+      "Dungeon: verbs can be abbreviated to any unique prefix",
+      () -> {
+        var game = game();
+        check(game.run("inv").contains("You've got nothing"), "inv is inventory");
+        check(game.run("tak ring").contains("took the ring"), "tak is take");
+        check(game.run("i").contains("You have a ring"), "i is inventory");
+      }
+    );
+
+    t.test(
+      "Dungeon: an ambiguous abbreviation lists what it could be",
+      () -> checkEquals("Which do you mean: take or travel?", game().run("t ring"))
+    );
+
+    t.test(
+      "Dungeon: a misspelled verb gets a suggestion",
+      () -> {
+        var game = game();
+        checkEquals("Don't know how to atack. Did you mean attack?", game.run("atack blobbyblob with ring"));
+        checkEquals("Don't know how to xyzzy.", game.run("xyzzy"));
+      }
+    );
+
+    t.test(
+      "Dungeon: replaying commands without their text leaves the game the same as playing them",
+      () -> {
+        var script = List.of(
+          "take sandwich", "eat sandwich", "eat ring", "take ring", "open tray", "go south",
+          "attack blobbyblob with ring", "eat blobbyblob", "take axe", "go north", "go east", "go south",
+          "open chest", "open chest", "close chest", "close chest", "open chest", "take dagger", "go north",
+          "take bread", "eat bread", "go east", "attack pirate with dagger", "go north", "open painting",
+          "open painting", "go north", "look", "look", "look", "look", "look", "look", "look"
+        );
+        var played = game();
+        var replayed = game();
+        for (var line : script) {
+          played.run(line);
+          World.using(replayed.player().world(), () -> replayed.dungeon().replay(Dungeon.tokenize(line)));
+        }
+        var a = SnapshotTest.temp();
+        var b = SnapshotTest.temp();
+        try {
+          Snapshot.save(played.player(), a);
+          Snapshot.save(replayed.player(), b);
+          check(Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b)), "the snapshots are the same");
+          checkEquals(played.run("inventory"), replayed.run("inventory"));
+        } finally {
+          Files.deleteIfExists(a);
+          Files.deleteIfExists(b);
+        }
+      }
+    );
+  }
+
+  /**
+   * A game of the Maze. Commands are run in the player's world.
+   */
+  record Game(Player player, Dungeon dungeon) {
+    String run(String line) {
+      return World.using(player.world(), () -> dungeon.doCommand(Dungeon.tokenize(line), player));
+    }
+  }
+
+  static Game game() {
+    return game(new World(), () -> new Maze().build());
+  }
+
+  /**
+   * A game played in the given world starting from the room start makes in it.
+   */
+  static Game game(World world, Supplier<Room> start) {
+    return World.using(
+      world,
+      () -> {
+        var player = new Player(start.get(), 20);
+        return new Game(player, new Dungeon(player, OutputStream.nullOutputStream()));
+      }
+    );
+  }
+}
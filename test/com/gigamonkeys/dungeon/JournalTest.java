@@ -0,0 +1,112 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+class JournalTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Journal: records are read back in the order they were written",
+      () -> {
+        var file = Files.createTempFile("journal", "");
+        try {
+          write(file);
+          var entries = read(file);
+          checkEquals(4, entries.size());
+          checkEquals(List.of("take", "ring"), List.of(entries.get(0).tokens()));
+          checkEquals(1L, entries.get(0).session());
+          checkEquals(List.of("say", "héllo"), List.of(entries.get(1).tokens()));
+          checkEquals(Journal.CHECKPOINT, entries.get(2).type());
+          checkEquals(256L, entries.get(2).number());
+          checkEquals(Journal.CLOSE, entries.get(3).type());
+          checkEquals(2L, entries.get(3).session());
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Journal: a torn last record ends the journal",
+      () -> {
+        var file = Files.createTempFile("journal", "");
+        try {
+          write(file);
+          try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+          }
+          checkEquals(3, read(file).size());
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Journal: a record whose CRC doesn't match ends the journal",
+      () -> {
+        var file = Files.createTempFile("journal", "");
+        try {
+          write(file);
+          // Flip a bit in the last byte of the second record's payload.
+          var second = start(file, 1);
+          var at = start(file, 2) - 1;
+          check(at > second + 8, "second record has a payload");
+          try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var b = ByteBuffer.allocate(1);
+            channel.read(b, at);
+            channel.write(b.put(0, (byte) (b.get(0) ^ 1)).rewind(), at);
+          }
+          checkEquals(1, read(file).size());
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Journal: there's nothing to read from a journal that doesn't exist",
+      () -> checkEquals(0, read(Path.of("no-such-journal")).size())
+    );
+  }
+
+  private static void write(Path file) throws IOException {
+    var journal = new Journal(file, Duration.ofMillis(1));
+    journal.command(1, new String[] { "take", "ring" });
+    journal.command(1, new String[] { "say", "héllo" });
+    journal.checkpoint(1, 256);
+    journal.ended(2);
+    journal.close();
+  }
+
+  // Where the nth record starts: each is an int length and an int CRC
+  // followed by that many bytes.
+  private static long start(Path file, int n) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      var at = 0L;
+      for (var i = 0; i < n; i++) {
+        channel.read(b.clear(), at);
+        at += 8 + b.getInt(0);
+      }
+      return at;
+    }
+  }
+
+  private static List<Journal.Entry> read(Path file) throws IOException {
+    var entries = new ArrayList<Journal.Entry>();
+    Journal.read(file, entries::add);
+    return entries;
+  }
+}
@@ -0,0 +1,67 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+
+class MazeGeneratorTest {
+
+  static void tests(Test t) {
+    t.test(
+      "MazeGenerator: every room can be reached from every other",
+      () -> {
+        // Small blocks so the maze is several blocks joined together.
+        var params = new MazeGenerator.Params(30, 20, 7, 0.05, 3, 8);
+        var world = new World();
+        World.using(
+          world,
+          () -> {
+            var rooms = new MazeGenerator(params).generate();
+            checkEquals(params.rooms(), rooms.length);
+            var seen = new HashSet<Room>();
+            var queue = new ArrayDeque<Room>();
+            seen.add(rooms[0]);
+            queue.add(rooms[0]);
+            while (!queue.isEmpty()) {
+              var room = queue.remove();
+              for (var d : Direction.values()) {
+                room.door(d).map(door -> door.from(room)).filter(seen::add).ifPresent(queue::add);
+              }
+            }
+            checkEquals(params.rooms(), seen.size());
+          }
+        );
+      }
+    );
+
+    t.test(
+      "MazeGenerator: the same seed makes the same maze",
+      () -> {
+        var a = Files.createTempFile("maze", ".sav");
+        var b = Files.createTempFile("maze", ".sav");
+        var c = Files.createTempFile("maze", ".sav");
+        try {
+          save(new MazeGenerator.Params(40, 40, 99, 0.05, 3, 16), a);
+          save(new MazeGenerator.Params(40, 40, 99, 0.05, 3, 16), b);
+          save(new MazeGenerator.Params(40, 40, 100, 0.05, 3, 16), c);
+          check(Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b)), "same seed, same maze");
+          check(!Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(c)), "different seed, different maze");
+        } finally {
+          Files.deleteIfExists(a);
+          Files.deleteIfExists(b);
+          Files.deleteIfExists(c);
+        }
+      }
+    );
+  }
+
+  private static void save(MazeGenerator.Params params, Path file) throws IOException {
+    var player = fresh(() -> new Player(new MazeGenerator(params).build(), 20));
+    Snapshot.save(player, file);
+  }
+}
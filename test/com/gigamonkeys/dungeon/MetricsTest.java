@@ -0,0 +1,86 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+
+class MetricsTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Metrics: every value's bucket holds it to within an eighth",
+      () -> {
+        var values = new ArrayList<Long>();
+        for (var v = 0L; v < 5000; v++) values.add(v);
+        for (var shift = 13; shift < 63; shift++) {
+          values.add((1L << shift) - 1);
+          values.add(1L << shift);
+          values.add((1L << shift) + (1L << (shift - 2)) + 17);
+        }
+        values.add(Long.MAX_VALUE);
+        for (var v : values) {
+          var b = Metrics.Histogram.bucket(v);
+          var highest = Metrics.Histogram.highest(b);
+          check(highest >= v, v + " fits in its bucket");
+          check(highest - v <= v / 8, v + " is within an eighth of " + highest);
+          if (b > 0) check(Metrics.Histogram.highest(b - 1) < v, v + " doesn't fit in the bucket before");
+        }
+      }
+    );
+
+    t.test(
+      "Metrics: percentiles are the top of the bucket they fall in",
+      () -> {
+        var h = new Metrics.Histogram();
+        checkEquals(0L, h.percentile(0.5));
+        for (var v = 1; v <= 1000; v++) h.record(v);
+        checkEquals(1000L, h.count());
+        checkEquals(1000L, h.max());
+        checkEquals(500.5, h.mean());
+        var p50 = h.percentile(0.5);
+        check(p50 >= 500 && p50 <= 500 + 500 / 8, "p50 is about 500: " + p50);
+        var p99 = h.percentile(0.99);
+        check(p99 >= 990 && p99 <= 1000, "p99 is about 990: " + p99);
+        checkEquals(1000L, h.percentile(1.0));
+      }
+    );
+
+    t.test(
+      "Metrics: values are recorded from many threads at once without losing any",
+      () -> {
+        var h = new Metrics.Histogram();
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < 8; i++) {
+          var n = i;
+          threads.add(Thread.ofPlatform().start(() -> {
+            for (var v = 0; v < 10_000; v++) h.record(v * 8 + n);
+          }));
+        }
+        for (var th : threads) th.join();
+        checkEquals(80_000L, h.count());
+        checkEquals(79_999L, h.max());
+      }
+    );
+
+    t.test(
+      "Metrics: commands, turns, and bad commands are counted by verb",
+      () -> {
+        var m = new Metrics();
+        m.command("go", 1_000, 40);
+        m.command("go", 3_000, 60);
+        m.bad("go");
+        var r = new Reactions();
+        m.turn("take", 2_000, r);
+        var values = m.values();
+        checkEquals(2L, values.get("go.command.count"));
+        checkEquals(3_000L, values.get("go.command.max"));
+        checkEquals(1L, values.get("go.bad"));
+        checkEquals(0L, values.get("go.turn.count"));
+        checkEquals(1L, values.get("take.turn.count"));
+        checkEquals(1L, values.get("reactions.count"));
+        checkEquals(100L, values.get("output.chars"));
+        check(values.containsKey("go.command.p99.9"), "p99.9 is labeled");
+      }
+    );
+  }
+}
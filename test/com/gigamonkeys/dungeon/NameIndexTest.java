@@ -0,0 +1,90 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+import java.util.Optional;
+
+class NameIndexTest {
+
+  static void tests(Test t) {
+    t.test(
+      "NameIndex: things are found by name however deeply they're nested",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            game.run("go east");
+            game.run("go south");
+            var storeroom = game.player().room().index().get();
+            checkEquals("chest", storeroom.thing("chest").map(Thing::name).orElse(null));
+            checkEquals("dagger", storeroom.thing("dagger").map(Thing::name).orElse(null));
+            checkEquals(Optional.empty(), storeroom.thing("ring"));
+          }
+        );
+      }
+    );
+
+    t.test(
+      "NameIndex: taking and dropping things moves them between indexes",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            var entry = game.player().room().index().get();
+            var inventory = game.player().index().get();
+            var before = entry.size();
+            check(entry.thing("ring").isPresent(), "the ring is in the entryway");
+            game.run("take ring");
+            checkEquals(before - 1, entry.size());
+            checkEquals(Optional.empty(), entry.thing("ring"));
+            check(inventory.thing("ring").isPresent(), "the player has the ring");
+            game.run("drop ring");
+            check(entry.thing("ring").isPresent(), "the ring is back in the entryway");
+            checkEquals(Optional.empty(), inventory.thing("ring"));
+          }
+        );
+      }
+    );
+
+    t.test(
+      "NameIndex: names can be abbreviated until the last thing with the name is gone",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            var entry = game.player().room().index().get();
+            checkEquals("sandwich", entry.name("sand"));
+            checkEquals("pedestal", entry.name("ped"));
+            checkEquals(List.of("pedestal"), entry.names("pe"));
+            checkEquals(null, entry.name("x"));
+            game.run("take sandwich");
+            checkEquals(null, entry.name("sand"));
+            game.run("drop sandwich");
+            checkEquals("sandwich", entry.name("sand"));
+          }
+        );
+      }
+    );
+
+    t.test(
+      "NameIndex: misspelled names are suggested until the last thing with the name is gone",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            var entry = game.player().room().index().get();
+            checkEquals(Optional.of("sandwich"), entry.suggestion("sanwich"));
+            game.run("take sandwich");
+            checkEquals(Optional.empty(), entry.suggestion("sanwich"));
+          }
+        );
+      }
+    );
+  }
+}
@@ -0,0 +1,97 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+class ReactionsTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Reactions: each reaction's own reactions run, one reaction at a time",
+      () -> {
+        var heard = new ArrayList<String>();
+        var r = run(
+          Reactions.DEFAULT,
+          heard,
+          w ->
+            switch (w) {
+              case "go" -> Stream.of("x1", "x2");
+              case "x1" -> Stream.of("x1a");
+              default -> Stream.empty();
+            },
+          w -> w.equals("go") ? Stream.of("y1") : Stream.empty()
+        );
+        checkEquals(List.of("go", "go", "x1", "x1", "x1a", "x1a", "x2", "x2", "y1", "y1"), heard);
+        checkEquals(4, r.count());
+        checkEquals(2, r.depth());
+        checkEquals(Optional.empty(), r.report());
+      }
+    );
+
+    t.test(
+      "Reactions: chains of reactions can only go so deep",
+      () -> {
+        var r = run(new Reactions.Limits(3, 100), new ArrayList<>(), w -> Stream.of(w + "!"));
+        checkEquals(3, r.count());
+        checkEquals(3, r.depth());
+        checkEquals(Optional.of("Reactions stopped 3 deep."), r.report());
+      }
+    );
+
+    t.test(
+      "Reactions: a turn can only have so many reactions, even from an endless stream",
+      () -> {
+        var r = run(new Reactions.Limits(10, 5), new ArrayList<>(), w -> Stream.iterate(w, s -> s + "?").skip(1));
+        checkEquals(5, r.count());
+        checkEquals(Optional.of("Reactions stopped after 5 in one turn."), r.report());
+      }
+    );
+
+    t.test(
+      "Reactions: a reaction that repeats what caused it is dropped",
+      () -> {
+        var r = run(Reactions.DEFAULT, new ArrayList<>(), w -> Stream.of(w.equals("go") ? "again" : "go"));
+        checkEquals(1, r.count());
+        checkEquals(Optional.of("Ignored a reaction that repeats what caused it."), r.report());
+      }
+    );
+  }
+
+  // Run the reactions to someone saying "go" in a room with a listener for
+  // each function, which says whatever its function returns for what it hears.
+  @SafeVarargs
+  private static Reactions run(Reactions.Limits limits, List<String> heard, Function<String, Stream<String>>... listeners) {
+    return fresh(() -> {
+      var room = new Room("a room");
+      for (var i = 0; i < listeners.length; i++) {
+        room.placeThing(new Listener("listener" + i, heard, listeners[i]), "in the corner");
+      }
+      var reactions = new Reactions(limits);
+      reactions.run(new Action.Talk("go"), new Player(room, 20));
+      return reactions;
+    });
+  }
+
+  private static class Listener extends Thing.Furniture {
+
+    private final List<String> heard;
+    private final Function<String, Stream<String>> fn;
+
+    Listener(String name, List<String> heard, Function<String, Stream<String>> fn) {
+      super(name, name);
+      this.heard = heard;
+      this.fn = fn;
+    }
+
+    @Override
+    public Stream<Action> onTalk(Action.Talk a) {
+      heard.add(a.what());
+      return fn.apply(a.what()).map(Action.Talk::new);
+    }
+  }
+}
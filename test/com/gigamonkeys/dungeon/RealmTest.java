@@ -0,0 +1,111 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class RealmTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Realm: players in the same world see what each other did",
+      () -> {
+        try (var realm = new Realm()) {
+          var a = new SessionHostTest.Transcript();
+          var b = new SessionHostTest.Transcript();
+          var alice = join(realm, a);
+          var bob = join(realm, b);
+          checkEquals(2, realm.size());
+
+          play(alice, a, "take ring");
+          check(a.toString().contains("took the ring"), a.toString());
+          play(bob, b, "take ring");
+          check(!b.toString().contains("took the ring"), "bob can't take the ring alice has");
+          play(alice, a, "go east", "drop ring");
+          play(bob, b, "go east", "take ring");
+          check(b.toString().contains("took the ring"), "bob took the ring alice dropped");
+        }
+      }
+    );
+
+    t.test(
+      "Realm: things passed around by many players at once are never lost or doubled",
+      () -> {
+        try (var realm = new Realm()) {
+          var threads = new ArrayList<Thread>();
+          var sessions = new ArrayList<Realm.Session>();
+          for (var i = 0; i < 8; i++) {
+            var out = new SessionHostTest.Transcript();
+            var session = join(realm, out);
+            sessions.add(session);
+            threads.add(
+              Thread.startVirtualThread(() -> {
+                try {
+                  for (var j = 0; j < 20; j++) play(session, out, "take ring", "drop ring", "go east", "go west");
+                } catch (InterruptedException ie) {
+                  throw new AssertionError(ie);
+                }
+              })
+            );
+          }
+          for (var thread : threads) thread.join();
+
+          var player = sessions.get(0).player();
+          var rings = World.using(
+            player.world(),
+            () -> {
+              var all = new ArrayList<Thing>(player.room().allThings().toList());
+              for (var s : sessions) all.addAll(s.player().allThings().toList());
+              return all.stream().filter(thing -> thing.name().equals("ring")).count();
+            }
+          );
+          checkEquals(1L, rings);
+        }
+      }
+    );
+
+    t.test(
+      "Realm: turns in a shared world can't be undone",
+      () -> {
+        try (var realm = new Realm()) {
+          var out = new SessionHostTest.Transcript();
+          var session = join(realm, out);
+          play(session, out, "take ring", "undo", "inventory");
+          check(out.toString().contains("There's nothing to undo."), out.toString());
+          check(out.toString().contains("ring of great power"), "still has the ring");
+        }
+      }
+    );
+
+    t.test(
+      "Realm: a closed session leaves the realm",
+      () -> {
+        try (var realm = new Realm()) {
+          var out = new SessionHostTest.Transcript();
+          var session = join(realm, out);
+          session.close();
+          session.join();
+          check(!session.running(), "the session stopped");
+          checkEquals(0, realm.size());
+          checkEquals(List.of(), List.copyOf(realm.sessions()));
+        }
+      }
+    );
+  }
+
+  private static Realm.Session join(Realm realm, SessionHostTest.Transcript out) throws InterruptedException {
+    var session = realm.join(out);
+    out.await();
+    return session;
+  }
+
+  // Send each line and wait for the prompt after it.
+  private static void play(Realm.Session session, SessionHostTest.Transcript out, String... lines)
+    throws InterruptedException {
+    for (var line : lines) {
+      session.send(line);
+      out.await();
+    }
+  }
+}
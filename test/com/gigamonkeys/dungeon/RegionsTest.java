@@ -0,0 +1,167 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+class RegionsTest {
+
+  // 32 regions of 8 x 8 rooms with a budget of about two regions' worth.
+  private static final MazeGenerator.Params PARAMS = new MazeGenerator.Params(64, 32, 5, 0.05, 3, 8);
+  private static final long BUDGET = 2 * 8 * 8 * 4 * Regions.ENTITY_BYTES;
+
+  static void tests(Test t) {
+    t.test(
+      "Regions: every room can be walked to while regions are loaded and unloaded",
+      () -> {
+        var dir = Files.createTempDirectory("regions");
+        try {
+          inFreshWorld(
+            () -> {
+              try (var regions = new Regions(PARAMS, dir, BUDGET)) {
+                var walk = new Walk(new Player(regions.start(), 20));
+                while (walk.step()) {}
+                checkEquals(PARAMS.rooms(), walk.visited.cardinality());
+                var stats = regions.stats();
+                check(stats.unloads() > 0, "regions were unloaded");
+                check(stats.loaded() < 32, "not every region is loaded");
+                checkEquals(stats.loads(), stats.unloads() + stats.loaded());
+              }
+              return null;
+            }
+          );
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "Regions: changes to a region are kept when it's unloaded and loaded again",
+      () -> {
+        var dir = Files.createTempDirectory("regions");
+        try {
+          // Walk to the first thing that can be taken, carry it to the next
+          // room, and keep walking until both rooms' regions are unloaded.
+          var counts = new int[2];
+          var steps = inFreshWorld(
+            () -> {
+              try (var regions = new Regions(PARAMS, dir, BUDGET)) {
+                var player = new Player(regions.start(), 20);
+                var walk = new Walk(player);
+                var n = 0;
+                while (takeable(player.room()) == 0) {
+                  check(walk.step(), "found something to take");
+                  n++;
+                }
+                var first = player.room().id();
+                counts[0] = takeable(player.room());
+                var thing = player.room().things().stream().filter(Thing::canBeTaken).findFirst().get();
+                new Action.Take(player, List.of(thing)).apply();
+                walk.step();
+                var second = player.room().id();
+                counts[1] = takeable(player.room());
+                new Action.Drop(player, thing).apply();
+                while (regions.loaded(first) || regions.loaded(second)) check(walk.step(), "left the regions behind");
+                regions.flush();
+                check(regions.stats().writes() > 0, "the changed region was written");
+                return n;
+              }
+            }
+          );
+
+          // The same walk in a fresh world finds the thing where it was left.
+          inFreshWorld(
+            () -> {
+              try (var regions = new Regions(PARAMS, dir, BUDGET)) {
+                var player = new Player(regions.start(), 20);
+                var walk = new Walk(player);
+                for (var i = 0; i < steps; i++) walk.step();
+                checkEquals(counts[0] - 1, takeable(player.room()));
+                walk.step();
+                checkEquals(counts[1] + 1, takeable(player.room()));
+              }
+              return null;
+            }
+          );
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+  }
+
+  private static int takeable(Room room) {
+    return (int) room.things().stream().filter(Thing::canBeTaken).count();
+  }
+
+  /**
+   * A depth-first walk through every room, one move at a time.
+   */
+  private static class Walk {
+
+    final Player player;
+    final BitSet visited = new BitSet();
+    final ArrayDeque<Direction> path = new ArrayDeque<>();
+
+    Walk(Player player) {
+      this.player = player;
+      visited.set(player.room().id());
+    }
+
+    // Take the next step, returning false once there's nowhere left to go.
+    boolean step() {
+      var room = player.room();
+      Direction next = null;
+      for (var d : Direction.values()) {
+        var door = room.door(d);
+        if (door.isPresent() && !visited.get(door.get().from(room).id())) {
+          next = d;
+          break;
+        }
+      }
+      if (next != null) {
+        path.push(next);
+      } else if (!path.isEmpty()) {
+        next = path.pop().opposite();
+      } else {
+        return false;
+      }
+      player.enter(room.door(next).get());
+      visited.set(player.room().id());
+      return true;
+    }
+  }
+
+  interface Play<T> {
+    T run() throws IOException;
+  }
+
+  // Run fn in a world of its own.
+  private static <T> T inFreshWorld(Play<T> fn) throws IOException {
+    try {
+      return fresh(() -> {
+        try {
+          return fn.run();
+        } catch (IOException ioe) {
+          throw new UncheckedIOException(ioe);
+        }
+      });
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (var paths = Files.walk(dir)) {
+      for (var p : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+    }
+  }
+}
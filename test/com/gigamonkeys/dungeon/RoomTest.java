@@ -0,0 +1,78 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+
+class RoomTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Room: the description is kept until something in the room changes",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            var entry = game.player().room();
+            var first = entry.description();
+            check(entry.description() == first, "described once");
+            game.run("inventory");
+            check(entry.description() == first, "still the same after a turn that changes nothing");
+            game.run("take ring");
+            var second = entry.description();
+            check(second != first && !second.contains("ring"), "described again without the ring");
+            check(entry.description() == second, "and kept");
+          }
+        );
+      }
+    );
+
+    t.test(
+      "Room: a change to something inside something in the room changes the description",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            game.run("go east");
+            game.run("go south");
+            var storeroom = game.player().room();
+            check(storeroom.description().contains("closed wooden treasure"), "the chest is closed");
+            game.run("open chest");
+            check(storeroom.description().contains("open wooden treasure"), "the chest is open");
+            game.run("take dagger");
+            check(!storeroom.description().contains("dagger"), "the dagger is gone");
+          }
+        );
+      }
+    );
+
+    t.test(
+      "Room: only the things that handle an action are told about it",
+      () -> {
+        var game = game();
+        World.using(
+          game.player().world(),
+          () -> {
+            game.run("go east");
+            game.run("take bread");
+            game.run("go east");
+            var dining = game.player().room();
+            checkEquals(List.of("parrot"), names(dining.listeners(Action.Drop.class)));
+            checkEquals(List.of("pirate"), names(dining.listeners(Action.Take.class)));
+            checkEquals(List.of(), names(dining.listeners(Action.Eat.class)));
+            game.run("drop bread");
+            game.run("take parrot");
+            checkEquals(List.of(), names(dining.listeners(Action.Drop.class)));
+          }
+        );
+      }
+    );
+  }
+
+  private static List<String> names(List<Thing> things) {
+    return things.stream().map(Thing::name).toList();
+  }
+}
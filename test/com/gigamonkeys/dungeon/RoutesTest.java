@@ -0,0 +1,92 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Direction.*;
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+import java.util.Optional;
+
+class RoutesTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Routes: the nearest room with the right description is found by its words",
+      () -> {
+        var game = game();
+        checkEquals(Optional.of(List.of(EAST)), route(game, "kitchen"));
+        checkEquals(Optional.of(List.of(EAST, SOUTH)), route(game, "storeroom"));
+        checkEquals(Optional.of(List.of()), route(game, "dusty", "entryway"));
+        checkEquals(Optional.empty(), route(game, "dungeon"));
+      }
+    );
+
+    t.test(
+      "Routes: the routes go through a door opened since they were made",
+      () -> {
+        var game = game();
+        checkEquals("Can't find the way to any massive throneroom.", game.run("travel to massive throneroom"));
+        for (var line : List.of("go east", "go east", "go north", "open painting", "go south", "go west", "go west")) {
+          game.run(line);
+        }
+        checkEquals(Optional.of(List.of(EAST, EAST, NORTH, NORTH)), route(game, "massive", "throneroom"));
+        check(game.run("travel to massive throneroom").startsWith("You go east and east and stop."), "the pirate stops you");
+      }
+    );
+
+    t.test(
+      "Routes: only words the rooms use are remembered, and only so many of them",
+      () -> {
+        var game = game();
+        var routes = routes(game);
+        for (var i = 0; i < 100; i++) checkEquals(Optional.empty(), route(game, "nowhere" + i));
+        checkEquals(Optional.empty(), route(game, "dusty", "nowhere"));
+        checkEquals(0, routes.cached());
+
+        checkEquals(Optional.of(List.of()), route(game, "entryway", "dusty"));
+        checkEquals(1, routes.cached());
+        for (var i = 1; i <= Routes.FOUND + 10; i++) route(game, "dusty ".repeat(i).split(" "));
+        checkEquals(Routes.FOUND, routes.cached());
+      }
+    );
+
+    t.test(
+      "Routes: overlays share their base's routes until they change the doors",
+      () -> {
+        var base = new World();
+        var start = World.using(base, () -> new Maze().build());
+        var a = game(base.fork(), () -> start);
+        var b = game(base.fork(), () -> start);
+        var shared = base.routes();
+        check(a.player().world().routes() == shared, "a uses the base's routes");
+        check(b.player().world().routes() == shared, "b uses the base's routes");
+
+        a.run("go east");
+        a.run("take bread");
+        check(a.player().world().routes() == shared, "moving things doesn't change the doors");
+
+        a.run("go east");
+        a.run("go north");
+        a.run("open painting");
+        check(a.player().world().routes() != shared, "a made its own routes after opening the painting");
+        check(b.player().world().routes() == shared, "b still uses the base's routes");
+        check(base.routes() == shared, "the base's routes are unchanged");
+
+        checkEquals(Optional.of(List.of(NORTH)), route(a, "throneroom"));
+        checkEquals("Can't find the way to any massive throneroom.", b.run("travel to massive throneroom"));
+      }
+    );
+  }
+
+  // The routes of the world the game is in.
+  private static Routes routes(DungeonTest.Game game) {
+    var world = game.player().world();
+    return World.using(world, world::routes);
+  }
+
+  // The route from where the player is to the nearest room described by words.
+  private static Optional<List<Direction>> route(DungeonTest.Game game, String... words) {
+    var player = game.player();
+    return World.using(player.world(), () -> player.world().routes().route(player.room(), List.of(words)));
+  }
+}
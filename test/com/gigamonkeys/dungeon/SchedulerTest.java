@@ -0,0 +1,152 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+class SchedulerTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Scheduler: actions come due on their turn from every wheel and the overflow",
+      () -> {
+        var s = new Scheduler();
+        for (var i = 0; i < 37; i++) s.tick();
+        var turns = new int[] { 1, 2, 26, 27, 63, 64, 65, 4059, 4060, 4096, 262144, 262145, 16777216, 16777300 };
+        for (var n : turns) s.schedule(n, new Action.Talk("" + n));
+        checkEquals(turns.length, s.pending());
+
+        var due = new HashMap<String, Long>();
+        while (s.pending() > 0) {
+          for (var a : s.tick()) due.put(((Action.Talk) a).what(), s.now());
+        }
+        for (var n : turns) checkEquals(37L + n, due.get("" + n));
+      }
+    );
+
+    t.test(
+      "Scheduler: actions due on the same turn come out in the order they were scheduled",
+      () -> {
+        var s = new Scheduler();
+        s.schedule(70, new Action.Talk("a"));
+        s.schedule(5, new Action.Talk("b"));
+        for (var i = 0; i < 3; i++) s.tick();
+        s.schedule(67, new Action.Talk("c"));
+        for (var i = 3; i < 69; i++) s.tick();
+        s.schedule(1, new Action.Talk("d"));
+        checkEquals(List.of(new Action.Talk("a"), new Action.Talk("c"), new Action.Talk("d")), s.tick());
+        checkEquals(0, s.pending());
+      }
+    );
+
+    t.test(
+      "Scheduler: a copy ticks separately and clear forgets everything",
+      () -> {
+        var s = new Scheduler();
+        s.schedule(3, new Action.Talk("a"));
+        s.schedule(100, new Action.Talk("b"));
+        s.tick();
+        var copy = s.copy();
+
+        checkEquals(List.of(new Action.Talk("a"), new Action.Talk("b")), drain(s));
+        checkEquals(1L, copy.now());
+        checkEquals(2, copy.pending());
+        copy.schedule(1, new Action.Talk("c"));
+        checkEquals(List.of(new Action.Talk("c"), new Action.Talk("a"), new Action.Talk("b")), drain(copy));
+
+        s.schedule(1, new Action.Talk("d"));
+        s.clear();
+        checkEquals(0, s.pending());
+        checkEquals(List.of(), s.tick());
+        checkEquals(101L, s.now());
+      }
+    );
+
+    t.test(
+      "Scheduler: actions can only be scheduled for later turns",
+      () -> {
+        try {
+          new Scheduler().schedule(0, new Action.Talk("now"));
+        } catch (IllegalArgumentException iae) {
+          return;
+        }
+        throw new AssertionError("expected an IllegalArgumentException");
+      }
+    );
+
+    t.test(
+      "Scheduler: an opened box slams shut by itself a few turns later",
+      () -> {
+        var game = game(new World(), SchedulerTest::maze);
+        game.run("open box");
+        checkEquals(1, game.player().world().scheduler().pending());
+        // Opening it was the first turn and the look it slams on is the last.
+        var turns = 1;
+        while (!game.run("look").replace('\n', ' ').contains("lid slams shut")) {
+          check(++turns < 20, "the lid slammed");
+        }
+        checkEquals(Box.PROPPED, turns + 1);
+        checkEquals(0, game.player().world().scheduler().pending());
+        check(game.run("look").replace('\n', ' ').contains("a closed wooden box"), "the box is closed");
+      }
+    );
+  }
+
+  /**
+   * The stock maze with a box in the entryway whose lid falls shut a few turns
+   * after it's opened.
+   */
+  static Room maze() {
+    var start = new Maze().build();
+    start.placeThing(new Box(), "in the corner");
+    return start;
+  }
+
+  static class Box extends Thing.Furniture {
+
+    // Turns the lid stays up once opened.
+    static final int PROPPED = 8;
+
+    Box() {
+      super("box", "wooden box");
+    }
+
+    @Override
+    public String description() {
+      return (isOpen() ? "open " : "closed ") + super.description();
+    }
+
+    public String open() {
+      if (isOpen()) return "The box is already open.";
+      applyOpen();
+      return "The box creaks open.";
+    }
+
+    public void applyOpen() {
+      if (!isOpen()) {
+        setOpen(true);
+        after(PROPPED, new Action.Shut(this, "Somewhere a heavy lid slams shut with a bang."));
+      }
+    }
+
+    public String close() {
+      if (!isOpen()) return "The box is already closed.";
+      applyClose();
+      return "The box snaps shut.";
+    }
+
+    public void applyClose() {
+      if (isOpen()) setOpen(false);
+    }
+  }
+
+  // Tick until nothing is pending, collecting what came due.
+  private static List<Action> drain(Scheduler s) {
+    var due = new ArrayList<Action>();
+    while (s.pending() > 0) due.addAll(s.tick());
+    return due;
+  }
+}
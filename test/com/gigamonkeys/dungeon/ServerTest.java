@@ -0,0 +1,152 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+class ServerTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Server: lines are put back together however they arrive",
+      () -> {
+        var game = new Recorder();
+        try (var server = server(out -> game.start(out)); var socket = connect(server)) {
+          var out = socket.getOutputStream();
+          for (var piece : new String[] { "hel", "lo\r\nwor", "ld\n", "x".repeat(3000), "\nlast\n" }) {
+            out.write(piece.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+          }
+          checkEquals("hello", game.next());
+          checkEquals("world", game.next());
+          checkEquals("x".repeat(Server.MAX_LINE), game.next());
+          checkEquals("last", game.next());
+        }
+      }
+    );
+
+    t.test(
+      "Server: a game's output goes to its client, which is let go when the game ends",
+      () -> {
+        var game = new Recorder();
+        try (var server = server(out -> game.start(out)); var socket = connect(server)) {
+          socket.getOutputStream().write("hello\n".getBytes());
+          checkEquals("hello", game.next());
+          game.out.write("goodbye\n".getBytes());
+          game.out.close();
+          checkEquals("goodbye\n", new String(socket.getInputStream().readAllBytes()));
+          await(() -> server.connections() == 0, "the connection was closed");
+        }
+      }
+    );
+
+    t.test(
+      "Server: a client going away ends its game",
+      () -> {
+        var game = new Recorder();
+        try (var server = server(out -> game.start(out))) {
+          var socket = connect(server);
+          socket.getOutputStream().write("hello\n".getBytes());
+          checkEquals("hello", game.next());
+          checkEquals(1, server.connections());
+          socket.close();
+          check(game.closed.await(10, TimeUnit.SECONDS), "the game was closed");
+          await(() -> server.connections() == 0, "the connection was dropped");
+        }
+      }
+    );
+
+    t.test(
+      "Server: a client that doesn't read holds up its game instead of piling up output",
+      () -> {
+        var game = new Recorder();
+        var total = 64L * 1024 * 1024;
+        var written = new AtomicLong();
+        try (var server = server(out -> game.start(out)); var socket = connect(server)) {
+          socket.getOutputStream().write("hello\n".getBytes());
+          checkEquals("hello", game.next());
+          var writer = Thread.startVirtualThread(() -> {
+            var chunk = new byte[1024];
+            try {
+              while (written.get() < total) {
+                game.out.write(chunk);
+                written.addAndGet(chunk.length);
+              }
+              game.out.close();
+            } catch (IOException ioe) {
+              throw new RuntimeException(ioe);
+            }
+          });
+          // Once the socket's buffers are full the game stops, with between
+          // LOW_WATER and HIGH_WATER bytes of output waiting.
+          var before = -1L;
+          for (var i = 0; i < 100 && written.get() != before; i++) {
+            before = written.get();
+            Thread.sleep(100);
+          }
+          check(written.get() == before && written.get() < total, "the game is held up");
+          check(server.maxBacklog() <= Server.HIGH_WATER + 1024, "backlog is bounded: " + server.maxBacklog());
+
+          checkEquals(total, socket.getInputStream().transferTo(OutputStream.nullOutputStream()));
+          writer.join();
+        }
+      }
+    );
+  }
+
+  private static Server server(Function<OutputStream, Game> games) throws IOException {
+    return new Server(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), games, 1);
+  }
+
+  private static Socket connect(Server server) throws IOException {
+    return new Socket(InetAddress.getLoopbackAddress(), server.port());
+  }
+
+  // Wait for something that happens on the server's threads.
+  private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+    for (var i = 0; i < 1000 && !condition.getAsBoolean(); i++) Thread.sleep(10);
+    check(condition.getAsBoolean(), what);
+  }
+
+  /**
+   * A game that just keeps the lines sent to it and lets the test write its
+   * output.
+   */
+  private static class Recorder implements Game {
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile OutputStream out;
+
+    Game start(OutputStream out) {
+      this.out = out;
+      return this;
+    }
+
+    public void send(String line) {
+      lines.add(line);
+    }
+
+    public void close() {
+      closed.countDown();
+    }
+
+    String next() throws InterruptedException {
+      var line = lines.poll(10, TimeUnit.SECONDS);
+      if (line == null) throw new AssertionError("No line sent to the game.");
+      return line;
+    }
+  }
+}
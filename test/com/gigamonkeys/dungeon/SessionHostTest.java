@@ -0,0 +1,305 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+class SessionHostTest {
+
+  static void tests(Test t) {
+    t.test(
+      "SessionHost: many games run at once without seeing each other",
+      () -> {
+        var host = new SessionHost();
+        var outs = new ArrayList<Transcript>();
+        var sessions = new ArrayList<SessionHost.Session>();
+        for (var i = 0; i < 500; i++) {
+          var out = new Transcript();
+          outs.add(out);
+          sessions.add(host.create(out));
+        }
+        checkEquals(500, host.size());
+        for (var out : outs) out.await();
+        for (var s : sessions) s.send("take ring");
+        for (var out : outs) {
+          out.await();
+          check(out.toString().contains("took the ring"), "every game has its own ring");
+        }
+        host.close();
+        for (var s : sessions) s.join();
+        checkEquals(0, host.size());
+      }
+    );
+
+    t.test(
+      "SessionHost: a game leaves the host when it's closed or over",
+      () -> {
+        var host = new SessionHost();
+        var a = new Transcript();
+        var b = new Transcript();
+        var first = create(host, a);
+        var second = create(host, b);
+        check(host.close(first.id()), "closed the first");
+        first.join();
+        check(!first.running(), "the first stopped");
+        check(host.session(first.id()).isEmpty(), "the first is gone");
+        check(!host.close(first.id()), "can't close it twice");
+
+        second.send("quit");
+        second.join();
+        checkEquals(0, host.size());
+      }
+    );
+
+    t.test(
+      "SessionHost: a stopped host's games are recovered where they were",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var out = new Transcript();
+          var host = host(dir, out);
+          var session = create(host, out);
+          play(session, out, "take ring", "go east", "take bread", "go south", "open chest");
+          host.close();
+
+          var again = new Transcript();
+          var recovered = host(dir, again);
+          checkEquals(1, recovered.size());
+          var s = recovered.sessions().iterator().next();
+          again.await();
+          play(s, again, "inventory");
+          check(again.toString().contains("You have a ring of great power and a loaf of bread."), again.toString());
+          play(s, again, "take dagger");
+          check(again.toString().contains("took the jeweled dagger"), "still in the storeroom with the chest open");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "SessionHost: undo is never journaled and works back past a checkpoint",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var out = new Transcript();
+          var host = host(dir, out);
+          var session = create(host, out);
+          // Taking the ring is the command that gets the game checkpointed.
+          for (var i = 1; i < SessionHost.CHECKPOINT_EVERY; i++) play(session, out, "inventory");
+          play(session, out, "take ring", "go east", "undo", "undo");
+          play(session, out, "inventory");
+          check(out.toString().endsWith("You've got nothing!\n\n> "), "the ring was put back");
+          host.close();
+
+          var undos = new ArrayList<String>();
+          Journal.read(
+            dir.resolve("journal"),
+            e -> {
+              if (e.type() == Journal.COMMAND && e.tokens()[0].equals("undo")) undos.add("undo");
+            }
+          );
+          checkEquals(0, undos.size());
+
+          var again = new Transcript();
+          var recovered = host(dir, again);
+          var s = recovered.sessions().iterator().next();
+          again.await();
+          play(s, again, "inventory", "look");
+          check(again.toString().contains("You've got nothing!"), "the ring is still back after recovery");
+          check(again.toString().contains("On the pedestal is a ring"), "back in the entryway");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "SessionHost: a line too long to be a command is turned away and the game goes on",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var out = new Transcript();
+          var host = host(dir, out);
+          var session = create(host, out);
+          play(session, out, "take " + "ring ".repeat(1 << 20), "take ring");
+          check(out.toString().contains("That's too long."), out.toString());
+          check(out.toString().contains("took the ring"), "the game went on");
+          host.close();
+
+          var again = new Transcript();
+          var recovered = host(dir, again);
+          again.await();
+          play(recovered.sessions().iterator().next(), again, "inventory");
+          check(again.toString().contains("You have a ring"), "recovered past the long line");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "SessionHost: a game whose snapshot is corrupt is ended and the others are recovered",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var outs = new HashMap<Long, Transcript>();
+          var host = host(dir, outs);
+          var a = new Transcript();
+          var b = new Transcript();
+          play(create(host, a), a, "take ring");
+          play(create(host, b), b, "take ring");
+          host.close();
+          // Starting again checkpoints both games.
+          host(dir, outs).close();
+
+          try (var snapshots = Files.newDirectoryStream(dir, "session-1-*")) {
+            for (var path : snapshots) {
+              try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 6);
+              }
+            }
+          }
+          outs.clear();
+          var recovered = host(dir, outs);
+          checkEquals(1, recovered.size());
+          check(outs.get(1L).toString().contains("Couldn't recover your game"), outs.get(1L).toString());
+          var s = recovered.sessions().iterator().next();
+          checkEquals(2L, s.id());
+          outs.get(2L).await();
+          play(s, outs.get(2L), "inventory");
+          check(outs.get(2L).toString().contains("You have a ring"), "the other game was recovered");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "SessionHost: a game with something scheduled is recovered with it still to happen",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var out = new Transcript();
+          var host = boxed(dir, out);
+          var session = create(host, out);
+          play(session, out, "open box", "look");
+          host.close();
+
+          var again = new Transcript();
+          var recovered = boxed(dir, again);
+          var s = recovered.sessions().iterator().next();
+          again.await();
+          for (var i = 0; i < 10; i++) play(s, again, "look");
+          check(again.toString().replace('\n', ' ').contains("lid slams shut"), "the box shut after recovery");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+
+    t.test(
+      "SessionHost: a game undone while something is scheduled goes on being kept",
+      () -> {
+        var dir = Files.createTempDirectory("host");
+        try {
+          var out = new Transcript();
+          var host = boxed(dir, out);
+          var session = create(host, out);
+          // The undo can't be journaled so the game has to be saved with the
+          // box's lid still to shut, and everything after it kept as well.
+          play(session, out, "open box", "take ring", "undo", "go east", "take bread");
+          host.close();
+
+          var again = new Transcript();
+          var recovered = boxed(dir, again);
+          var s = recovered.sessions().iterator().next();
+          again.await();
+          play(s, again, "inventory");
+          check(again.toString().contains("You have a loaf of bread."), again.toString());
+          play(s, again, "go west");
+          for (var i = 0; i < 10; i++) play(s, again, "look");
+          check(again.toString().replace('\n', ' ').contains("lid slams shut"), "the box still shut after recovery");
+          recovered.close();
+        } finally {
+          delete(dir);
+        }
+      }
+    );
+  }
+
+  private static SessionHost host(Path dir, Map<Long, Transcript> outs) throws IOException {
+    return new SessionHost(() -> new Maze().build(), 20, dir, id -> outs.computeIfAbsent(id, i -> new Transcript()));
+  }
+
+  private static SessionHost host(Path dir, Transcript out) throws IOException {
+    return new SessionHost(() -> new Maze().build(), 20, dir, id -> out);
+  }
+
+  // A host whose games have a box that shuts itself; see SchedulerTest.maze.
+  private static SessionHost boxed(Path dir, Transcript out) throws IOException {
+    return new SessionHost(SchedulerTest::maze, 20, dir, id -> out);
+  }
+
+  private static SessionHost.Session create(SessionHost host, Transcript out) throws InterruptedException {
+    var session = host.create(out);
+    out.await();
+    return session;
+  }
+
+  // Send each line and wait for the prompt after it.
+  private static void play(SessionHost.Session session, Transcript out, String... lines) throws InterruptedException {
+    for (var line : lines) {
+      session.send(line);
+      out.await();
+    }
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (var paths = Files.walk(dir)) {
+      for (var p : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+    }
+  }
+
+  /**
+   * Output of a game that can be waited on, a prompt at a time.
+   */
+  static class Transcript extends ByteArrayOutputStream {
+
+    private final Semaphore prompts = new Semaphore(0);
+    private int previous;
+
+    Transcript() {}
+
+    public synchronized void write(int b) {
+      super.write(b);
+      if (previous == '>' && b == ' ') prompts.release();
+      previous = b;
+    }
+
+    public synchronized void write(byte[] b, int off, int len) {
+      for (var i = off; i < off + len; i++) write(b[i]);
+    }
+
+    // Wait for the next prompt.
+    void await() throws InterruptedException {
+      if (!prompts.tryAcquire(10, TimeUnit.SECONDS)) throw new AssertionError("No prompt in: " + this);
+    }
+  }
+}
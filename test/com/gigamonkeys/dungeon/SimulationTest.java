@@ -0,0 +1,32 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+class SimulationTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Simulation: the same seed plays the same games however they're split across threads",
+      () -> {
+        var simulation = new Simulation(Simulation.RANDOM, 17, 200, 20);
+        var parallel = simulation.run(300);
+        var serial = new Simulation.Stats();
+        for (var n = 0; n < 300; n++) simulation.play(serial, n);
+        checkEquals(serial.toString(), parallel.toString());
+        checkEquals(parallel.toString(), simulation.run(300).toString());
+      }
+    );
+
+    t.test(
+      "Simulation: every game is counted and starts in the entryway",
+      () -> {
+        var stats = new Simulation(Simulation.FIGHTER, 3, 100, 20).run(200);
+        checkEquals(200L, stats.games);
+        checkEquals(200L, stats.visits.get("a dusty entryway to a castle"));
+        check(stats.turns > 0 && stats.turns <= 200 * 100, "between 1 and 100 turns a game");
+        check(stats.deaths <= 200, "no more deaths than games");
+        check(!stats.weaponUses.isEmpty(), "fighters use weapons");
+      }
+    );
+  }
+}
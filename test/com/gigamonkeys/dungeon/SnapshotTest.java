@@ -0,0 +1,211 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+class SnapshotTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Snapshot: a restored game is the game that was saved",
+      () -> {
+        var a = game();
+        for (var line : new String[] { "take ring", "eat sandwich", "go east", "go east", "go north", "open painting" }) {
+          a.run(line);
+        }
+        var b = game();
+        var first = temp();
+        var second = temp();
+        try {
+          Snapshot.save(a.player(), first);
+          Snapshot.restore(b.player(), first);
+          Snapshot.save(b.player(), second);
+          check(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second)), "saving again writes the same bytes");
+
+          checkEquals(a.player().room().id(), b.player().room().id());
+          checkEquals(a.player().hitPoints(), b.player().hitPoints());
+          checkEquals(a.run("inventory"), b.run("inventory"));
+          checkEquals(a.run("look"), b.run("look"));
+          check(b.run("go north").contains("throneroom"), "the door opened in the painting is restored");
+        } finally {
+          Files.deleteIfExists(first);
+          Files.deleteIfExists(second);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: restoring a different world fails and changes nothing",
+      () -> {
+        var a = game();
+        var b = game();
+        var file = temp();
+        try {
+          Snapshot.save(a.player(), file);
+          b.run("take ring");
+          World.using(b.player().world(), () -> new Thing.Furniture("stool", "three legged stool"));
+          var before = b.run("inventory");
+          checkThrows(() -> Snapshot.restore(b.player(), file), "different world");
+          checkEquals(before, b.run("inventory"));
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: a truncated file is an error and changes nothing",
+      () -> {
+        var file = temp();
+        try {
+          Snapshot.save(game().player(), file);
+          var size = Files.size(file);
+          // Halfway through the columns and just short of the end, after them.
+          for (var length : new long[] { size / 2, size - 6 }) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+              channel.truncate(length);
+            }
+            checkUnchanged(file, "truncated");
+          }
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: a door, string, or room out of range is an error and changes nothing",
+      () -> {
+        var file = temp();
+        try {
+          // The file ends with the last door, four ints, the player and the
+          // player's room, and then the turn, a long, and no scheduled actions.
+          var corruptions = new int[][] {
+            { -32, 99 }, // the last door's direction
+            { -24, 9999 }, // the last door's description
+            { -36, -5 }, // the room the last door is from
+            { -16, game().player().id() }, // the player's room, which isn't a room
+            { -8, -1 }, // the turn, made negative
+          };
+          for (var c : corruptions) {
+            Snapshot.save(game().player(), file);
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+              var b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(c[1]).flip();
+              channel.write(b, channel.size() + c[0]);
+            }
+            checkUnchanged(file, "corrupt");
+          }
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: actions still to happen are saved and happen on time after restoring",
+      () -> {
+        var a = game(new World(), SchedulerTest::maze);
+        var b = game(new World(), SchedulerTest::maze);
+        var file = temp();
+        try {
+          a.run("open box");
+          a.run("take ring");
+          Snapshot.save(a.player(), file);
+          Snapshot.restore(b.player(), file);
+          checkEquals(1, b.player().world().scheduler().pending());
+          checkEquals(a.player().world().scheduler().now(), b.player().world().scheduler().now());
+          // Opening the box and taking the ring were the first two turns.
+          for (var turn = 3; turn < SchedulerTest.Box.PROPPED; turn++) {
+            check(!b.run("look").replace('\n', ' ').contains("slams shut"), "not shut yet");
+          }
+          check(b.run("look").replace('\n', ' ').contains("lid slams shut"), "shut on time");
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: a scheduled action that isn't an action or doesn't fit is an error and changes nothing",
+      () -> {
+        var file = temp();
+        try {
+          var game = game(new World(), SchedulerTest::maze);
+          game.run("open box");
+          // The file ends with the box's Shut: its turns to go, class, box, and sound.
+          var corruptions = new int[][] {
+            { -12, 0 }, // the class is the first string, the entryway's name
+            { -8, game.player().id() }, // the box is the player
+            { -4, 9999 }, // the sound
+          };
+          for (var c : corruptions) {
+            Snapshot.save(game.player(), file);
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+              var b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(c[1]).flip();
+              channel.write(b, channel.size() + c[0]);
+            }
+            checkUnchanged(file, "corrupt", SchedulerTest::maze);
+          }
+        } finally {
+          Files.deleteIfExists(file);
+        }
+      }
+    );
+
+    t.test(
+      "Snapshot: games without a save directory can't be saved or restored",
+      () -> {
+        var game = game();
+        checkEquals("Games can't be saved here.", game.run("save"));
+        checkEquals("Games can't be restored here.", game.run("restore mine"));
+      }
+    );
+  }
+
+  interface Restore {
+    void run() throws IOException;
+  }
+
+  private static void checkThrows(Restore restore, String message) {
+    try {
+      restore.run();
+    } catch (IOException ioe) {
+      check(ioe.getMessage().contains(message), "expected <" + message + "> in <" + ioe.getMessage() + ">");
+      return;
+    }
+    throw new AssertionError("expected an IOException");
+  }
+
+  private static void checkUnchanged(Path file, String message) {
+    checkUnchanged(file, message, () -> new Maze().build());
+  }
+
+  // Restoring a game partway through from file fails without changing it.
+  private static void checkUnchanged(Path file, String message, Supplier<Room> maze) {
+    var game = game(new World(), maze);
+    game.run("take ring");
+    game.run("go east");
+    game.run("take bread");
+    var inventory = game.run("inventory");
+    var look = game.run("look");
+    checkThrows(() -> Snapshot.restore(game.player(), file), message);
+    checkEquals(inventory, game.run("inventory"));
+    checkEquals(look, game.run("look"));
+    game.run("go west");
+    check(!game.run("look").contains("ring"), "the ring is still taken");
+  }
+
+  static Path temp() throws IOException {
+    return Files.createTempFile("dungeon", ".sav");
+  }
+}
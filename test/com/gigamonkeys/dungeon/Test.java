@@ -0,0 +1,87 @@
+package com.gigamonkeys.dungeon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tests, e.g. with make test. There's no test framework, just a
+ * suite per class being tested, each of which runs named tests that fail by
+ * throwing. Exits with a non-zero status if any test failed.
+ */
+public class Test {
+
+  /**
+   * The body of a test.
+   */
+  interface Body {
+    void run() throws Exception;
+  }
+
+  private static final List<Consumer<Test>> SUITES = List.of(
+    TextTest::tests,
+    TrieTest::tests,
+    BKTreeTest::tests,
+    DungeonTest::tests,
+    WorldTest::tests,
+    SnapshotTest::tests,
+    JournalTest::tests,
+    SessionHostTest::tests,
+    CorpusTest::tests,
+    RoutesTest::tests,
+    SchedulerTest::tests,
+    NameIndexTest::tests,
+    RoomTest::tests,
+    ReactionsTest::tests,
+    MazeGeneratorTest::tests,
+    SimulationTest::tests,
+    RegionsTest::tests,
+    MetricsTest::tests,
+    ActorsTest::tests,
+    RealmTest::tests,
+    ServerTest::tests,
+    BenchTest::tests
+  );
+
+  private int passed = 0;
+  private final List<String> failures = new ArrayList<>();
+
+  /**
+   * Run one test, noting whether it passed.
+   */
+  void test(String name, Body body) {
+    try {
+      body.run();
+      passed++;
+    } catch (Exception | AssertionError e) {
+      failures.add(name + ": " + e);
+    }
+  }
+
+  static void check(boolean ok, String what) {
+    if (!ok) throw new AssertionError(what);
+  }
+
+  static void checkEquals(Object expected, Object actual) {
+    if (!Objects.equals(expected, actual)) {
+      throw new AssertionError("expected <" + expected + "> but got <" + actual + ">");
+    }
+  }
+
+  /**
+   * Make something, e.g. the Maze, in a fresh World of its own.
+   */
+  static <T> T fresh(Supplier<T> fn) {
+    return World.using(new World(), fn);
+  }
+
+  public static void main(String[] args) {
+    var t = new Test();
+    SUITES.forEach(s -> s.accept(t));
+    t.failures.forEach(System.out::println);
+    System.out.println(t.passed + " passed, " + t.failures.size() + " failed.");
+    if (!t.failures.isEmpty()) System.exit(1);
+  }
+}
@@ -0,0 +1,62 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+class TextTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Text: words are wrapped before the wrap column",
+      () -> {
+        var word = "abcdefghi";
+        var s = new Text.Wrapped().add(Stream.generate(() -> word).limit(10)).toString();
+        var lines = s.split("\n");
+        checkEquals(2, lines.length);
+        // Seven words and their spaces take 69 columns and an eighth would go
+        // past 72.
+        checkEquals(69, lines[0].length());
+        checkEquals(String.join(" ", word, word, word), lines[1]);
+      }
+    );
+
+    t.test(
+      "Text: runs of whitespace become one space and the ends are trimmed",
+      () -> checkEquals("a b c", new Text.Wrapped().add("  a \n  b\t\tc  ").toString())
+    );
+
+    t.test(
+      "Text: a wrapper writes straight into its Appendable and counts what it wrote",
+      () -> {
+        var sb = new StringBuilder("> ");
+        var w = new Text.Wrapper(sb);
+        w.add("one two");
+        checkEquals("> one two", sb.toString());
+        checkEquals(7L, w.written());
+        w.reset().add("three");
+        checkEquals("> one twothree", sb.toString());
+        checkEquals(12L, w.written());
+      }
+    );
+
+    t.test(
+      "Text: raw text is written as is",
+      () -> {
+        var sb = new StringBuilder();
+        new Text.Wrapper(sb).raw("a\n\n  b");
+        checkEquals("a\n\n  b", sb.toString());
+      }
+    );
+
+    t.test(
+      "Text: lists are joined as English",
+      () -> {
+        checkEquals("a, b, and c", Text.commify(List.of("a", "b", "c")));
+        checkEquals("a or b", Text.either(List.of("a", "b")));
+        checkEquals("an axe", Text.a("axe"));
+      }
+    );
+  }
+}
@@ -0,0 +1,63 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.List;
+
+class TrieTest {
+
+  static void tests(Test t) {
+    t.test(
+      "Trie: a word is found by itself or by any prefix only it starts with",
+      () -> {
+        var trie = words("take", "talk", "go");
+        checkEquals("take", trie.get("take"));
+        checkEquals(null, trie.get("tak"));
+        checkEquals("take", trie.unique("tak"));
+        checkEquals("go", trie.unique("g"));
+        checkEquals(null, trie.unique("ta"));
+        checkEquals(null, trie.unique("x"));
+      }
+    );
+
+    t.test(
+      "Trie: a word is found exactly even if it is a prefix of others",
+      () -> {
+        var trie = words("go", "gold", "golem");
+        checkEquals("go", trie.unique("go"));
+        checkEquals(null, trie.unique("gol"));
+        checkEquals(3, trie.count("g"));
+        checkEquals(List.of("gold", "golem"), trie.completions("gol").stream().sorted().toList());
+      }
+    );
+
+    t.test(
+      "Trie: lookups fold case",
+      () -> {
+        var trie = words("painting");
+        checkEquals("painting", trie.get("PAINTING"));
+        checkEquals("painting", trie.unique("Pa"));
+      }
+    );
+
+    t.test(
+      "Trie: a word added twice stays until removed twice",
+      () -> {
+        var trie = words("painting", "painting", "pirate");
+        checkEquals(2, trie.size());
+        trie.remove("painting");
+        checkEquals("painting", trie.get("painting"));
+        trie.remove("painting");
+        checkEquals(null, trie.get("painting"));
+        checkEquals("pirate", trie.unique("p"));
+        checkEquals(1, trie.size());
+      }
+    );
+  }
+
+  private static Trie<String> words(String... words) {
+    var trie = new Trie<String>();
+    for (var w : words) trie.add(w, w);
+    return trie;
+  }
+}
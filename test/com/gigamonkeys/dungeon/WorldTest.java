@@ -0,0 +1,205 @@
+package com.gigamonkeys.dungeon;
+
+import static com.gigamonkeys.dungeon.DungeonTest.game;
+import static com.gigamonkeys.dungeon.Test.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class WorldTest {
+
+  static void tests(Test t) {
+    t.test(
+      "World: ids are handed out in order and state survives growing past a page",
+      () -> {
+        var world = new World();
+        var n = World.PAGE_SIZE * 2 + 10;
+        for (var i = 0; i < n; i++) checkEquals(i, world.add(null, "n" + i, "d" + i, i % 2 == 0 ? World.PORTABLE : 0, i));
+        checkEquals(n, world.size());
+        for (var i = 0; i < n; i += 997) {
+          checkEquals("n" + i, world.name(i));
+          checkEquals("d" + i, world.description(i));
+          checkEquals(i % 2 == 0, world.is(i, World.PORTABLE));
+          checkEquals(i, world.hitPoints(i));
+          checkEquals(World.NONE, world.parent(i));
+        }
+      }
+    );
+
+    t.test(
+      "World: flags are set and cleared one at a time",
+      () -> {
+        var world = new World();
+        var id = world.add(null, "chest", "chest", World.PORTABLE, 0);
+        world.set(id, World.OPEN, true);
+        check(world.is(id, World.OPEN) && world.is(id, World.PORTABLE), "open and still portable");
+        world.set(id, World.PORTABLE, false);
+        check(world.is(id, World.OPEN) && !world.is(id, World.PORTABLE), "open and no longer portable");
+      }
+    );
+
+    t.test(
+      "World: children are kept in the order they were placed and can be taken out of the middle",
+      () -> {
+        var world = new World();
+        var room = world.add(null, "room", "room", 0, 0);
+        var a = world.add(null, "a", "a", 0, 0);
+        var b = world.add(null, "b", "b", 0, 0);
+        var c = world.add(null, "c", "c", 0, 0);
+        world.place(a, room, "on the floor");
+        world.place(b, room, "on the floor");
+        world.place(c, room, "against the wall");
+        checkEquals(List.of(a, b, c), children(world, room));
+        checkEquals("against the wall", world.place(c));
+
+        world.unplace(b);
+        checkEquals(List.of(a, c), children(world, room));
+        checkEquals(World.NONE, world.parent(b));
+
+        world.place(a, c, "inside");
+        checkEquals(List.of(c), children(world, room));
+        checkEquals(List.of(a), children(world, c));
+        checkEquals(c, world.parent(a));
+      }
+    );
+
+    t.test(
+      "World: rolling back to a checkpoint puts back everything changed since",
+      () -> {
+        var world = new World();
+        var n = World.PAGE_SIZE * 2 + 5;
+        for (var i = 0; i < n; i++) world.add(null, "n" + i, "d" + i, 0, 10);
+        var far = World.PAGE_SIZE + 3;
+        world.place(1, 0, "on the floor");
+        world.place(2, 0, "on the floor");
+
+        var version = world.checkpoint();
+        check(!world.changedSince(version), "nothing has changed yet");
+
+        world.set(1, World.OPEN, true);
+        world.setHitPoints(far, 3);
+        world.unplace(1);
+        world.place(2, far, "inside");
+        world.add(null, "new", "new", 0, 0);
+        world.scheduler().schedule(5, new Action.Talk("later"));
+        check(world.changedSince(version), "things have changed");
+
+        world.rollback(version);
+        checkEquals(n, world.size());
+        check(!world.is(1, World.OPEN), "the flag is cleared again");
+        checkEquals(10, world.hitPoints(far));
+        checkEquals(List.of(1, 2), children(world, 0));
+        checkEquals(List.of(), children(world, far));
+        checkEquals(0, world.scheduler().pending());
+        check(!world.changedSince(version), "nothing has changed since the rollback");
+
+        world.setHitPoints(far + World.PAGE_SIZE - 3, 1);
+        world.rollback(version);
+        checkEquals(10, world.hitPoints(far + World.PAGE_SIZE - 3));
+      }
+    );
+
+    t.test(
+      "World: undoing opening a door takes the door away until it's opened again",
+      () -> {
+        var game = game();
+        for (var line : List.of("go east", "go east", "go north", "open painting")) game.run(line);
+        check(game.run("undo").startsWith("Undone."), "undid opening the painting");
+        checkEquals("No door to the NORTH.", game.run("go north"));
+        check(game.run("open painting").startsWith("The door in the painting opens"), "opened it again");
+        check(game.run("go north").contains("a massive throneroom"), "through the door");
+      }
+    );
+
+    t.test(
+      "World: an overlay's changes are its own",
+      () -> {
+        var base = new World();
+        var n = World.PAGE_SIZE + 5;
+        for (var i = 0; i < n; i++) base.add(null, "n" + i, "d" + i, 0, 10);
+        base.place(1, 0, "on the floor");
+        var a = base.fork();
+        var b = base.fork();
+        check(a.overlay() && b.overlay() && !base.overlay(), "a and b are overlays");
+
+        a.set(1, World.OPEN, true);
+        a.setHitPoints(n - 1, 4);
+        a.unplace(1);
+        var id = a.add(null, "new", "new", 0, 0);
+        checkEquals(n, id);
+
+        check(!base.is(1, World.OPEN) && !b.is(1, World.OPEN), "the flag is only set in a");
+        checkEquals(10, base.hitPoints(n - 1));
+        checkEquals(10, b.hitPoints(n - 1));
+        checkEquals(List.of(1), children(base, 0));
+        checkEquals(List.of(1), children(b, 0));
+        checkEquals(n, base.size());
+        checkEquals(n, b.add(null, "other", "other", 0, 0));
+        checkEquals("new", a.name(n));
+        checkEquals("other", b.name(n));
+      }
+    );
+
+    t.test(
+      "World: games in overlays of one world each open their own doors",
+      () -> {
+        var base = new World();
+        var start = World.using(base, () -> new Maze().build());
+        var a = game(base.fork(), () -> start);
+        var b = game(base.fork(), () -> start);
+        var c = game(base.fork(), () -> start);
+        for (var g : List.of(a, b)) {
+          for (var line : List.of("go east", "go east", "go north")) g.run(line);
+          check(g.run("open painting").startsWith("The door in the painting opens"), "opened the painting");
+          check(g.run("go north").contains("a massive throneroom"), "through the door");
+        }
+        for (var line : List.of("go east", "go east", "go north")) c.run(line);
+        checkEquals("No door to the NORTH.", c.run("go north"));
+        c.run("go south");
+        c.run("take sword");
+        check(c.run("inventory").contains("broadsword"), "c has the sword");
+        check(!a.run("inventory").contains("broadsword"), "a doesn't");
+      }
+    );
+
+    t.test(
+      "World: rooms and things can only be made in some world",
+      () -> {
+        for (Runnable make : List.<Runnable>of(() -> new Room("a room"), () -> new Thing.Furniture("chair", "a chair"))) {
+          try {
+            make.run();
+            throw new AssertionError("made something in no world");
+          } catch (IllegalStateException ise) {
+            check(ise.getMessage().contains("World.using"), ise.getMessage());
+          }
+        }
+      }
+    );
+
+    t.test(
+      "World: nothing can be scheduled in a shared world and its clock doesn't move",
+      () -> {
+        var start = new ArrayList<Room>();
+        new Realm(() -> {
+          start.add(new Maze().build());
+          return start.get(0);
+        }, 20).close();
+        var world = start.get(0).world();
+        try {
+          world.scheduler().schedule(1, new Action.Talk("later"));
+          throw new AssertionError("scheduled in a shared world");
+        } catch (IllegalStateException ise) {
+          check(ise.getMessage().contains("shared"), ise.getMessage());
+        }
+        checkEquals(List.of(), world.scheduler().tick());
+        checkEquals(0L, world.scheduler().now());
+      }
+    );
+  }
+
+  static List<Integer> children(World world, int parent) {
+    var ids = new ArrayList<Integer>();
+    for (var id = world.firstChild(parent); id != World.NONE; id = world.nextSibling(id)) ids.add(id);
+    return ids;
+  }
+}